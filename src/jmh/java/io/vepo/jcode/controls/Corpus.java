@@ -0,0 +1,276 @@
+package io.vepo.jcode.controls;
+
+import java.util.Map;
+
+/**
+ * Generated inputs for the highlighting benchmarks: a realistic sample of each language repeated up to a size, and
+ * pathological inputs that stress a single construct.
+ */
+final class Corpus {
+
+    private static final String JAVA = """
+        package io.vepo.sample;
+
+        import java.util.List;
+
+        /**
+         * Sample class, with a javadoc spanning
+         * a few lines.
+         */
+        @SuppressWarnings("unused")
+        public class Sample<T extends Comparable<T>> {
+            private static final String MESSAGE = "Hello, \\"world\\" /* not a comment */";
+            private final List<T> values;
+
+            public Sample(List<T> values) {
+                this.values = values; // line comment
+            }
+
+            public T max() {
+                T max = null;
+                for (T value : values) {
+                    if (max == null || value.compareTo(max) > 0) {
+                        max = value;
+                    }
+                }
+                return max;
+            }
+
+            String describe(int count) {
+                return switch (count) {
+                    case 0 -> "none";
+                    case 1 -> "one" + 'c' + 0x1F + 1.5e3;
+                    default -> \"\"\"
+                        many
+                        \"\"\";
+                };
+            }
+        }
+        """;
+
+    private static final String XML = """
+        <?xml version="1.0" encoding="UTF-8"?>
+        <project xmlns="http://maven.apache.org/POM/4.0.0">
+            <!-- A comment
+                 spanning lines -->
+            <modelVersion>4.0.0</modelVersion>
+            <dependencies>
+                <dependency scope="test" optional="true">
+                    <groupId>org.junit.jupiter</groupId>
+                    <artifactId>junit-jupiter</artifactId>
+                </dependency>
+            </dependencies>
+            <script><![CDATA[ if (a < b) { run(); } ]]></script>
+        </project>
+        """;
+
+    private static final String JSON = """
+        {
+          "name": "jcode",
+          "version": 1.5e3,
+          "private": true,
+          "license": null,
+          "keywords": ["editor", "javafx", "highlighting"],
+          "dependencies": {
+            "richtextfx": { "version": "0.11.5", "optional": false },
+            "reactfx": { "version": "2.0-M5", "optional": false }
+          },
+          "counts": [1, 2, 3, -4.25, 1e-9]
+        }
+        """;
+
+    private static final String CSS = """
+        /* Theme of the editor,
+           spanning lines */
+        .java-code .keyword {
+            -fx-fill: #cc7832;
+            -fx-font-weight: bold;
+        }
+
+        .java-code .string, .java-code .char {
+            -fx-fill: #6a8759;
+            font-family: "Consolas", monospace;
+            margin: 0 5px 10px 1.5em;
+        }
+
+        #main > .item:hover {
+            color: rgb(255, 0, 0);
+        }
+        """;
+
+    private static final String HTML = """
+        <!DOCTYPE html>
+        <html>
+        <head>
+            <title>Sample</title>
+            <link href="style.css" rel="stylesheet">
+            <style>
+                body { margin: 0; }
+            </style>
+        </head>
+        <body>
+            <!-- A comment
+                 spanning lines -->
+            <div id="main" class="container">
+                <a href="https://example.com" title='Example'>Link</a>
+                <input type="text" placeholder="Name" required>
+            </div>
+            <script type="text/javascript">
+                if (a < b) { console.log("<!-- not a comment -->"); }
+            </script>
+        </body>
+        </html>
+        """;
+
+    private static final String MARKDOWN = """
+        # Sample document
+
+        Some **bold**, *italic* and _emphasis_ text with `inline code` and a [link](https://example.com).
+        A snake_case_name is not emphasis, \\*neither is this\\*.
+
+        ## Code
+
+        ```java
+        int a = 1; // # not a header
+        ```
+
+        - item with `code`
+        - item with **bold [link](url)**
+        """;
+
+    private static final String KOTLIN = """
+        /* A /* nested */
+           comment */
+        data class Sample(val values: List<Int>) {
+            fun max(): Int? = values.maxOrNull() // line comment
+
+            override fun toString() = "Sample(${values.size} values, max $max)"
+        }
+        """;
+
+    private static final String YAML = """
+        # Build configuration
+        name: jcode
+        version: 1.5e3
+        enabled: true
+        anchors: &defaults
+          timeout: 30
+          message: "Hello, \\"world\\""
+        dependencies:
+          - name: 'richtextfx'
+            optional: no
+        """;
+
+    private static final String SQL = """
+        -- Users with their orders
+        SELECT u.id, u.name, count(o.id) AS orders
+        FROM users u /* all of them */
+        LEFT JOIN orders o ON o.user_id = u.id
+        WHERE u.created_at > :since AND u.name <> 'it''s'
+        GROUP BY u.id, u.name
+        ORDER BY orders DESC;
+        """;
+
+    private static final String SHELL = """
+        #!/usr/bin/env bash
+        # Deploy the application
+        set -euo pipefail
+        TARGET="${1:-staging}"
+        for file in $(ls build/*.jar); do
+            if [ -f "$file" ]; then
+                echo "Deploying $file to ${TARGET}" && cp "$file" /opt/app/
+            fi
+        done
+        """;
+
+    private static final String JAVASCRIPT = """
+        /* Render the items,
+           spanning lines */
+        import { render } from './view.js';
+
+        export async function show(items, limit = 0x10) {
+            const shown = items.filter(item => item.count > 1.5e3); // line comment
+            for (let i = 0; i < shown.length && i < limit; ++i) {
+                await render(`Item ${shown[i].name}: "${i}"`, 'it\\'s');
+            }
+            return new Map([[null, undefined]]);
+        }
+        """;
+
+    private static final Map<String, String> SAMPLES = Map.ofEntries(Map.entry("java", JAVA),
+                                                                     Map.entry("xml", XML),
+                                                                     Map.entry("json", JSON),
+                                                                     Map.entry("css", CSS),
+                                                                     Map.entry("html", HTML),
+                                                                     Map.entry("md", MARKDOWN),
+                                                                     Map.entry("kt", KOTLIN),
+                                                                     Map.entry("yaml", YAML),
+                                                                     Map.entry("sql", SQL),
+                                                                     Map.entry("bash", SHELL),
+                                                                     Map.entry("js", JAVASCRIPT));
+
+    private Corpus() {
+    }
+
+    /**
+     * Sample of a language, by file extension, repeated up to <code>size</code> characters.
+     */
+    static String of(String language, int size) {
+        String sample = SAMPLES.get(language);
+        if (sample == null) {
+            throw new IllegalArgumentException("No sample of " + language + "!");
+        }
+        return repeat(sample, size);
+    }
+
+    /**
+     * Input of about <code>size</code> characters made of a single construct.
+     */
+    static String pathological(String name, int size) {
+        return switch (name) {
+            // A block comment spanning the whole file
+            case "java-block-comment" -> "/*" + repeat(" * nothing but a comment\n", size) + "*/\n";
+            // A block comment that is never closed
+            case "css-unclosed-comment" -> "/*" + repeat(".a { color: red; }\n", size);
+            // Minified JSON, on a single line
+            case "json-minified" -> "[" + repeat("{\"key\":\"value\",\"number\":1.5e3,\"list\":[true,false,null]},", size) + "{}]";
+            // Elements nested in each other
+            case "xml-nested" -> {
+                StringBuilder builder = new StringBuilder(size + 16);
+                int depth = size / 32;
+                for (int i = 0; i < depth; ++i) {
+                    builder.append("<e").append(i % 10).append(" a=\"v\">");
+                }
+                for (int i = depth - 1; i >= 0; --i) {
+                    builder.append("</e").append(i % 10).append('>');
+                }
+                yield builder.toString();
+            }
+            // A single script body lexed by the embedded JavaScript lexer, with markup-like text in its strings
+            case "html-script" -> "<script>\n" + repeat("if (a < b) { \"<!--\"; }\n", size) + "</script>\n";
+            // Delimiters that are never closed, on a single line
+            case "md-delimiters" -> repeat("*_[`** __ ", size) + "\n";
+            default -> throw new IllegalArgumentException("No pathological input " + name + "!");
+        };
+    }
+
+    /**
+     * Size in characters of a size name: <code>small</code>, <code>1mb</code> or <code>20mb</code>.
+     */
+    static int size(String name) {
+        return switch (name) {
+            case "small" -> 4 * 1024;
+            case "1mb" -> 1024 * 1024;
+            case "20mb" -> 20 * 1024 * 1024;
+            default -> throw new IllegalArgumentException("Unknown size " + name + "!");
+        };
+    }
+
+    private static String repeat(String sample, int size) {
+        StringBuilder builder = new StringBuilder(size + sample.length());
+        while (builder.length() < size) {
+            builder.append(sample);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,51 @@
+package io.vepo.jcode.controls;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.fxmisc.richtext.model.StyleSpans;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Full highlighting of every registered language, on generated inputs of growing size. Sample time mode reports
+ * the latency percentiles, p99 included, and the gc profiler enabled by the <code>jmh</code> profile reports the
+ * allocation rate. Narrow the run with <code>-p language=java -p size=1mb</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HighlighterBenchmark {
+
+    @Param({ "java", "xml", "json", "css", "html", "md", "kt", "yaml", "sql", "bash", "js" })
+    public String language;
+
+    @Param({ "small", "1mb", "20mb" })
+    public String size;
+
+    private LanguageHighlighter highlighter;
+    private String text;
+
+    @Setup
+    public void setUp() {
+        highlighter = HighlighterFactory.getHighlighter(language).orElseThrow();
+        text = Corpus.of(language, Corpus.size(size));
+    }
+
+    @Benchmark
+    public StyleSpans<Collection<String>> computeHighlighting() {
+        return highlighter.computeHighlighting(text);
+    }
+}
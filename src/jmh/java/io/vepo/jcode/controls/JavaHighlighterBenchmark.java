@@ -0,0 +1,153 @@
+package io.vepo.jcode.controls;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.fxmisc.richtext.model.StyleSpans;
+import org.fxmisc.richtext.model.StyleSpansBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the named-group regex alternation that used to highlight Java with the {@link JavaLexer}, on real
+ * sources. Point <code>sources</code> to any source tree with <code>-p sources=/path/to/src</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JavaHighlighterBenchmark {
+
+    private static final String[] GROUPS = {
+        "KEYWORD", "PAREN", "BRACE", "BRACKET", "SEMICOLON", "STRING",
+        "CHAR", "COMMENT", "NUMBER", "ANNOTATION", "TYPE"
+    };
+
+    @Param({ "src" })
+    public String sources;
+
+    private String text;
+    private Pattern pattern;
+    private ParagraphLexer lexer;
+    private JavaHighlighter highlighter;
+    private final TokenBuffer buffer = new TokenBuffer();
+
+    @Setup
+    public void setUp() {
+        try (Stream<Path> files = Files.walk(Path.of(sources))) {
+            text = files.filter(file -> file.toString().endsWith(".java"))
+                        .sorted()
+                        .map(JavaHighlighterBenchmark::read)
+                        .collect(Collectors.joining("\n"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        highlighter = new JavaHighlighter();
+        pattern = highlighter.getPattern();
+        lexer = highlighter.getParagraphLexer().orElseThrow();
+    }
+
+    @Benchmark
+    public void regexTokens(Blackhole blackhole) {
+        Matcher matcher = pattern.matcher(text);
+        while (matcher.find()) {
+            for (String group : GROUPS) {
+                if (matcher.group(group) != null) {
+                    blackhole.consume(group);
+                    break;
+                }
+            }
+            blackhole.consume(matcher.end());
+        }
+    }
+
+    @Benchmark
+    public void lexerTokens(Blackhole blackhole) {
+        int state = ParagraphLexer.INITIAL_STATE;
+        int start = 0;
+        while (start <= text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                end = text.length();
+            }
+            state = lexer.lexParagraph(text, start, end, state, (tokenStart, tokenEnd, type) -> {
+                blackhole.consume(type);
+                blackhole.consume(tokenEnd);
+            });
+            start = end + 1;
+        }
+    }
+
+    @Benchmark
+    public int lexerTokenBuffer() {
+        int tokens = 0;
+        int state = ParagraphLexer.INITIAL_STATE;
+        int start = 0;
+        while (start <= text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                end = text.length();
+            }
+            buffer.clear();
+            state = lexer.lexParagraph(text, start, end, state, buffer);
+            tokens += buffer.size();
+            start = end + 1;
+        }
+        return tokens;
+    }
+
+    @Benchmark
+    public StyleSpans<Collection<String>> regexSpans() {
+        Matcher matcher = pattern.matcher(text);
+        int lastKwEnd = 0;
+        StyleSpansBuilder<Collection<String>> spansBuilder = new StyleSpansBuilder<>();
+        while (matcher.find()) {
+            String styleClass = null;
+            for (String group : GROUPS) {
+                if (matcher.group(group) != null) {
+                    styleClass = group.toLowerCase();
+                    break;
+                }
+            }
+            spansBuilder.add(Collections.emptyList(), matcher.start() - lastKwEnd);
+            spansBuilder.add(Collections.singleton(styleClass), matcher.end() - matcher.start());
+            lastKwEnd = matcher.end();
+        }
+        spansBuilder.add(Collections.emptyList(), text.length() - lastKwEnd);
+        return spansBuilder.create();
+    }
+
+    @Benchmark
+    public StyleSpans<Collection<String>> lexerSpans() {
+        return highlighter.computeHighlighting(text);
+    }
+
+    private static String read(Path file) {
+        try {
+            return Files.readString(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package io.vepo.jcode.controls;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.fxmisc.richtext.model.StyleSpans;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Full highlighting of inputs made of a single construct that used to make highlighters slow: huge or unclosed
+ * block comments, minified JSON, deeply nested XML, long script bodies and unmatched Markdown delimiters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PathologicalHighlighterBenchmark {
+
+    @Param({ "java-block-comment", "css-unclosed-comment", "json-minified", "xml-nested", "html-script",
+             "md-delimiters" })
+    public String input;
+
+    @Param({ "1mb" })
+    public String size;
+
+    private LanguageHighlighter highlighter;
+    private String text;
+
+    @Setup
+    public void setUp() {
+        highlighter = HighlighterFactory.getHighlighter(input.substring(0, input.indexOf('-'))).orElseThrow();
+        text = Corpus.pathological(input, Corpus.size(size));
+    }
+
+    @Benchmark
+    public StyleSpans<Collection<String>> computeHighlighting() {
+        return highlighter.computeHighlighting(text);
+    }
+}
@@ -164,6 +164,84 @@ public class ConfigurationManager {
         getEditorPreferences().put(AppConstants.OPEN_TABS_KEY, openTabs);
     }
     
+    /**
+     * Gets the size, in characters, above which files get a degraded highlighting.
+     * 
+     * @return Large file threshold
+     */
+    public int getLargeFileThreshold() {
+        return getEditorPreferences().getInt(AppConstants.LARGE_FILE_THRESHOLD_KEY,
+                                             AppConstants.DEFAULT_LARGE_FILE_THRESHOLD);
+    }
+    
+    /**
+     * Sets the size, in characters, above which files get a degraded highlighting.
+     * 
+     * @param threshold The large file threshold
+     */
+    public void setLargeFileThreshold(int threshold) {
+        getEditorPreferences().putInt(AppConstants.LARGE_FILE_THRESHOLD_KEY, threshold);
+    }
+    
+    /**
+     * Gets the line length, in characters, above which files get a degraded highlighting and lines are left
+     * unstyled.
+     * 
+     * @return Long line threshold
+     */
+    public int getLongLineThreshold() {
+        return getEditorPreferences().getInt(AppConstants.LONG_LINE_THRESHOLD_KEY,
+                                             AppConstants.DEFAULT_LONG_LINE_THRESHOLD);
+    }
+    
+    /**
+     * Sets the line length, in characters, above which files get a degraded highlighting and lines are left
+     * unstyled.
+     * 
+     * @param threshold The long line threshold
+     */
+    public void setLongLineThreshold(int threshold) {
+        getEditorPreferences().putInt(AppConstants.LONG_LINE_THRESHOLD_KEY, threshold);
+    }
+    
+    /**
+     * Gets the size, in bytes, above which files are streamed into the editor while they are read.
+     * 
+     * @return Streaming threshold
+     */
+    public long getStreamingThreshold() {
+        return getEditorPreferences().getLong(AppConstants.STREAMING_THRESHOLD_KEY,
+                                              AppConstants.DEFAULT_STREAMING_THRESHOLD);
+    }
+    
+    /**
+     * Sets the size, in bytes, above which files are streamed into the editor while they are read.
+     * 
+     * @param threshold The streaming threshold
+     */
+    public void setStreamingThreshold(long threshold) {
+        getEditorPreferences().putLong(AppConstants.STREAMING_THRESHOLD_KEY, threshold);
+    }
+    
+    /**
+     * Gets the size, in bytes, above which files are opened in a line editor over the mapped file.
+     * 
+     * @return Viewer threshold
+     */
+    public long getViewerThreshold() {
+        return getEditorPreferences().getLong(AppConstants.VIEWER_THRESHOLD_KEY,
+                                              AppConstants.DEFAULT_VIEWER_THRESHOLD);
+    }
+    
+    /**
+     * Sets the size, in bytes, above which files are opened in a line editor over the mapped file.
+     * 
+     * @param threshold The viewer threshold
+     */
+    public void setViewerThreshold(long threshold) {
+        getEditorPreferences().putLong(AppConstants.VIEWER_THRESHOLD_KEY, threshold);
+    }
+    
     // Recent Workspaces Configuration
     
     /**
@@ -27,6 +27,20 @@ public final class AppConstants {
     public static final String OPEN_TABS_KEY = "open-tabs";
     public static final String WORKSPACES_KEY = "workspaces";
     
+    // Highlighting Limits, above them files get a degraded highlighting
+    public static final String LARGE_FILE_THRESHOLD_KEY = "large-file-threshold";
+    public static final String LONG_LINE_THRESHOLD_KEY = "long-line-threshold";
+    public static final int DEFAULT_LARGE_FILE_THRESHOLD = 8 * 1024 * 1024;
+    public static final int DEFAULT_LONG_LINE_THRESHOLD = 10_000;
+    
+    // Streaming Limit, above it files are streamed into the editor while they are read
+    public static final String STREAMING_THRESHOLD_KEY = "streaming-threshold";
+    public static final long DEFAULT_STREAMING_THRESHOLD = 8L * 1024 * 1024;
+    
+    // Viewer Limit, above it files are opened in a line editor over the mapped file
+    public static final String VIEWER_THRESHOLD_KEY = "viewer-threshold";
+    public static final long DEFAULT_VIEWER_THRESHOLD = 64L * 1024 * 1024;
+    
     // Preferences Nodes
     public static final String WINDOW_PREFS_NODE = "window";
     public static final String EDITOR_PREFS_NODE = "editor";
@@ -0,0 +1,54 @@
+package io.vepo.jcode.controls;
+
+import java.time.Duration;
+
+/**
+ * Quiet period to wait for after an edit before highlighting, adapted to what highlighting the document costs.
+ * Cheap documents are highlighted almost as soon as typing pauses, expensive ones coalesce edits over a longer
+ * window, so the time spent highlighting stays a small fraction of the time spent typing.
+ * <p>
+ * The cost is a moving average of the last runs, so a single slow run, like the one after opening a block comment,
+ * does not make the editor sluggish for long.
+ */
+final class AdaptiveDebounce {
+
+    static final Duration MIN_QUIET_PERIOD = Duration.ofMillis(20);
+    static final Duration MAX_QUIET_PERIOD = Duration.ofMillis(1_000);
+
+    // Quiet period per unit of cost, and weight of the last run on the average
+    private static final int COST_FACTOR = 4;
+    private static final double SMOOTHING = 0.3;
+
+    private long averageNanos = -1;
+    private long lastNanos;
+
+    /**
+     * Record the cost of a highlighting run.
+     */
+    void measured(long nanos) {
+        lastNanos = nanos;
+        averageNanos = averageNanos < 0 ? nanos : Math.round(averageNanos + SMOOTHING * (nanos - averageNanos));
+    }
+
+    /**
+     * Cost of the last run, or zero if none was measured yet.
+     */
+    Duration lastCost() {
+        return Duration.ofNanos(lastNanos);
+    }
+
+    /**
+     * Moving average of the cost of the runs, or zero if none was measured yet.
+     */
+    Duration averageCost() {
+        return Duration.ofNanos(Math.max(0, averageNanos));
+    }
+
+    /**
+     * Time without edits to wait for before the next run.
+     */
+    Duration quietPeriod() {
+        long nanos = Math.max(0, averageNanos) * COST_FACTOR;
+        return Duration.ofNanos(Math.clamp(nanos, MIN_QUIET_PERIOD.toNanos(), MAX_QUIET_PERIOD.toNanos()));
+    }
+}
@@ -0,0 +1,610 @@
+package io.vepo.jcode.controls;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Index of the parentheses, brackets and braces of a document, built from the <code>paren</code>,
+ * <code>bracket</code> and <code>brace</code> tokens, so brackets inside strings and comments are ignored.
+ * <p>
+ * The index also finds the regions of the document that can be folded: a paragraph starts a region when a brace,
+ * a bracket or an element of a <code>tag</code> token opens there and is closed in a later paragraph, and a
+ * <code>md-header</code> paragraph starts a region ending before the next header of the same or a higher level.
+ * Elements are matched by nesting only, whatever their names, and the void elements of HTML never open one.
+ * <p>
+ * The index is an immutable balanced tree of paragraphs, a treap ordered by position. Every node keeps, for each
+ * kind of bracket, how many closing and opening brackets of its subtree are left unmatched inside it. Finding the
+ * bracket matching another one walks down the tree skipping the subtrees that can not hold it, and replacing a
+ * range of paragraphs only rebuilds the nodes on the way to them. Updates return a new index sharing the nodes they
+ * did not change, so an index can be read by one thread while another one derives the next version.
+ */
+final class BracketIndex {
+
+    private static final BracketIndex EMPTY = new BracketIndex(null);
+
+    private static final int KINDS = 4;
+    private static final int PAREN_KIND = 0;
+    private static final int ELEMENT_KIND = 3;
+    private static final String OPENING = "([{";
+    private static final String CLOSING = ")]}";
+
+    private static final int PAREN = TokenTypes.of("paren");
+    private static final int BRACKET = TokenTypes.of("bracket");
+    private static final int BRACE = TokenTypes.of("brace");
+    private static final int TAG = TokenTypes.of("tag");
+    private static final int HEADER = TokenTypes.of("md-header");
+
+    private static final int NO_HEADING = Integer.MAX_VALUE;
+    private static final Set<String> VOID_ELEMENTS = Set.of("area", "base", "br", "col", "embed", "hr", "img",
+                                                            "input", "link", "meta", "source", "track", "wbr");
+
+    private static final int[] NO_BRACKETS = {};
+
+    /**
+     * A paragraph and its subtree.
+     */
+    private static final class Node {
+        private final Node left;
+        private final Node right;
+        private final int priority;
+        private final int length;
+        // Brackets of the paragraph, packed as offset << 3 | kind << 1 | 1 if opening
+        private final int[] brackets;
+        private final int[] residue;
+        // Bracket opening a fold, the first opening one not closed in the paragraph, or -1
+        private final int fold;
+        private final int heading;
+        private final int paragraphs;
+        private final long chars;
+        // Unmatched closing, then opening, brackets of the subtree for each kind
+        private final int[] unmatched;
+        private final int minHeading;
+
+        private Node(Node left, Node right, int priority, int length, int[] brackets, int[] residue, int fold,
+                     int heading) {
+            this.left = left;
+            this.right = right;
+            this.priority = priority;
+            this.length = length;
+            this.brackets = brackets;
+            this.residue = residue;
+            this.fold = fold;
+            this.heading = heading;
+            this.paragraphs = paragraphs(left) + 1 + paragraphs(right);
+            this.chars = chars(left) + length + chars(right);
+            this.unmatched = left == null && right == null ? residue
+                                                           : combine(combine(unmatched(left), residue),
+                                                                     unmatched(right));
+            this.minHeading = Math.min(heading, Math.min(minHeading(left), minHeading(right)));
+        }
+
+        private Node with(Node left, Node right) {
+            return new Node(left, right, priority, length, brackets, residue, fold, heading);
+        }
+    }
+
+    /**
+     * A paragraph found in the tree, starting at <code>start</code>.
+     */
+    private record Position(Node node, int paragraph, long start) {
+    }
+
+    private final Node root;
+
+    private BracketIndex(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * Index without any paragraph.
+     */
+    static BracketIndex empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Number of paragraphs indexed.
+     */
+    int paragraphCount() {
+        return paragraphs(root);
+    }
+
+    /**
+     * Index with the paragraphs <code>[from, to)</code> replaced by new ones, the first of them starting at
+     * <code>offset</code> in the text.
+     *
+     * @param lengths lengths of the new paragraphs, without their line terminator
+     * @param tokens  tokens of the new paragraphs, as stored by the {@link HighlightingModel}
+     */
+    BracketIndex replace(int from, int to, CharSequence text, int offset, LexerCheckpoints lengths,
+                         List<int[]> tokens) {
+        Node[] head = split(root, from);
+        Node[] tail = split(head[1], to - from);
+        return new BracketIndex(merge(merge(head[0], build(text, offset, lengths, tokens)), tail[1]));
+    }
+
+    /**
+     * Index of the first <code>count</code> paragraphs.
+     */
+    BracketIndex head(int count) {
+        return count >= paragraphCount() ? this : new BracketIndex(split(root, count)[0]);
+    }
+
+    /**
+     * Offset of the bracket matching the one at <code>offset</code>.
+     *
+     * @return the offset of the matching bracket, or <code>-1</code> if there is no indexed bracket at
+     *         <code>offset</code> or it is not matched
+     */
+    int match(int offset) {
+        if (offset < 0 || offset >= chars(root)) {
+            return -1;
+        }
+        Position position = locate(offset);
+        int bracket = find(position.node().brackets, (int) (offset - position.start()));
+        if (bracket < 0 || kind(position.node().brackets[bracket]) == ELEMENT_KIND) {
+            return -1;
+        }
+        return match(position, bracket);
+    }
+
+    /**
+     * Last paragraph of the region folded into <code>paragraph</code>, the paragraphs after it up to this one are
+     * hidden when it is folded.
+     *
+     * @return the last paragraph of the region, or <code>-1</code> if no region with hidden paragraphs starts at
+     *         <code>paragraph</code>
+     */
+    int foldEnd(int paragraph) {
+        if (paragraph < 0 || paragraph >= paragraphCount()) {
+            return -1;
+        }
+        Position position = paragraph(paragraph);
+        int end = -1;
+        if (position.node().heading != NO_HEADING) {
+            int next = nextHeading(root, paragraph + 1, 0, position.node().heading);
+            end = (next < 0 ? paragraphCount() : next) - 1;
+        } else if (position.node().fold >= 0) {
+            int match = match(position, position.node().fold);
+            // The paragraph of the closing bracket stays visible
+            end = match < 0 ? -1 : locate(match).paragraph() - 1;
+        }
+        return end > paragraph ? end : -1;
+    }
+
+    private int match(Position position, int bracket) {
+        Node node = position.node();
+        int kind = kind(node.brackets[bracket]);
+        if (isOpening(node.brackets[bracket])) {
+            int depth = 1;
+            for (int i = bracket + 1; i < node.brackets.length; ++i) {
+                depth = step(depth, node.brackets[i], kind, true);
+                if (depth == 0) {
+                    return (int) position.start() + column(node.brackets[i]);
+                }
+            }
+            Node[] parts = split(root, position.paragraph() + 1);
+            return forward(parts[1], chars(parts[0]), kind, depth);
+        } else {
+            int depth = 1;
+            for (int i = bracket - 1; i >= 0; --i) {
+                depth = step(depth, node.brackets[i], kind, false);
+                if (depth == 0) {
+                    return (int) position.start() + column(node.brackets[i]);
+                }
+            }
+            Node[] parts = split(root, position.paragraph());
+            return backward(parts[0], kind, depth);
+        }
+    }
+
+    /**
+     * Paragraph holding an offset.
+     */
+    private Position locate(int offset) {
+        int paragraph = 0;
+        long paragraphStart = 0;
+        Node node = root;
+        while (true) {
+            long leftChars = chars(node.left);
+            if (offset < paragraphStart + leftChars) {
+                node = node.left;
+            } else if (offset < paragraphStart + leftChars + node.length) {
+                return new Position(node, paragraph + paragraphs(node.left), paragraphStart + leftChars);
+            } else {
+                paragraph += paragraphs(node.left) + 1;
+                paragraphStart += leftChars + node.length;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Paragraph at an index.
+     */
+    private Position paragraph(int index) {
+        int paragraph = 0;
+        long paragraphStart = 0;
+        Node node = root;
+        while (true) {
+            int leftParagraphs = paragraphs(node.left);
+            if (index < paragraph + leftParagraphs) {
+                node = node.left;
+            } else if (index == paragraph + leftParagraphs) {
+                return new Position(node, index, paragraphStart + chars(node.left));
+            } else {
+                paragraph += leftParagraphs + 1;
+                paragraphStart += chars(node.left) + node.length;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * First paragraph from <code>first</code> on with a header of <code>level</code> or a higher one, in the
+     * subtree whose first paragraph is <code>base</code>.
+     */
+    private static int nextHeading(Node node, int first, int base, int level) {
+        if (node == null || node.minHeading > level || base + node.paragraphs <= first) {
+            return -1;
+        }
+        int found = nextHeading(node.left, first, base, level);
+        if (found >= 0) {
+            return found;
+        }
+        int index = base + paragraphs(node.left);
+        if (index >= first && node.heading <= level) {
+            return index;
+        }
+        return nextHeading(node.right, first, index + 1, level);
+    }
+
+    /**
+     * Find the closing bracket that brings <code>depth</code> unmatched opening brackets to zero, from the start of
+     * the subtree starting at <code>start</code>.
+     */
+    private static int forward(Node node, long start, int kind, int depth) {
+        while (node != null) {
+            if (closing(node.unmatched, kind) < depth) {
+                return -1;
+            }
+            Node left = node.left;
+            if (closing(unmatched(left), kind) >= depth) {
+                node = left;
+                continue;
+            }
+            depth += opening(unmatched(left), kind) - closing(unmatched(left), kind);
+            start += chars(left);
+            if (closing(node.residue, kind) >= depth) {
+                for (int packed : node.brackets) {
+                    depth = step(depth, packed, kind, true);
+                    if (depth == 0) {
+                        return (int) start + column(packed);
+                    }
+                }
+            }
+            depth += opening(node.residue, kind) - closing(node.residue, kind);
+            start += node.length;
+            node = node.right;
+        }
+        return -1;
+    }
+
+    /**
+     * Find the opening bracket that brings <code>depth</code> unmatched closing brackets to zero, from the end of
+     * the subtree starting at offset zero.
+     */
+    private static int backward(Node node, int kind, int depth) {
+        long start = 0;
+        Node subtree = node;
+        // Walk from the end, the start of the subtree is derived from the characters before it
+        while (subtree != null) {
+            if (opening(subtree.unmatched, kind) < depth) {
+                return -1;
+            }
+            Node right = subtree.right;
+            if (opening(unmatched(right), kind) >= depth) {
+                start += chars(subtree.left) + subtree.length;
+                subtree = right;
+                continue;
+            }
+            depth += closing(unmatched(right), kind) - opening(unmatched(right), kind);
+            long paragraphStart = start + chars(subtree.left);
+            if (opening(subtree.residue, kind) >= depth) {
+                for (int i = subtree.brackets.length - 1; i >= 0; --i) {
+                    depth = step(depth, subtree.brackets[i], kind, false);
+                    if (depth == 0) {
+                        return (int) paragraphStart + column(subtree.brackets[i]);
+                    }
+                }
+            }
+            depth += closing(subtree.residue, kind) - opening(subtree.residue, kind);
+            subtree = subtree.left;
+        }
+        return -1;
+    }
+
+    /**
+     * Depth after a bracket, walking forward or backward looking for brackets of one kind.
+     */
+    private static int step(int depth, int packed, int kind, boolean forward) {
+        if (kind(packed) != kind) {
+            return depth;
+        }
+        return isOpening(packed) == forward ? depth + 1 : depth - 1;
+    }
+
+    private static Node build(CharSequence text, int offset, LexerCheckpoints lengths, List<int[]> tokens) {
+        // Cartesian tree of random priorities, built in linear time. The stack holds the right spine, whose right
+        // children are only known once a node of higher priority comes, or at the end
+        Deque<Node> spine = new ArrayDeque<>();
+        int start = offset;
+        for (int i = 0; i < lengths.size(); ++i) {
+            int[] brackets = brackets(text, start, tokens.get(i));
+            Node node = new Node(null, null, ThreadLocalRandom.current().nextInt(), lengths.length(i) + 1, brackets,
+                                 residue(brackets), fold(brackets), heading(text, start, tokens.get(i)));
+            Node popped = null;
+            while (!spine.isEmpty() && spine.peek().priority < node.priority) {
+                Node top = spine.pop();
+                popped = top.with(top.left, popped);
+            }
+            spine.push(popped == null ? node : node.with(popped, null));
+            start += lengths.length(i) + 1;
+        }
+        Node child = null;
+        while (!spine.isEmpty()) {
+            Node top = spine.pop();
+            child = top.with(top.left, child);
+        }
+        return child;
+    }
+
+    private static int[] brackets(CharSequence text, int paragraphStart, int[] tokens) {
+        int count = 0;
+        int[] brackets = NO_BRACKETS;
+        for (int token = 0; token < tokens.length; token += TokenBuffer.TOKEN_SIZE) {
+            int type = tokens[token + 2];
+            int tokenStart = tokens[token];
+            if (type == TAG) {
+                int tokenEnd = tokenStart + tokens[token + 1];
+                int element = element(text, paragraphStart + tokenStart, paragraphStart + tokenEnd);
+                if (element >= 0) {
+                    if (count == brackets.length) {
+                        brackets = Arrays.copyOf(brackets, Math.max(4, count * 2));
+                    }
+                    brackets[count++] = tokenStart << 3 | ELEMENT_KIND << 1 | element;
+                }
+                continue;
+            }
+            if (type != PAREN && type != BRACKET && type != BRACE) {
+                continue;
+            }
+            for (int column = tokenStart; column < tokenStart + tokens[token + 1]; ++column) {
+                char c = text.charAt(paragraphStart + column);
+                int opening = OPENING.indexOf(c);
+                int closing = CLOSING.indexOf(c);
+                if (opening < 0 && closing < 0) {
+                    continue;
+                }
+                if (count == brackets.length) {
+                    brackets = Arrays.copyOf(brackets, Math.max(4, count * 2));
+                }
+                brackets[count++] = column << 3 | (opening >= 0 ? opening << 1 | 1 : closing << 1);
+            }
+        }
+        return count == brackets.length ? brackets : Arrays.copyOf(brackets, count);
+    }
+
+    /**
+     * Whether the tag token <code>[start, end)</code> is the start of a start tag, <code>1</code>, of an end tag,
+     * <code>0</code>, or neither, <code>-1</code>. Whether a start tag is self-closing is read from the text after
+     * the token, up to the end of the tag.
+     */
+    private static int element(CharSequence text, int start, int end) {
+        if (end - start < 2 || text.charAt(start) != '<') {
+            return -1;
+        }
+        boolean closing = text.charAt(start + 1) == '/';
+        int nameStart = start + (closing ? 2 : 1);
+        int nameEnd = nameStart;
+        while (nameEnd < text.length() && isNameChar(text.charAt(nameEnd))) {
+            ++nameEnd;
+        }
+        if (nameEnd == nameStart || !Character.isLetter(text.charAt(nameStart)) && text.charAt(nameStart) != '_') {
+            return -1;
+        }
+        if (closing) {
+            return 0;
+        }
+        if (VOID_ELEMENTS.contains(text.subSequence(nameStart, nameEnd).toString().toLowerCase(Locale.ROOT))) {
+            return -1;
+        }
+        int tagEnd = text.charAt(end - 1) == '>' ? end - 1 : tagEnd(text, end);
+        return tagEnd > nameStart && text.charAt(tagEnd - 1) == '/' ? -1 : 1;
+    }
+
+    /**
+     * Position of the <code>&gt;</code> ending a tag, skipping quoted attribute values, or <code>-1</code>.
+     */
+    private static int tagEnd(CharSequence text, int from) {
+        char quote = 0;
+        for (int i = from; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if (quote != 0) {
+                quote = c == quote ? 0 : quote;
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return i;
+            } else if (c == '<') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.' || c == ':';
+    }
+
+    /**
+     * Level of the header of a paragraph, or {@link #NO_HEADING}.
+     */
+    private static int heading(CharSequence text, int paragraphStart, int[] tokens) {
+        if (tokens.length == 0 || tokens[2] != HEADER) {
+            return NO_HEADING;
+        }
+        int pos = paragraphStart + tokens[0];
+        while (pos < text.length() && text.charAt(pos) == ' ') {
+            ++pos;
+        }
+        int level = 0;
+        while (pos + level < text.length() && text.charAt(pos + level) == '#') {
+            ++level;
+        }
+        return level;
+    }
+
+    /**
+     * First opening brace, bracket or element of a paragraph not closed in it, or -1.
+     */
+    private static int fold(int[] brackets) {
+        int[][] open = new int[KINDS][brackets.length];
+        int[] depths = new int[KINDS];
+        for (int i = 0; i < brackets.length; ++i) {
+            int kind = kind(brackets[i]);
+            if (isOpening(brackets[i])) {
+                open[kind][depths[kind]++] = i;
+            } else if (depths[kind] > 0) {
+                --depths[kind];
+            }
+        }
+        int fold = -1;
+        for (int kind = 0; kind < KINDS; ++kind) {
+            if (kind != PAREN_KIND && depths[kind] > 0 && (fold < 0 || open[kind][0] < fold)) {
+                fold = open[kind][0];
+            }
+        }
+        return fold;
+    }
+
+    private static int[] residue(int[] brackets) {
+        int[] residue = new int[2 * KINDS];
+        for (int packed : brackets) {
+            int kind = kind(packed);
+            if (isOpening(packed)) {
+                ++residue[KINDS + kind];
+            } else if (residue[KINDS + kind] > 0) {
+                --residue[KINDS + kind];
+            } else {
+                ++residue[kind];
+            }
+        }
+        return residue;
+    }
+
+    private static int[] combine(int[] left, int[] right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        int[] combined = new int[2 * KINDS];
+        for (int kind = 0; kind < KINDS; ++kind) {
+            int matched = Math.min(left[KINDS + kind], right[kind]);
+            combined[kind] = left[kind] + right[kind] - matched;
+            combined[KINDS + kind] = left[KINDS + kind] - matched + right[KINDS + kind];
+        }
+        return combined;
+    }
+
+    /**
+     * Split the first <code>count</code> paragraphs of a subtree from the others.
+     */
+    private static Node[] split(Node node, int count) {
+        if (node == null) {
+            return new Node[2];
+        }
+        int leftParagraphs = paragraphs(node.left);
+        if (count <= leftParagraphs) {
+            Node[] parts = split(node.left, count);
+            parts[1] = node.with(parts[1], node.right);
+            return parts;
+        }
+        Node[] parts = split(node.right, count - leftParagraphs - 1);
+        parts[0] = node.with(node.left, parts[0]);
+        return parts;
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            return left.with(left.left, merge(left.right, right));
+        }
+        return right.with(merge(left, right.left), right.right);
+    }
+
+    private static int find(int[] brackets, int column) {
+        int low = 0;
+        int high = brackets.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleColumn = column(brackets[middle]);
+            if (middleColumn < column) {
+                low = middle + 1;
+            } else if (middleColumn > column) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private static int paragraphs(Node node) {
+        return node == null ? 0 : node.paragraphs;
+    }
+
+    private static long chars(Node node) {
+        return node == null ? 0 : node.chars;
+    }
+
+    private static int minHeading(Node node) {
+        return node == null ? NO_HEADING : node.minHeading;
+    }
+
+    private static int[] unmatched(Node node) {
+        return node == null ? null : node.unmatched;
+    }
+
+    private static int closing(int[] unmatched, int kind) {
+        return unmatched == null ? 0 : unmatched[kind];
+    }
+
+    private static int opening(int[] unmatched, int kind) {
+        return unmatched == null ? 0 : unmatched[KINDS + kind];
+    }
+
+    private static int column(int packed) {
+        return packed >>> 3;
+    }
+
+    private static int kind(int packed) {
+        return (packed >> 1) & 3;
+    }
+
+    private static boolean isOpening(int packed) {
+        return (packed & 1) != 0;
+    }
+}
@@ -0,0 +1,84 @@
+package io.vepo.jcode.controls;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.fxmisc.richtext.CodeArea;
+
+/**
+ * Marks the bracket next to the caret and the one matching it, as found by the {@link BracketIndex} of the
+ * {@link HighlightingSession} of the code area. The bracket after the caret is preferred to the one before it.
+ */
+final class BracketMatcher {
+
+    private static final String STYLE_CLASS = "matching-bracket";
+    private static final String STYLESHEET = BracketMatcher.class.getResource("/css/editor.css").toExternalForm();
+
+    private final CodeArea codeArea;
+    private final HighlightingSession session;
+    private int bracket = -1;
+    private int match = -1;
+
+    private BracketMatcher(CodeArea codeArea, HighlightingSession session) {
+        this.codeArea = codeArea;
+        this.session = session;
+    }
+
+    /**
+     * Mark the matching brackets of the code area as the caret moves.
+     */
+    static void install(CodeArea codeArea, HighlightingSession session) {
+        var matcher = new BracketMatcher(codeArea, session);
+        codeArea.getStylesheets().add(STYLESHEET);
+        codeArea.plainTextChanges()
+                .subscribe(change -> matcher.edited(change.getPosition(),
+                                                    change.getRemoved().length(),
+                                                    change.getInserted().length()));
+        codeArea.caretPositionProperty().addListener((observable, oldPosition, newPosition) -> matcher.update());
+        session.onBracketsChanged(matcher::update);
+    }
+
+    private void edited(int position, int removed, int inserted) {
+        bracket = shift(bracket, position, removed, inserted);
+        match = shift(match, position, removed, inserted);
+    }
+
+    private static int shift(int marked, int position, int removed, int inserted) {
+        if (marked < position) {
+            return marked;
+        }
+        return marked < position + removed ? -1 : marked + inserted - removed;
+    }
+
+    private void update() {
+        mark(bracket, false);
+        mark(match, false);
+        bracket = -1;
+        match = -1;
+
+        int caret = codeArea.getCaretPosition();
+        for (int candidate : new int[] { caret, caret - 1 }) {
+            int found = session.matchingBracket(candidate);
+            if (found >= 0) {
+                bracket = candidate;
+                match = found;
+                mark(bracket, true);
+                mark(match, true);
+                return;
+            }
+        }
+    }
+
+    private void mark(int position, boolean marked) {
+        if (position < 0 || position >= codeArea.getLength()) {
+            return;
+        }
+        List<String> styles = new ArrayList<>(codeArea.getStyleOfChar(position));
+        if (styles.remove(STYLE_CLASS) || marked) {
+            if (marked) {
+                styles.add(STYLE_CLASS);
+            }
+            codeArea.setStyle(position, position + 1, styles);
+        }
+    }
+}
@@ -12,30 +12,47 @@ import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Optional;
 import java.util.prefs.Preferences;
 
 import org.fxmisc.flowless.VirtualizedScrollPane;
 import org.fxmisc.richtext.CodeArea;
 
 import io.vepo.jcode.Workbench;
+import io.vepo.jcode.config.ConfigurationManager;
 import io.vepo.jcode.events.FileLoadEvent;
 import io.vepo.jcode.events.LoadedFileEvent;
+import io.vepo.jcode.events.LoadingFileEvent;
+import io.vepo.jcode.events.TaskStartedEvent;
+import io.vepo.jcode.events.ViewFileEvent;
 import javafx.collections.ListChangeListener;
+import javafx.concurrent.Worker;
 import javafx.geometry.Insets;
 import javafx.scene.control.Tab;
 import javafx.scene.control.TabPane;
+import javafx.scene.control.Tooltip;
 import javafx.scene.layout.AnchorPane;
 
 public class CodeEditor extends TabPane {
 
+    /**
+     * A file still being streamed, by the worker reading it into the code area of its tab.
+     */
+    private record Streaming(Worker<?> stream, CodeArea codeArea) {
+    }
+
     private final Map<File, Tab> tabsIndex;
+    private final Map<File, Streaming> streaming;
     private final Workbench workbench;
     private static final String OPEN_TABS_KEY = "open-tabs";
 
     public CodeEditor(Workbench workbench) {
         this.workbench = workbench;
         tabsIndex = new HashMap<>();
+        streaming = new HashMap<>();
         workbench.subscribe(LoadedFileEvent.class, this::createEditor);
+        workbench.subscribe(LoadingFileEvent.class, this::streamEditor);
+        workbench.subscribe(ViewFileEvent.class, this::createViewer);
         getTabs().addListener(new ListChangeListener<Tab>() {
             @Override
             public void onChanged(Change<? extends Tab> c) {
@@ -43,12 +60,22 @@ public class CodeEditor extends TabPane {
                     if (c.wasRemoved()) {
                         c.getRemoved()
                          .forEach(tab -> {
+                             if (tab.getContent() instanceof FileViewer viewer) {
+                                 viewer.close();
+                             }
                              tabsIndex.entrySet()
                                       .stream()
                                       .filter(entry -> entry.getValue() == tab)
                                       .map(Entry::getKey)
                                       .collect(toList())
-                                      .forEach(tabsIndex::remove);
+                                      .forEach(file -> {
+                                          tabsIndex.remove(file);
+                                          var stream = streaming.remove(file);
+                                          if (stream != null) {
+                                              // Stop reading a file nobody waits for
+                                              stream.stream().cancel();
+                                          }
+                                      });
                          });
                     }
                 }
@@ -58,42 +85,136 @@ public class CodeEditor extends TabPane {
 
     private void createEditor(LoadedFileEvent event) {
         if (!tabsIndex.containsKey(event.file())) {
+            // The mode is chosen before the code area is built
+            var highlighter = HighlighterFactory.getHighlighterForFile(event.file().getName(), event.content());
+            var mode = chooseMode(highlighter, event.content());
             var codeArea = new CodeArea(event.content());
-            var pane = new VirtualizedScrollPane<CodeArea>(codeArea);
-            
-            // Configure syntax highlighting based on file extension
-            HighlighterFactory.getHighlighterForFile(event.file().getName())
-                .ifPresentOrElse(
-                    highlighter -> highlighter.configureCodeArea(codeArea),
-                    () -> SyntaxHighlighter.configureCodeArea(codeArea) // Default Java highlighting
-                );
-            
-            // Move caret to the first line
-            codeArea.moveTo(0);
-            
-            // Scroll to the top to show the first line
-            codeArea.showParagraphAtTop(0);
-            
-            pane.getContent().setWrapText(true);
-            pane.getContent().setId("codeArea-" + idFromFile(event.file()));
-            pane.getContent().setPadding(new Insets(5.0, 5.0, 5.0, 5.0));
-
-            var anchorPane = new AnchorPane();
-            anchorPane.getChildren().add(pane);
-            setLeftAnchor(pane, 0.0);
-            setRightAnchor(pane, 0.0);
-            setBottomAnchor(pane, 0.0);
-            setTopAnchor(pane, 0.0);
-            pane.getContent().prefWidthProperty().bind(anchorPane.widthProperty());
-            pane.getContent().prefHeightProperty().bind(anchorPane.heightProperty());
+            configureCodeArea(codeArea, highlighter, mode);
+            addTab(event.file(), codeArea);
+        }
+        getSelectionModel().select(tabsIndex.get(event.file()));
+    }
+
+    private void streamEditor(LoadingFileEvent event) {
+        CodeArea codeArea;
+        if (event.first()) {
+            if (tabsIndex.containsKey(event.file())) {
+                // Opened again while open or still streaming, the tab keeps its own stream
+                event.stream().cancel();
+                getSelectionModel().select(tabsIndex.get(event.file()));
+                return;
+            }
+            // Read-only and plain until the whole file is there, so appending a chunk does not relex anything
+            codeArea = new CodeArea(event.text());
+            PlainText.configureCodeArea(codeArea);
+            codeArea.setEditable(false);
+            addTab(event.file(), codeArea);
+            streaming.put(event.file(), new Streaming(event.stream(), codeArea));
+            event.stream().stateProperty().addListener((observable, oldState, state) -> {
+                if (state == Worker.State.FAILED) {
+                    streamFailed(event.file(), event.stream());
+                }
+            });
+            getSelectionModel().select(tabsIndex.get(event.file()));
+        } else {
+            var stream = streaming.get(event.file());
+            if (stream == null || stream.stream() != event.stream()) {
+                // The tab was closed while the file was read, or belongs to another stream
+                event.stream().cancel();
+                return;
+            }
+            codeArea = stream.codeArea();
+            codeArea.appendText(event.text());
+        }
+
+        if (event.last()) {
+            streaming.remove(event.file());
+            codeArea.getUndoManager().forgetHistory();
+            codeArea.setEditable(true);
+            // The code area was built from the first chunk, its mode can only be chosen on the whole content
+            String content = codeArea.getText();
+            var highlighter = HighlighterFactory.getHighlighterForFile(event.file().getName(), content);
+            if (highlighter.isPresent()) {
+                codeArea.getStyleClass().remove(PlainText.CSS_CLASS);
+                configureCodeArea(codeArea, highlighter, chooseMode(highlighter, content));
+            }
+        }
+    }
+
+    /**
+     * Leave the tab of a file that could not be read to the end read-only, marked as incomplete.
+     */
+    private void streamFailed(File file, Worker<?> stream) {
+        var streamed = streaming.get(file);
+        if (streamed == null || streamed.stream() != stream) {
+            return;
+        }
+        streaming.remove(file);
+        var tab = tabsIndex.get(file);
+        tab.setText(file.getName() + " (incomplete)");
+        tab.setTooltip(new Tooltip("Failed to read the whole file: " + stream.getException()));
+    }
+
+    private void createViewer(ViewFileEvent event) {
+        if (!tabsIndex.containsKey(event.file())) {
+            var viewer = FileViewer.open(event.file(), event.charset());
+            viewer.setId("viewer-" + idFromFile(event.file()));
+            workbench.emit(new TaskStartedEvent(viewer.progressProperty()));
 
             var tab = new Tab(event.file().getName());
-            tab.setContent(anchorPane);
+            tab.setContent(viewer);
             getTabs().add(tab);
             tabsIndex.put(event.file(), tab);
         }
         getSelectionModel().select(tabsIndex.get(event.file()));
     }
+
+    private static HighlightingMode chooseMode(Optional<LanguageHighlighter> highlighter, String content) {
+        // Choose the highlighting based on file name, extension or shebang line, and on the file size
+        var configuration = ConfigurationManager.getInstance();
+        return HighlightingMode.choose(highlighter.isPresent(),
+                                       content,
+                                       configuration.getLargeFileThreshold(),
+                                       configuration.getLongLineThreshold());
+    }
+
+    private static void configureCodeArea(CodeArea codeArea, Optional<LanguageHighlighter> highlighter,
+                                          HighlightingMode mode) {
+        mode.applyTo(codeArea);
+        if (mode == HighlightingMode.PLAIN) {
+            PlainText.configureCodeArea(codeArea);
+        } else {
+            highlighter.get().configureCodeArea(codeArea);
+        }
+    }
+
+    private void addTab(File file, CodeArea codeArea) {
+        var pane = new VirtualizedScrollPane<CodeArea>(codeArea);
+
+        // Move caret to the first line
+        codeArea.moveTo(0);
+        
+        // Scroll to the top to show the first line
+        codeArea.showParagraphAtTop(0);
+        
+        pane.getContent().setWrapText(true);
+        pane.getContent().setId("codeArea-" + idFromFile(file));
+        pane.getContent().setPadding(new Insets(5.0, 5.0, 5.0, 5.0));
+
+        var anchorPane = new AnchorPane();
+        anchorPane.getChildren().add(pane);
+        setLeftAnchor(pane, 0.0);
+        setRightAnchor(pane, 0.0);
+        setBottomAnchor(pane, 0.0);
+        setTopAnchor(pane, 0.0);
+        pane.getContent().prefWidthProperty().bind(anchorPane.widthProperty());
+        pane.getContent().prefHeightProperty().bind(anchorPane.heightProperty());
+
+        var tab = new Tab(file.getName());
+        tab.setContent(anchorPane);
+        getTabs().add(tab);
+        tabsIndex.put(file, tab);
+    }
     
     public void saveOpenTabs() {
         Preferences editorPrefs = preferences().userRoot().node("editor");
@@ -1,15 +1,15 @@
 package io.vepo.jcode.controls;
 
-import java.time.Duration;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.regex.Matcher;
+import java.util.Optional;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import org.fxmisc.richtext.CodeArea;
 import org.fxmisc.richtext.LineNumberFactory;
 import org.fxmisc.richtext.model.StyleSpans;
-import org.fxmisc.richtext.model.StyleSpansBuilder;
+
+import io.vepo.jcode.controls.RegexParagraphLexer.Block;
 
 public class CssHighlighter implements LanguageHighlighter {
     
@@ -50,6 +50,21 @@ public class CssHighlighter implements LanguageHighlighter {
         + "|(?<COLON>" + COLON_PATTERN + ")"
     );
 
+    private static final String STYLESHEET = CssHighlighter.class.getResource("/css/css-keywords.css").toExternalForm();
+
+    private static final RegexParagraphLexer LEXER = new RegexParagraphLexer(
+        PATTERN,
+        new String[] {
+            "PROPERTY", "VALUE", "SELECTOR", "STRING", "COMMENT",
+            "NUMBER", "COLOR", "BRACE", "SEMICOLON", "COLON"
+        },
+        new String[] {
+            "property", "value", "selector", "string", "comment",
+            "number", "color", "brace", "semicolon", "colon"
+        },
+        Block.of("/\\*", "\\*/", "comment")
+    );
+
     @Override
     public Pattern getPattern() {
         return PATTERN;
@@ -62,30 +77,12 @@ public class CssHighlighter implements LanguageHighlighter {
 
     @Override
     public StyleSpans<Collection<String>> computeHighlighting(String text) {
-        Matcher matcher = PATTERN.matcher(text);
-        int lastKwEnd = 0;
-        StyleSpansBuilder<Collection<String>> spansBuilder = new StyleSpansBuilder<>();
-        
-        while (matcher.find()) {
-            String styleClass =
-                matcher.group("PROPERTY") != null ? "property" :
-                matcher.group("VALUE") != null ? "value" :
-                matcher.group("SELECTOR") != null ? "selector" :
-                matcher.group("STRING") != null ? "string" :
-                matcher.group("COMMENT") != null ? "comment" :
-                matcher.group("NUMBER") != null ? "number" :
-                matcher.group("COLOR") != null ? "color" :
-                matcher.group("BRACE") != null ? "brace" :
-                matcher.group("SEMICOLON") != null ? "semicolon" :
-                matcher.group("COLON") != null ? "colon" :
-                null;
-            
-            spansBuilder.add(Collections.emptyList(), matcher.start() - lastKwEnd);
-            spansBuilder.add(Collections.singleton(styleClass), matcher.end() - matcher.start());
-            lastKwEnd = matcher.end();
-        }
-        spansBuilder.add(Collections.emptyList(), text.length() - lastKwEnd);
-        return spansBuilder.create();
+        return HighlightingModel.computeHighlighting(LEXER, text);
+    }
+
+    @Override
+    public Optional<ParagraphLexer> getParagraphLexer() {
+        return Optional.of(LEXER);
     }
 
     @Override
@@ -94,7 +91,7 @@ public class CssHighlighter implements LanguageHighlighter {
         codeArea.setParagraphGraphicFactory(LineNumberFactory.get(codeArea));
         
         // Set up styling
-        codeArea.getStylesheets().add(CssHighlighter.class.getResource("/css/css-keywords.css").toExternalForm());
+        codeArea.getStylesheets().add(STYLESHEET);
         
         // Apply CSS class to the CodeArea
         codeArea.getStyleClass().add(getCssClass());
@@ -103,16 +100,11 @@ public class CssHighlighter implements LanguageHighlighter {
         codeArea.setStyle("-fx-font-family: 'Consolas'; -fx-font-size: 14px;");
         
         // Set up syntax highlighting
-        codeArea.multiPlainChanges()
-                .successionEnds(Duration.ofMillis(500))
-                .subscribe(ignore -> codeArea.setStyleSpans(0, computeHighlighting(codeArea.getText())));
-        
-        // Apply initial highlighting
-        codeArea.setStyleSpans(0, computeHighlighting(codeArea.getText()));
+        HighlightingSession.install(codeArea, LEXER);
     }
 
     @Override
-    public boolean supportsFileExtension(String extension) {
-        return "css".equalsIgnoreCase(extension);
+    public Set<String> getFileExtensions() {
+        return Set.of("css");
     }
 } 
\ No newline at end of file
@@ -0,0 +1,107 @@
+package io.vepo.jcode.controls;
+
+import java.util.Arrays;
+
+/**
+ * Deterministic automaton matching the longest prefix of a text against a list of rules, compiled from regular
+ * expressions by {@link DfaCompiler}. On a tie the rule declared first wins.
+ * <p>
+ * Characters are mapped to equivalence classes, so the transition table has one column per class instead of one
+ * per character. Matching never allocates and only looks at the text inside the paragraph being lexed:
+ * <code>^</code> matches at the start of the paragraph and <code>$</code> at its end.
+ */
+final class Dfa {
+
+    static final int DEAD = -1;
+    static final int NO_RULE = -1;
+
+    private static final int ASCII = 128;
+
+    private final int classes;
+    private final int[] transitions;
+    private final int[] accepts;
+    private final int[] asciiClasses;
+    // Classes of the characters out of ASCII, by ranges starting at each bound
+    private final int[] bounds;
+    private final int[] boundClasses;
+    private final int lineStartState;
+    private final int endClass;
+
+    Dfa(int classes, int[] transitions, int[] accepts, int[] asciiClasses, int[] bounds, int[] boundClasses,
+        int lineStartState, int endClass) {
+        this.classes = classes;
+        this.transitions = transitions;
+        this.accepts = accepts;
+        this.asciiClasses = asciiClasses;
+        this.bounds = bounds;
+        this.boundClasses = boundClasses;
+        this.lineStartState = lineStartState;
+        this.endClass = endClass;
+    }
+
+    /**
+     * Compile the rules into a single automaton.
+     *
+     * @param patterns   regular expression of each rule
+     * @param ignoreCase whether each rule matches letters in any case
+     * @throws IllegalArgumentException if a pattern is invalid, uses unsupported syntax or matches the empty text
+     */
+    static Dfa compile(String[] patterns, boolean[] ignoreCase) {
+        return new DfaCompiler(patterns, ignoreCase).compile();
+    }
+
+    /**
+     * Longest match of the rules starting at <code>pos</code> in the paragraph <code>[start, end)</code>.
+     *
+     * @return the match, see {@link #rule(long)} and {@link #end(long)}, or a negative value if no rule matches
+     */
+    long match(CharSequence text, int start, int pos, int end) {
+        int state = pos == start ? lineStartState : 0;
+        long match = -1;
+        int i = pos;
+        while (i < end) {
+            state = transitions[state * classes + classOf(text.charAt(i))];
+            if (state == DEAD) {
+                return match;
+            }
+            ++i;
+            if (accepts[state] != NO_RULE) {
+                match = ((long) i << 32) | accepts[state];
+            }
+        }
+        state = transitions[state * classes + endClass];
+        if (state != DEAD && accepts[state] != NO_RULE) {
+            match = ((long) end << 32) | accepts[state];
+        }
+        return match;
+    }
+
+    /**
+     * Index of the rule of a match.
+     */
+    static int rule(long match) {
+        return (int) match;
+    }
+
+    /**
+     * End of a match, exclusive.
+     */
+    static int end(long match) {
+        return (int) (match >>> 32);
+    }
+
+    /**
+     * Number of states, for diagnostics.
+     */
+    int size() {
+        return accepts.length;
+    }
+
+    private int classOf(char c) {
+        if (c < ASCII) {
+            return asciiClasses[c];
+        }
+        int index = Arrays.binarySearch(bounds, c);
+        return boundClasses[index >= 0 ? index : -index - 2];
+    }
+}
@@ -0,0 +1,631 @@
+package io.vepo.jcode.controls;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Compiles regular expressions into a {@link Dfa}: every pattern is parsed, turned into a Thompson NFA, and the
+ * union of them is made deterministic by subset construction.
+ * <p>
+ * The syntax is the subset of {@link java.util.regex.Pattern} that an automaton can match: literals, escapes,
+ * character classes, <code>.</code>, groups, alternations, the <code>* + ? {n,m}</code> quantifiers and the
+ * <code>^ $</code> anchors. Lookarounds, backreferences and word boundaries are rejected.
+ */
+final class DfaCompiler {
+
+    private static final int MAX_STATES = 20_000;
+    private static final int MAX_REPEAT = 100;
+    private static final int CHAR_LIMIT = 0x10000;
+    private static final int CASE_FOLDING_LIMIT = 0x250;
+
+    // Symbols of the anchors, sets of characters have non negative ids
+    private static final int NO_SYMBOL = -1;
+    private static final int BEGIN = -2;
+    private static final int END = -3;
+
+    private static final int[] ALL = { 0, CHAR_LIMIT - 1 };
+    private static final int[] DIGIT = { '0', '9' };
+    private static final int[] WORD = { '0', '9', 'A', 'Z', '_', '_', 'a', 'z' };
+    private static final int[] SPACE = { '\t', '\r', ' ', ' ' };
+
+    private sealed interface Node permits Chars, Anchor, Concat, Alternation, Repeat {
+    }
+
+    private record Chars(int[] ranges) implements Node {
+    }
+
+    private record Anchor(int symbol) implements Node {
+    }
+
+    private record Concat(List<Node> nodes) implements Node {
+    }
+
+    private record Alternation(List<Node> nodes) implements Node {
+    }
+
+    private record Repeat(Node node, int min, int max) implements Node {
+    }
+
+    private final String[] patterns;
+    private final boolean[] ignoreCase;
+
+    // NFA, every node has either a symbol and its target or epsilon edges
+    private int nodes;
+    private int[] symbols = new int[64];
+    private int[] targets = new int[64];
+    private int[][] epsilons = new int[64][];
+    private int[] acceptRules = new int[64];
+    private final List<int[]> sets = new ArrayList<>();
+    private final Map<String, Integer> setIds = new HashMap<>();
+
+    DfaCompiler(String[] patterns, boolean[] ignoreCase) {
+        if (patterns.length != ignoreCase.length) {
+            throw new IllegalArgumentException("Each pattern must have a case flag!");
+        }
+        this.patterns = patterns.clone();
+        this.ignoreCase = ignoreCase.clone();
+    }
+
+    Dfa compile() {
+        int start = newNode();
+        for (int rule = 0; rule < patterns.length; ++rule) {
+            Node node = new Parser(patterns[rule], ignoreCase[rule]).parse();
+            if (minLength(node) == 0) {
+                throw new IllegalArgumentException("Pattern matches the empty text: " + patterns[rule]);
+            }
+            int[] fragment = build(node);
+            addEpsilon(start, fragment[0]);
+            acceptRules[fragment[1]] = rule;
+        }
+        return determinize(start);
+    }
+
+    private Dfa determinize(int start) {
+        // Elementary intervals of characters, those in the same sets share a class
+        TreeSet<Integer> points = new TreeSet<>(List.of(0, CHAR_LIMIT));
+        for (int[] set : sets) {
+            for (int i = 0; i < set.length; i += 2) {
+                points.add(set[i]);
+                points.add(set[i + 1] + 1);
+            }
+        }
+        int[] intervals = points.stream().mapToInt(Integer::intValue).toArray();
+        int[] intervalClasses = new int[intervals.length - 1];
+        Map<BitSet, Integer> classIds = new HashMap<>();
+        for (int i = 0; i < intervalClasses.length; ++i) {
+            BitSet signature = new BitSet();
+            for (int set = 0; set < sets.size(); ++set) {
+                if (contains(sets.get(set), intervals[i])) {
+                    signature.set(set);
+                }
+            }
+            intervalClasses[i] = classIds.computeIfAbsent(signature, key -> classIds.size());
+        }
+        int charClasses = classIds.size();
+        int endClass = charClasses;
+        int classes = charClasses + 1;
+        BitSet[] setClasses = new BitSet[sets.size()];
+        for (int set = 0; set < sets.size(); ++set) {
+            setClasses[set] = new BitSet();
+        }
+        for (int i = 0; i < intervalClasses.length; ++i) {
+            for (int set = 0; set < sets.size(); ++set) {
+                if (contains(sets.get(set), intervals[i])) {
+                    setClasses[set].set(intervalClasses[i]);
+                }
+            }
+        }
+
+        // Subset construction, state 0 matches anywhere and the line start state at the start of a paragraph
+        List<BitSet> states = new ArrayList<>();
+        Map<BitSet, Integer> stateIds = new HashMap<>();
+        Deque<Integer> pending = new ArrayDeque<>();
+        BitSet initial = closure(single(start));
+        state(initial, states, stateIds, pending);
+        BitSet lineStart = move(initial, BEGIN);
+        lineStart.or(initial);
+        int lineStartState = state(closure(lineStart), states, stateIds, pending);
+
+        int[] transitions = new int[16 * classes];
+        while (!pending.isEmpty()) {
+            int id = pending.poll();
+            BitSet state = states.get(id);
+            BitSet[] moves = new BitSet[classes];
+            for (int node = state.nextSetBit(0); node >= 0; node = state.nextSetBit(node + 1)) {
+                if (symbols[node] >= 0) {
+                    BitSet nodeClasses = setClasses[symbols[node]];
+                    for (int c = nodeClasses.nextSetBit(0); c >= 0; c = nodeClasses.nextSetBit(c + 1)) {
+                        if (moves[c] == null) {
+                            moves[c] = new BitSet();
+                        }
+                        moves[c].set(targets[node]);
+                    }
+                }
+            }
+            BitSet endMove = move(state, END);
+            moves[endClass] = endMove.isEmpty() ? null : endMove;
+
+            if ((id + 1) * classes > transitions.length) {
+                transitions = Arrays.copyOf(transitions, Math.max((id + 1) * classes, transitions.length * 2));
+            }
+            for (int c = 0; c < classes; ++c) {
+                transitions[id * classes + c] = moves[c] == null ? Dfa.DEAD
+                                                                 : state(closure(moves[c]), states, stateIds, pending);
+            }
+        }
+
+        int[] accepts = new int[states.size()];
+        for (int id = 0; id < accepts.length; ++id) {
+            accepts[id] = Dfa.NO_RULE;
+            BitSet state = states.get(id);
+            for (int node = state.nextSetBit(0); node >= 0; node = state.nextSetBit(node + 1)) {
+                if (acceptRules[node] != Dfa.NO_RULE
+                        && (accepts[id] == Dfa.NO_RULE || acceptRules[node] < accepts[id])) {
+                    accepts[id] = acceptRules[node];
+                }
+            }
+        }
+
+        int[] asciiClasses = new int[128];
+        for (int c = 0; c < asciiClasses.length; ++c) {
+            asciiClasses[c] = intervalClasses[intervalOf(intervals, c)];
+        }
+        int[] bounds = new int[intervalClasses.length];
+        int[] boundClasses = new int[intervalClasses.length];
+        int count = 0;
+        for (int i = intervalOf(intervals, 128); i < intervalClasses.length; ++i) {
+            if (count == 0 || boundClasses[count - 1] != intervalClasses[i]) {
+                bounds[count] = Math.max(intervals[i], 128);
+                boundClasses[count++] = intervalClasses[i];
+            }
+        }
+
+        return new Dfa(classes,
+                       Arrays.copyOf(transitions, states.size() * classes),
+                       accepts,
+                       asciiClasses,
+                       Arrays.copyOf(bounds, count),
+                       Arrays.copyOf(boundClasses, count),
+                       lineStartState,
+                       endClass);
+    }
+
+    private int state(BitSet nfaStates, List<BitSet> states, Map<BitSet, Integer> stateIds, Deque<Integer> pending) {
+        Integer id = stateIds.get(nfaStates);
+        if (id == null) {
+            if (states.size() == MAX_STATES) {
+                throw new IllegalArgumentException("Patterns are too complex: " + String.join(" | ", patterns));
+            }
+            id = states.size();
+            states.add(nfaStates);
+            stateIds.put(nfaStates, id);
+            pending.add(id);
+        }
+        return id;
+    }
+
+    private BitSet move(BitSet state, int symbol) {
+        BitSet moved = new BitSet();
+        for (int node = state.nextSetBit(0); node >= 0; node = state.nextSetBit(node + 1)) {
+            if (symbols[node] == symbol) {
+                moved.set(targets[node]);
+            }
+        }
+        return moved;
+    }
+
+    private BitSet closure(BitSet state) {
+        BitSet closure = (BitSet) state.clone();
+        Deque<Integer> pending = new ArrayDeque<>();
+        state.stream().forEach(pending::add);
+        while (!pending.isEmpty()) {
+            int[] edges = epsilons[pending.poll()];
+            if (edges != null) {
+                for (int target : edges) {
+                    if (!closure.get(target)) {
+                        closure.set(target);
+                        pending.add(target);
+                    }
+                }
+            }
+        }
+        return closure;
+    }
+
+    private int[] build(Node node) {
+        return switch (node) {
+            case Chars chars -> symbol(setId(chars.ranges()));
+            case Anchor anchor -> symbol(anchor.symbol());
+            case Concat concat -> {
+                int in = newNode();
+                int out = in;
+                for (Node child : concat.nodes()) {
+                    int[] fragment = build(child);
+                    addEpsilon(out, fragment[0]);
+                    out = fragment[1];
+                }
+                yield new int[] { in, out };
+            }
+            case Alternation alternation -> {
+                int in = newNode();
+                int out = newNode();
+                for (Node child : alternation.nodes()) {
+                    int[] fragment = build(child);
+                    addEpsilon(in, fragment[0]);
+                    addEpsilon(fragment[1], out);
+                }
+                yield new int[] { in, out };
+            }
+            case Repeat repeat -> {
+                int in = newNode();
+                int current = in;
+                for (int i = 0; i < repeat.min(); ++i) {
+                    int[] fragment = build(repeat.node());
+                    addEpsilon(current, fragment[0]);
+                    current = fragment[1];
+                }
+                int out = newNode();
+                if (repeat.max() < 0) {
+                    int loop = newNode();
+                    addEpsilon(current, loop);
+                    int[] fragment = build(repeat.node());
+                    addEpsilon(loop, fragment[0]);
+                    addEpsilon(fragment[1], loop);
+                    addEpsilon(loop, out);
+                } else {
+                    for (int i = repeat.min(); i < repeat.max(); ++i) {
+                        int[] fragment = build(repeat.node());
+                        addEpsilon(current, out);
+                        addEpsilon(current, fragment[0]);
+                        current = fragment[1];
+                    }
+                    addEpsilon(current, out);
+                }
+                yield new int[] { in, out };
+            }
+        };
+    }
+
+    private int[] symbol(int symbol) {
+        int in = newNode();
+        int out = newNode();
+        symbols[in] = symbol;
+        targets[in] = out;
+        return new int[] { in, out };
+    }
+
+    private int newNode() {
+        if (nodes == symbols.length) {
+            int capacity = nodes * 2;
+            symbols = Arrays.copyOf(symbols, capacity);
+            targets = Arrays.copyOf(targets, capacity);
+            epsilons = Arrays.copyOf(epsilons, capacity);
+            acceptRules = Arrays.copyOf(acceptRules, capacity);
+        }
+        symbols[nodes] = NO_SYMBOL;
+        acceptRules[nodes] = Dfa.NO_RULE;
+        return nodes++;
+    }
+
+    private void addEpsilon(int from, int to) {
+        int[] edges = epsilons[from];
+        if (edges == null) {
+            epsilons[from] = new int[] { to };
+        } else {
+            edges = Arrays.copyOf(edges, edges.length + 1);
+            edges[edges.length - 1] = to;
+            epsilons[from] = edges;
+        }
+    }
+
+    private int setId(int[] ranges) {
+        return setIds.computeIfAbsent(Arrays.toString(ranges), key -> {
+            sets.add(ranges);
+            return sets.size() - 1;
+        });
+    }
+
+    private static int minLength(Node node) {
+        return switch (node) {
+            case Chars chars -> 1;
+            case Anchor anchor -> 0;
+            case Concat concat -> concat.nodes().stream().mapToInt(DfaCompiler::minLength).sum();
+            case Alternation alternation -> alternation.nodes().stream().mapToInt(DfaCompiler::minLength).min().orElse(0);
+            case Repeat repeat -> repeat.min() * minLength(repeat.node());
+        };
+    }
+
+    private static BitSet single(int node) {
+        BitSet set = new BitSet();
+        set.set(node);
+        return set;
+    }
+
+    private static int intervalOf(int[] intervals, int c) {
+        int index = Arrays.binarySearch(intervals, c);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    private static boolean contains(int[] ranges, int c) {
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (c >= ranges[i] && c <= ranges[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sorted, disjoint and non adjacent ranges covering the same characters.
+     */
+    private static int[] normalize(int[] ranges) {
+        int pairs = ranges.length / 2;
+        Integer[] order = new Integer[pairs];
+        for (int i = 0; i < pairs; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(ranges[2 * a], ranges[2 * b]));
+        int[] normalized = new int[ranges.length];
+        int count = 0;
+        for (int i : order) {
+            int low = ranges[2 * i];
+            int high = ranges[2 * i + 1];
+            if (count > 0 && low <= normalized[count - 1] + 1) {
+                normalized[count - 1] = Math.max(normalized[count - 1], high);
+            } else {
+                normalized[count++] = low;
+                normalized[count++] = high;
+            }
+        }
+        return Arrays.copyOf(normalized, count);
+    }
+
+    private static int[] negate(int[] ranges) {
+        int[] normalized = normalize(ranges);
+        int[] negated = new int[normalized.length + 2];
+        int count = 0;
+        int next = 0;
+        for (int i = 0; i < normalized.length; i += 2) {
+            if (normalized[i] > next) {
+                negated[count++] = next;
+                negated[count++] = normalized[i] - 1;
+            }
+            next = normalized[i + 1] + 1;
+        }
+        if (next < CHAR_LIMIT) {
+            negated[count++] = next;
+            negated[count++] = CHAR_LIMIT - 1;
+        }
+        return Arrays.copyOf(negated, count);
+    }
+
+    private static int[] foldCase(int[] ranges) {
+        int[] folded = Arrays.copyOf(ranges, ranges.length);
+        int count = ranges.length;
+        for (int i = 0; i < ranges.length; i += 2) {
+            for (int c = ranges[i]; c <= Math.min(ranges[i + 1], CASE_FOLDING_LIMIT); ++c) {
+                int lower = Character.toLowerCase(c);
+                int upper = Character.toUpperCase(c);
+                for (int other : new int[] { lower, upper }) {
+                    if (other != c && other < CHAR_LIMIT) {
+                        if (count + 2 > folded.length) {
+                            folded = Arrays.copyOf(folded, folded.length * 2 + 2);
+                        }
+                        folded[count++] = other;
+                        folded[count++] = other;
+                    }
+                }
+            }
+        }
+        return normalize(Arrays.copyOf(folded, count));
+    }
+
+    /**
+     * Recursive descent parser of a single pattern.
+     */
+    private static final class Parser {
+
+        private final String pattern;
+        private final boolean ignoreCase;
+        private int pos;
+
+        private Parser(String pattern, boolean ignoreCase) {
+            this.pattern = pattern;
+            this.ignoreCase = ignoreCase;
+        }
+
+        private Node parse() {
+            Node node = alternation();
+            if (pos < pattern.length()) {
+                throw error("Unbalanced )");
+            }
+            return node;
+        }
+
+        private Node alternation() {
+            List<Node> nodes = new ArrayList<>();
+            nodes.add(concat());
+            while (pos < pattern.length() && pattern.charAt(pos) == '|') {
+                ++pos;
+                nodes.add(concat());
+            }
+            return nodes.size() == 1 ? nodes.get(0) : new Alternation(nodes);
+        }
+
+        private Node concat() {
+            List<Node> nodes = new ArrayList<>();
+            while (pos < pattern.length() && pattern.charAt(pos) != '|' && pattern.charAt(pos) != ')') {
+                nodes.add(repeat());
+            }
+            return nodes.size() == 1 ? nodes.get(0) : new Concat(nodes);
+        }
+
+        private Node repeat() {
+            Node node = atom();
+            while (pos < pattern.length()) {
+                char c = pattern.charAt(pos);
+                if (c == '*') {
+                    node = new Repeat(node, 0, -1);
+                } else if (c == '+') {
+                    node = new Repeat(node, 1, -1);
+                } else if (c == '?') {
+                    node = new Repeat(node, 0, 1);
+                } else if (c == '{') {
+                    node = bounds(node);
+                    continue;
+                } else {
+                    break;
+                }
+                ++pos;
+            }
+            return node;
+        }
+
+        private Node bounds(Node node) {
+            int close = pattern.indexOf('}', pos);
+            if (close < 0) {
+                throw error("Unclosed {");
+            }
+            String[] values = pattern.substring(pos + 1, close).split(",", -1);
+            try {
+                int min = Integer.parseInt(values[0].trim());
+                int max = values.length == 1 ? min : values[1].isBlank() ? -1 : Integer.parseInt(values[1].trim());
+                if (values.length > 2 || min > MAX_REPEAT || max > MAX_REPEAT || (max >= 0 && max < min)) {
+                    throw error("Invalid repetition");
+                }
+                pos = close + 1;
+                return new Repeat(node, min, max);
+            } catch (NumberFormatException e) {
+                throw error("Invalid repetition");
+            }
+        }
+
+        private Node atom() {
+            char c = pattern.charAt(pos++);
+            return switch (c) {
+                case '(' -> {
+                    if (pattern.startsWith("?:", pos)) {
+                        pos += 2;
+                    } else if (pos < pattern.length() && pattern.charAt(pos) == '?') {
+                        throw error("Unsupported group");
+                    }
+                    Node node = alternation();
+                    if (pos >= pattern.length() || pattern.charAt(pos) != ')') {
+                        throw error("Unclosed (");
+                    }
+                    ++pos;
+                    yield node;
+                }
+                case '[' -> new Chars(characterClass());
+                case '.' -> new Chars(ALL);
+                case '^' -> new Anchor(BEGIN);
+                case '$' -> new Anchor(END);
+                case '\\' -> new Chars(escape());
+                case '*', '+', '?', '{' -> throw error("Nothing to repeat");
+                default -> new Chars(literal(c));
+            };
+        }
+
+        private int[] characterClass() {
+            boolean negated = pos < pattern.length() && pattern.charAt(pos) == '^';
+            if (negated) {
+                ++pos;
+            }
+            int[] ranges = new int[0];
+            boolean first = true;
+            while (true) {
+                if (pos >= pattern.length()) {
+                    throw error("Unclosed [");
+                }
+                char c = pattern.charAt(pos++);
+                if (c == ']' && !first) {
+                    break;
+                }
+                first = false;
+                int[] element;
+                if (c == '\\') {
+                    element = escape();
+                } else if (c == '[') {
+                    throw error("Unsupported nested class");
+                } else if (pos + 1 < pattern.length() && pattern.charAt(pos) == '-' && pattern.charAt(pos + 1) != ']') {
+                    char high = pattern.charAt(pos + 1);
+                    if (high == '\\') {
+                        throw error("Unsupported escaped range bound");
+                    }
+                    if (high < c) {
+                        throw error("Invalid range");
+                    }
+                    pos += 2;
+                    element = new int[] { c, high };
+                } else {
+                    element = new int[] { c, c };
+                }
+                ranges = concat(ranges, element);
+            }
+            ranges = ignoreCase ? foldCase(ranges) : normalize(ranges);
+            return negated ? negate(ranges) : ranges;
+        }
+
+        private int[] escape() {
+            if (pos >= pattern.length()) {
+                throw error("Trailing \\");
+            }
+            char c = pattern.charAt(pos++);
+            return switch (c) {
+                case 'd' -> DIGIT;
+                case 'D' -> negate(DIGIT);
+                case 'w' -> WORD;
+                case 'W' -> negate(WORD);
+                case 's' -> SPACE;
+                case 'S' -> negate(SPACE);
+                case 't' -> literal('\t');
+                case 'n' -> literal('\n');
+                case 'r' -> literal('\r');
+                case 'f' -> literal('\f');
+                case 'u' -> literal((char) hex(4));
+                case 'x' -> literal((char) hex(2));
+                default -> {
+                    if (Character.isLetterOrDigit(c)) {
+                        throw error("Unsupported escape \\" + c);
+                    }
+                    yield literal(c);
+                }
+            };
+        }
+
+        private int hex(int digits) {
+            if (pos + digits > pattern.length()) {
+                throw error("Invalid hexadecimal escape");
+            }
+            try {
+                int value = Integer.parseInt(pattern.substring(pos, pos + digits), 16);
+                pos += digits;
+                return value;
+            } catch (NumberFormatException e) {
+                throw error("Invalid hexadecimal escape");
+            }
+        }
+
+        private int[] literal(char c) {
+            int[] ranges = { c, c };
+            return ignoreCase ? foldCase(ranges) : ranges;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at " + pos + " of " + pattern);
+        }
+
+        private static int[] concat(int[] first, int[] second) {
+            int[] result = Arrays.copyOf(first, first.length + second.length);
+            System.arraycopy(second, 0, result, first.length, second.length);
+            return result;
+        }
+    }
+}
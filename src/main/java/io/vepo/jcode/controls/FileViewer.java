@@ -0,0 +1,351 @@
+package io.vepo.jcode.controls;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.property.ReadOnlyDoubleWrapper;
+import javafx.collections.ModifiableObservableListBase;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.SelectionMode;
+import javafx.scene.control.TextField;
+import javafx.scene.input.Clipboard;
+import javafx.scene.input.ClipboardContent;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCodeCombination;
+import javafx.scene.input.KeyCombination;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+
+/**
+ * Line editor of files too large for the code area, like multi-gigabyte logs and dumps. The file is mapped into a
+ * {@link PieceTable} and indexed batch by batch by a background thread, its lines are shown as soon as they are
+ * indexed. The list only asks for the lines of the cells it shows, so only the pieces of the visible page are decoded
+ * and the heap used barely grows with the size of the file.
+ * <p>
+ * Once the whole file is indexed its lines can be edited: <code>Enter</code> edits the focused line,
+ * <code>Shortcut+Enter</code> inserts a line after it and <code>Delete</code> removes the selected lines. Edits are
+ * kept in the add buffer of the table, the file itself is never written.
+ */
+public class FileViewer extends ListView<String> {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileViewer.class);
+
+    /**
+     * Bytes of the file indexed by each batch.
+     */
+    static final long BATCH_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * Characters shown of a line, the rest of longer lines is cut.
+     */
+    static final int MAX_LINE_LENGTH = 10_000;
+
+    /**
+     * Most characters copied at once, a larger selection is copied up to the line reaching it.
+     */
+    static final int MAX_COPY_LENGTH = 8 * 1024 * 1024;
+
+    // Height of a line, fixed so the list never measures cells across millions of lines
+    private static final double CELL_SIZE = 20.0;
+
+    private static final String STYLESHEET = FileViewer.class.getResource("/css/editor.css").toExternalForm();
+    private static final String CSS_CLASS = "file-viewer";
+    private static final KeyCombination COPY = new KeyCodeCombination(KeyCode.C, KeyCombination.SHORTCUT_DOWN);
+    private static final KeyCombination EDIT_LINE = new KeyCodeCombination(KeyCode.ENTER);
+    private static final KeyCombination INSERT_LINE = new KeyCodeCombination(KeyCode.ENTER,
+                                                                             KeyCombination.SHORTCUT_DOWN);
+    private static final KeyCombination DELETE_LINES = new KeyCodeCombination(KeyCode.DELETE);
+    private static final ThreadFactory INDEXERS = Thread.ofVirtual().name("file-viewer-", 0).factory();
+
+    /**
+     * Lines of the table indexed so far, the last line of the table is only complete once all of it is indexed. Lines
+     * are set, added and removed by editing the table, once it is all indexed.
+     */
+    private static final class Lines extends ModifiableObservableListBase<String> {
+        private PieceTable table;
+        private int size;
+
+        @Override
+        public String get(int index) {
+            checkIndex(index);
+            return table.line(index, MAX_LINE_LENGTH);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Whether a line is longer than the text shown of it.
+         */
+        private boolean isCut(int index) {
+            checkIndex(index);
+            return table.lineEnd(index) - table.lineStart(index) > MAX_LINE_LENGTH;
+        }
+
+        @Override
+        protected void doAdd(int index, String line) {
+            checkLine(line);
+            if (index < 0 || index > size) {
+                throw new IndexOutOfBoundsException("Line " + index + " of " + size);
+            }
+            if (index < size) {
+                table.insert(table.lineStart(index), line + separator());
+            } else {
+                table.insert(table.length(), separator() + line);
+            }
+            resize();
+        }
+
+        @Override
+        protected String doSet(int index, String line) {
+            checkLine(line);
+            String previous = get(index);
+            long start = table.lineStart(index);
+            table.replace(start, table.lineEnd(index), line);
+            return previous;
+        }
+
+        @Override
+        protected String doRemove(int index) {
+            String previous = get(index);
+            if (size == 1) {
+                throw new IllegalStateException("The text has at least one line!");
+            } else if (index < size - 1) {
+                table.delete(table.lineStart(index), table.lineStart(index + 1));
+            } else {
+                table.delete(table.lineEnd(index - 1), table.length());
+            }
+            resize();
+            return previous;
+        }
+
+        private void append(PieceTable table, PieceTable.Batch batch) {
+            this.table = table;
+            table.append(batch);
+            long lines = table.isIndexed() ? table.lineCount() : table.lineCount() - 1;
+            int newSize = (int) Math.min(Integer.MAX_VALUE - 8, lines);
+            if (newSize > size) {
+                beginChange();
+                nextAdd(size, newSize);
+                size = newSize;
+                endChange();
+            }
+        }
+
+        private void resize() {
+            size = (int) Math.min(Integer.MAX_VALUE - 8, table.lineCount());
+        }
+
+        /**
+         * Line terminator of the first line, used for the lines added.
+         */
+        private String separator() {
+            long next = table.lineCount() > 1 ? table.lineStart(1) : 0;
+            return next >= 2 && table.charAt(next - 2) == '\r' ? "\r\n" : "\n";
+        }
+
+        private void checkIndex(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Line " + index + " of " + size);
+            }
+        }
+
+        private static void checkLine(String line) {
+            if (line.indexOf('\n') >= 0 || line.indexOf('\r') >= 0) {
+                throw new IllegalArgumentException("A line cannot hold a line terminator!");
+            }
+        }
+    }
+
+    /**
+     * Cell of a line, with its number, edited in a text field.
+     */
+    private final class LineCell extends ListCell<String> {
+        private final Label number = new Label();
+        private final TextField field = new TextField();
+
+        private LineCell() {
+            number.getStyleClass().add("lineno");
+            HBox.setHgrow(field, Priority.ALWAYS);
+            field.setOnAction(event -> {
+                commitEdit(field.getText());
+                event.consume();
+            });
+            field.setOnKeyPressed(event -> {
+                if (event.getCode() == KeyCode.ESCAPE) {
+                    cancelEdit();
+                    event.consume();
+                }
+            });
+        }
+
+        @Override
+        public void startEdit() {
+            // Cut lines are not edited, the text field would only hold the text shown of them
+            if (isEmpty() || lines.isCut(getIndex())) {
+                return;
+            }
+            super.startEdit();
+            if (isEditing()) {
+                field.setText(getItem());
+                setText(null);
+                setGraphic(new HBox(number, field));
+                field.requestFocus();
+            }
+        }
+
+        @Override
+        public void cancelEdit() {
+            super.cancelEdit();
+            updateItem(getItem(), isEmpty());
+        }
+
+        @Override
+        protected void updateItem(String line, boolean empty) {
+            super.updateItem(line, empty);
+            if (empty || line == null) {
+                setText(null);
+                setGraphic(null);
+            } else {
+                number.setText(Integer.toString(getIndex() + 1));
+                if (!isEditing()) {
+                    setText(line);
+                    setGraphic(number);
+                }
+            }
+        }
+    }
+
+    private final Lines lines = new Lines();
+    private final ReadOnlyDoubleWrapper progress = new ReadOnlyDoubleWrapper(0.0);
+    private volatile boolean closed;
+
+    private FileViewer() {
+        setItems(lines);
+        getStylesheets().add(STYLESHEET);
+        getStyleClass().add(CSS_CLASS);
+        getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        setFixedCellSize(CELL_SIZE);
+        setCellFactory(view -> new LineCell());
+        setOnKeyPressed(event -> {
+            if (COPY.match(event)) {
+                ClipboardContent content = new ClipboardContent();
+                content.putString(selectedText());
+                Clipboard.getSystemClipboard().setContent(content);
+                event.consume();
+            } else if (isEditable() && getEditingIndex() < 0) {
+                int focused = getFocusModel().getFocusedIndex();
+                if (EDIT_LINE.match(event) && focused >= 0) {
+                    edit(focused);
+                    event.consume();
+                } else if (INSERT_LINE.match(event) && focused >= 0) {
+                    lines.add(focused + 1, "");
+                    getSelectionModel().clearAndSelect(focused + 1);
+                    scrollTo(focused + 1);
+                    edit(focused + 1);
+                    event.consume();
+                } else if (DELETE_LINES.match(event)) {
+                    deleteSelectedLines();
+                    event.consume();
+                }
+            }
+        });
+    }
+
+    /**
+     * Remove the selected lines, from the last one so the indices of the others hold. Removing every line leaves a
+     * single empty one.
+     */
+    private void deleteSelectedLines() {
+        int[] selected = getSelectionModel().getSelectedIndices()
+                                            .stream()
+                                            .mapToInt(Integer::intValue)
+                                            .sorted()
+                                            .toArray();
+        getSelectionModel().clearSelection();
+        for (int i = selected.length - 1; i >= 0; --i) {
+            if (lines.size() > 1) {
+                lines.remove(selected[i]);
+            } else {
+                lines.set(0, "");
+            }
+        }
+        if (selected.length > 0) {
+            getSelectionModel().clearAndSelect(Math.min(selected[0], lines.size() - 1));
+        }
+    }
+
+    /**
+     * Text of the selected lines, up to the line reaching {@link #MAX_COPY_LENGTH} characters.
+     */
+    private String selectedText() {
+        StringBuilder text = new StringBuilder();
+        var selected = getSelectionModel().getSelectedIndices();
+        for (int i = 0; i < selected.size(); ++i) {
+            if (text.length() >= MAX_COPY_LENGTH) {
+                logger.warn("Copied {} of {} selected lines, the selection is larger than {} characters", i,
+                            selected.size(), MAX_COPY_LENGTH);
+                break;
+            }
+            if (i > 0) {
+                text.append('\n');
+            }
+            text.append(lines.get(selected.get(i)));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Open a file in a viewer, empty until the first lines of the file are indexed.
+     */
+    public static FileViewer open(File file, Charset charset) {
+        FileViewer viewer = new FileViewer();
+        INDEXERS.newThread(() -> viewer.index(file, charset)).start();
+        return viewer;
+    }
+
+    /**
+     * Progress of the indexing of the file, from <code>0</code> to <code>1</code>.
+     */
+    public ReadOnlyDoubleProperty progressProperty() {
+        return progress.getReadOnlyProperty();
+    }
+
+    /**
+     * Stop indexing the file, once the viewer is not shown anymore.
+     */
+    public void close() {
+        closed = true;
+    }
+
+    private void index(File file, Charset charset) {
+        try {
+            PieceTable table = PieceTable.map(file.toPath(), charset);
+            long position = table.indexed();
+            do {
+                PieceTable.Batch batch = table.index(position, BATCH_SIZE);
+                position = batch.end();
+                double indexed = table.size() == 0 ? 1.0 : (double) position / table.size();
+                Platform.runLater(() -> {
+                    lines.append(table, batch);
+                    setEditable(table.isIndexed());
+                    progress.set(indexed);
+                });
+            } while (position < table.size() && !closed);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to index file: {}", file.getAbsolutePath(), e);
+            Platform.runLater(() -> progress.set(1.0));
+        }
+    }
+}
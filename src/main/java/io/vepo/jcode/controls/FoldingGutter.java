@@ -0,0 +1,67 @@
+package io.vepo.jcode.controls;
+
+import java.util.function.IntFunction;
+
+import org.fxmisc.richtext.CodeArea;
+
+import javafx.scene.Node;
+import javafx.scene.control.Label;
+import javafx.scene.layout.HBox;
+
+/**
+ * Adds a toggle to the gutter of the paragraphs starting a region that can be folded, as found by the
+ * {@link BracketIndex} of the {@link HighlightingSession} of the code area. Only the visible paragraphs have a
+ * graphic, so the regions are looked up as they scroll into view and never computed for the whole document.
+ */
+final class FoldingGutter {
+
+    private static final String STYLE_CLASS = "fold-toggle";
+    private static final String EXPANDED = "▾";
+    private static final String COLLAPSED = "▸";
+
+    private final CodeArea codeArea;
+    private final HighlightingSession session;
+    private final IntFunction<? extends Node> lineNumbers;
+
+    private FoldingGutter(CodeArea codeArea, HighlightingSession session) {
+        this.codeArea = codeArea;
+        this.session = session;
+        this.lineNumbers = codeArea.getParagraphGraphicFactory();
+    }
+
+    /**
+     * Show the fold toggles next to the graphic the code area already has for its paragraphs, like line numbers.
+     */
+    static void install(CodeArea codeArea, HighlightingSession session) {
+        var gutter = new FoldingGutter(codeArea, session);
+        gutter.refresh();
+        session.onBracketsChanged(gutter::refresh);
+    }
+
+    private void refresh() {
+        // A new factory makes the code area create the graphics of the visible paragraphs again
+        codeArea.setParagraphGraphicFactory(this::graphic);
+    }
+
+    private Node graphic(int paragraph) {
+        Label toggle = new Label();
+        toggle.getStyleClass().add(STYLE_CLASS);
+        if (paragraph + 1 < codeArea.getParagraphs().size() && codeArea.isFolded(paragraph + 1)) {
+            toggle.setText(COLLAPSED);
+            toggle.setOnMouseClicked(event -> {
+                codeArea.unfoldParagraphs(paragraph);
+                refresh();
+            });
+        } else {
+            int end = session.foldEnd(paragraph);
+            if (end > paragraph) {
+                toggle.setText(EXPANDED);
+                toggle.setOnMouseClicked(event -> {
+                    codeArea.foldParagraphs(paragraph, end);
+                    refresh();
+                });
+            }
+        }
+        return lineNumbers == null ? toggle : new HBox(lineNumbers.apply(paragraph), toggle);
+    }
+}
@@ -0,0 +1,141 @@
+package io.vepo.jcode.controls;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Declarative description of a language, read from JSON and compiled by {@link GrammarLexer}.
+ * <p>
+ * A grammar is a set of named states, lexing starts in the <code>initial</code> one. Each state has an ordered list
+ * of rules: at every position the rule with the longest match wins, the first declared one on a tie. A rule may
+ * push a state, replace the current one or pop it, so constructs like strings and nested comments can span
+ * paragraphs. Text no rule matches gets the style of the state. A rule may also embed another grammar until its
+ * <code>until</code> pattern matches.
+ *
+ * <pre>
+ * {
+ *   "name": "ini",
+ *   "cssClass": "ini-code",
+ *   "extensions": ["ini"],
+ *   "states": {
+ *     "initial": {
+ *       "rules": [
+ *         { "match": "[;#].*", "style": "comment" },
+ *         { "match": "\\[", "style": "keyword", "push": "section" },
+ *         { "keywords": ["true", "false"], "ignoreCase": true, "style": "keyword" },
+ *         { "match": "[A-Za-z_]\\w*" }
+ *       ]
+ *     },
+ *     "section": {
+ *       "style": "type",
+ *       "singleLine": true,
+ *       "rules": [{ "match": "\\]", "style": "keyword", "pop": true }]
+ *     }
+ *   }
+ * }
+ * </pre>
+ */
+record Grammar(String name,
+               String cssClass,
+               String stylesheet,
+               Set<String> extensions,
+               Set<String> fileNames,
+               Set<String> interpreters,
+               Map<String, State> states) {
+
+    static final String INITIAL_STATE = "initial";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * A lexer state.
+     *
+     * @param style      style of the text no rule matches, or <code>null</code>
+     * @param singleLine whether the state is popped at the end of the paragraph, like an unclosed string
+     * @param include    state whose rules are tried after the rules of this one, or <code>null</code>
+     * @param rules      rules, in priority order
+     */
+    record State(String style, boolean singleLine, String include, List<Rule> rules) {
+
+        State {
+            rules = rules == null ? List.of() : List.copyOf(rules);
+        }
+    }
+
+    /**
+     * A token rule. Exactly one of <code>match</code> and <code>keywords</code> must be set, and at most one of
+     * <code>push</code>, <code>next</code>, <code>pop</code> and <code>embed</code>.
+     *
+     * @param match      regular expression, see {@link DfaCompiler} for the syntax
+     * @param keywords   words matched literally
+     * @param ignoreCase whether letters match in any case
+     * @param style      style class of the token, or <code>null</code> for an unstyled token
+     * @param push       state to enter, returning to the current one when it is popped
+     * @param next       state replacing the current one
+     * @param pop        whether to return to the state that pushed the current one
+     * @param embed      name of the grammar lexing the text after the token
+     * @param until      regular expression ending the embedded grammar, styled as this rule
+     */
+    record Rule(String match,
+                List<String> keywords,
+                boolean ignoreCase,
+                String style,
+                String push,
+                String next,
+                boolean pop,
+                String embed,
+                String until) {
+
+        Rule {
+            keywords = keywords == null ? null : List.copyOf(keywords);
+        }
+
+        /**
+         * Regular expression of the rule, the keywords are quoted.
+         */
+        String pattern() {
+            if (keywords == null) {
+                return match;
+            }
+            return keywords.stream().map(Grammar::quote).collect(Collectors.joining("|"));
+        }
+    }
+
+    Grammar {
+        extensions = extensions == null ? Set.of() : Set.copyOf(extensions);
+        fileNames = fileNames == null ? Set.of() : Set.copyOf(fileNames);
+        interpreters = interpreters == null ? Set.of() : Set.copyOf(interpreters);
+        states = states == null ? Map.of() : Map.copyOf(states);
+    }
+
+    /**
+     * Read a grammar from JSON.
+     *
+     * @throws IOException if the content is not a valid grammar document
+     */
+    static Grammar read(InputStream input) throws IOException {
+        Grammar grammar = MAPPER.readValue(input, Grammar.class);
+        if (grammar.name() == null || grammar.name().isBlank()) {
+            throw new IOException("Grammar without name!");
+        }
+        return grammar;
+    }
+
+    private static String quote(String word) {
+        StringBuilder quoted = new StringBuilder(word.length() + 4);
+        for (int i = 0; i < word.length(); ++i) {
+            char c = word.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != ' ') {
+                quoted.append('\\');
+            }
+            quoted.append(c);
+        }
+        return quoted.toString();
+    }
+}
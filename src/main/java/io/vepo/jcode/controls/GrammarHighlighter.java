@@ -0,0 +1,94 @@
+package io.vepo.jcode.controls;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.fxmisc.richtext.CodeArea;
+import org.fxmisc.richtext.LineNumberFactory;
+import org.fxmisc.richtext.model.StyleSpans;
+
+/**
+ * Highlighter of a language described by a {@link Grammar}. All the grammar languages share the
+ * <code>grammar-code</code> style class, on top of their own one.
+ */
+public class GrammarHighlighter implements LanguageHighlighter {
+
+    static final String GRAMMAR_CSS_CLASS = "grammar-code";
+
+    // Not used, but required by interface
+    private static final Pattern PATTERN = Pattern.compile("");
+
+    private final Grammar grammar;
+    private final GrammarLexer lexer;
+    private final String stylesheet;
+
+    GrammarHighlighter(Grammar grammar, GrammarLexer lexer, String stylesheet) {
+        this.grammar = grammar;
+        this.lexer = lexer;
+        this.stylesheet = stylesheet;
+    }
+
+    /**
+     * Name of the grammar.
+     */
+    public String getName() {
+        return grammar.name();
+    }
+
+    @Override
+    public Pattern getPattern() {
+        return PATTERN;
+    }
+
+    @Override
+    public String getCssClass() {
+        return grammar.cssClass() == null ? grammar.name() + "-code" : grammar.cssClass();
+    }
+
+    @Override
+    public StyleSpans<Collection<String>> computeHighlighting(String text) {
+        return HighlightingModel.computeHighlighting(lexer, text);
+    }
+
+    @Override
+    public Optional<ParagraphLexer> getParagraphLexer() {
+        return Optional.of(lexer);
+    }
+
+    @Override
+    public void configureCodeArea(CodeArea codeArea) {
+        // Set up line numbers
+        codeArea.setParagraphGraphicFactory(LineNumberFactory.get(codeArea));
+
+        // Set up styling
+        if (stylesheet != null) {
+            codeArea.getStylesheets().add(stylesheet);
+        }
+
+        // Apply CSS classes to the CodeArea
+        codeArea.getStyleClass().addAll(GRAMMAR_CSS_CLASS, getCssClass());
+
+        // Set font using CSS
+        codeArea.setStyle("-fx-font-family: 'Consolas'; -fx-font-size: 14px;");
+
+        // Set up syntax highlighting
+        HighlightingSession.install(codeArea, lexer);
+    }
+
+    @Override
+    public Set<String> getFileExtensions() {
+        return grammar.extensions();
+    }
+
+    @Override
+    public Set<String> getFileNames() {
+        return grammar.fileNames();
+    }
+
+    @Override
+    public Set<String> getInterpreters() {
+        return grammar.interpreters();
+    }
+}
@@ -0,0 +1,386 @@
+package io.vepo.jcode.controls;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+
+import io.vepo.jcode.controls.Grammar.Rule;
+
+/**
+ * {@link ParagraphLexer} driven by a {@link Grammar} compiled into one {@link Dfa} per state. Every language shares
+ * the same scanning loop: the automaton of the current state finds the longest rule matching at the current
+ * position, its token is emitted and its action changes the state.
+ * <p>
+ * The lexer state is a stack of grammar states, interned so a whole stack fits the <code>int</code> state of a
+ * paragraph and equal stacks have equal ids. Stacks deeper than {@link #MAX_DEPTH} replace their top instead of
+ * growing.
+ * <p>
+ * An embedded grammar is entered in its initial state, extended with a rule popping it when the <code>until</code>
+ * pattern matches. The other states of the embedded grammar do not look for it, so the embedded text ends where it
+ * would end in the host only outside of its strings and comments.
+ */
+final class GrammarLexer implements ParagraphLexer {
+
+    static final int MAX_DEPTH = 32;
+
+    private static final int NO_ACTION = 0;
+    private static final int PUSH = 1;
+    private static final int NEXT = 2;
+    private static final int POP = 3;
+
+    /**
+     * A compiled state, the rule <code>i</code> matched by the automaton has style <code>types[i]</code> and
+     * action <code>actions[i]</code> to <code>targets[i]</code>.
+     */
+    private static final class State {
+        private final String name;
+        private final Dfa dfa;
+        private final int style;
+        private final boolean singleLine;
+        private final int[] types;
+        private final int[] actions;
+        private final int[] targets;
+
+        private State(String name, Dfa dfa, int style, boolean singleLine, int[] types, int[] actions, int[] targets) {
+            this.name = name;
+            this.dfa = dfa;
+            this.style = style;
+            this.singleLine = singleLine;
+            this.types = types;
+            this.actions = actions;
+            this.targets = targets;
+        }
+    }
+
+    private final String name;
+    private final State[] states;
+    private final Stacks stacks;
+
+    private GrammarLexer(String name, State[] states) {
+        this.name = name;
+        this.states = states;
+        this.stacks = new Stacks(states.length);
+    }
+
+    /**
+     * Compile a grammar, and the grammars it embeds.
+     *
+     * @param grammars the grammars that can be embedded, by name
+     * @throws IllegalArgumentException if the grammar is not valid
+     */
+    static GrammarLexer compile(Grammar grammar, Function<String, Optional<Grammar>> grammars) {
+        return new GrammarLexer(grammar.name(), new Compiler(grammars).compile(grammar));
+    }
+
+    /**
+     * Name of the grammar.
+     */
+    String name() {
+        return name;
+    }
+
+    /**
+     * Name of the grammar state on top of a lexer state, prefixed by the name of its grammar.
+     */
+    String stateName(int state) {
+        return states[stacks.top(state)].name;
+    }
+
+    /**
+     * Number of grammar states on a lexer state.
+     */
+    int depth(int state) {
+        return stacks.depth(state);
+    }
+
+    @Override
+    public int lexParagraph(CharSequence text, int start, int end, int stack, TokenSink sink) {
+        State state = states[stacks.top(stack)];
+        int pendingStart = start;
+        int pendingType = TokenTypes.NONE;
+        boolean unmatched = false;
+        int pos = start;
+        while (pos < end) {
+            long match = state.dfa.match(text, start, pos, end);
+            boolean wasUnmatched = unmatched;
+            unmatched = match < 0;
+            int tokenEnd;
+            int type;
+            if (match < 0) {
+                tokenEnd = pos + 1;
+                type = state.style;
+            } else {
+                int rule = Dfa.rule(match);
+                tokenEnd = Dfa.end(match);
+                type = state.types[rule];
+                if (state.actions[rule] != NO_ACTION) {
+                    stack = act(stack, state.actions[rule], state.targets[rule]);
+                    state = states[stacks.top(stack)];
+                }
+            }
+
+            // Text no rule matches is emitted together with the tokens of the same style around it, so a string is
+            // a single token, but two parentheses are still two tokens
+            if (type != pendingType || !(unmatched || wasUnmatched)) {
+                if (pendingType != TokenTypes.NONE) {
+                    sink.token(pendingStart, pos, pendingType);
+                }
+                pendingStart = pos;
+                pendingType = type;
+            }
+            pos = tokenEnd;
+        }
+        if (pendingType != TokenTypes.NONE) {
+            sink.token(pendingStart, end, pendingType);
+        }
+
+        while (state.singleLine) {
+            int parent = stacks.pop(stack);
+            if (parent == stack) {
+                break;
+            }
+            stack = parent;
+            state = states[stacks.top(stack)];
+        }
+        return stack;
+    }
+
+    private int act(int stack, int action, int target) {
+        return switch (action) {
+            case PUSH -> stacks.push(stack, target);
+            case NEXT -> stacks.replace(stack, target);
+            case POP -> stacks.pop(stack);
+            default -> stack;
+        };
+    }
+
+    /**
+     * Interned stacks of states, the stack <code>0</code> holds only the initial state. The lexer is shared by the
+     * highlighting threads, so reading a stack and following a transition already interned never lock: a new stack
+     * is written past the size of the table, growing its arrays geometrically, then the table is published with the
+     * new size.
+     */
+    private static final class Stacks {
+
+        /**
+         * Parent, top state and depth of the first <code>size</code> stacks, and their children by state, those of
+         * index 0 are the stacks of a single state. A child is stored as its id plus one, so 0 is no child.
+         */
+        private record Table(int[] parents, int[] tops, int[] depths, int[][] children, int size) {
+        }
+
+        private final int stateCount;
+        private volatile Table table = new Table(new int[16], new int[16], new int[16], new int[17][], 0);
+
+        private Stacks(int stateCount) {
+            this.stateCount = stateCount;
+            intern(-1, 0);
+        }
+
+        private int top(int stack) {
+            return table.tops[stack];
+        }
+
+        private int depth(int stack) {
+            return table.depths[stack];
+        }
+
+        private int push(int stack, int state) {
+            Table current = table;
+            return current.depths[stack] == MAX_DEPTH ? child(current, current.parents[stack], state)
+                                                      : child(current, stack, state);
+        }
+
+        private int replace(int stack, int state) {
+            Table current = table;
+            return child(current, current.parents[stack], state);
+        }
+
+        private int pop(int stack) {
+            int parent = table.parents[stack];
+            return parent < 0 ? stack : parent;
+        }
+
+        private int child(Table current, int parent, int state) {
+            int[] row = current.children[parent + 1];
+            // A child interned after the table read may not be visible yet, interning finds it under the lock
+            int child = row == null ? 0 : row[state];
+            if (child > 0 && child <= current.size) {
+                return child - 1;
+            }
+            return intern(parent, state);
+        }
+
+        private synchronized int intern(int parent, int state) {
+            Table current = table;
+            int[] row = current.children[parent + 1];
+            if (row != null && row[state] > 0) {
+                // Interned by another thread
+                return row[state] - 1;
+            }
+            int stack = current.size;
+            int[] parents = current.parents;
+            int[] tops = current.tops;
+            int[] depths = current.depths;
+            int[][] children = current.children;
+            if (stack == parents.length) {
+                int capacity = stack * 2;
+                parents = Arrays.copyOf(parents, capacity);
+                tops = Arrays.copyOf(tops, capacity);
+                depths = Arrays.copyOf(depths, capacity);
+                children = Arrays.copyOf(children, capacity + 1);
+            }
+            if (row == null) {
+                row = new int[stateCount];
+                children[parent + 1] = row;
+            }
+            parents[stack] = parent;
+            tops[stack] = state;
+            depths[stack] = parent < 0 ? 1 : depths[parent] + 1;
+            row[state] = stack + 1;
+            table = new Table(parents, tops, depths, children, stack + 1);
+            return stack;
+        }
+    }
+
+    /**
+     * Compiles the states reachable from the initial state of a grammar, following pushes into embedded grammars.
+     */
+    private static final class Compiler {
+
+        private record Key(String grammar, String state, String until, String untilStyle) {
+        }
+
+        private record Pending(Grammar grammar, String state, Rule embedding) {
+        }
+
+        private final Function<String, Optional<Grammar>> grammars;
+        private final Map<Key, Integer> ids = new HashMap<>();
+        private final Deque<Pending> pending = new ArrayDeque<>();
+
+        private Compiler(Function<String, Optional<Grammar>> grammars) {
+            this.grammars = grammars;
+        }
+
+        private State[] compile(Grammar grammar) {
+            id(grammar, Grammar.INITIAL_STATE, null);
+            List<State> compiled = new ArrayList<>();
+            while (!pending.isEmpty()) {
+                compiled.add(compile(pending.poll()));
+            }
+            return compiled.toArray(State[]::new);
+        }
+
+        private int id(Grammar grammar, String state, Rule embedding) {
+            if (!grammar.states().containsKey(state)) {
+                throw new IllegalArgumentException("Unknown state " + state + " of grammar " + grammar.name());
+            }
+            Key key = embedding == null ? new Key(grammar.name(), state, null, null)
+                                        : new Key(grammar.name(), state, embedding.until(), embedding.style());
+            Integer id = ids.get(key);
+            if (id == null) {
+                id = ids.size();
+                ids.put(key, id);
+                pending.add(new Pending(grammar, state, embedding));
+            }
+            return id;
+        }
+
+        private State compile(Pending spec) {
+            Grammar grammar = spec.grammar();
+            String stateName = spec.state();
+            List<Rule> rules = new ArrayList<>();
+            if (spec.embedding() != null) {
+                rules.add(new Rule(spec.embedding().until(), null, false, spec.embedding().style(), null, null,
+                                   true, null, null));
+            }
+            rules.addAll(rules(grammar, stateName, new HashSet<>()));
+            if (rules.isEmpty()) {
+                throw new IllegalArgumentException("State " + stateName + " of grammar " + grammar.name()
+                        + " has no rule");
+            }
+
+            String[] patterns = new String[rules.size()];
+            boolean[] ignoreCase = new boolean[rules.size()];
+            int[] types = new int[rules.size()];
+            int[] actions = new int[rules.size()];
+            int[] targets = new int[rules.size()];
+            for (int i = 0; i < rules.size(); ++i) {
+                Rule rule = rules.get(i);
+                if ((rule.match() == null) == (rule.keywords() == null)) {
+                    throw new IllegalArgumentException("Rule " + i + " of state " + stateName + " of grammar "
+                            + grammar.name() + " must have either match or keywords");
+                }
+                patterns[i] = rule.pattern();
+                ignoreCase[i] = rule.ignoreCase();
+                types[i] = rule.style() == null ? TokenTypes.NONE : TokenTypes.of(rule.style());
+                int actionCount = (rule.push() != null ? 1 : 0) + (rule.next() != null ? 1 : 0)
+                        + (rule.pop() ? 1 : 0) + (rule.embed() != null ? 1 : 0);
+                if (actionCount > 1) {
+                    throw new IllegalArgumentException("Rule " + i + " of state " + stateName + " of grammar "
+                            + grammar.name() + " has more than one action");
+                }
+                if (rule.push() != null) {
+                    actions[i] = PUSH;
+                    targets[i] = id(grammar, rule.push(), null);
+                } else if (rule.next() != null) {
+                    actions[i] = NEXT;
+                    targets[i] = id(grammar, rule.next(), null);
+                } else if (rule.pop()) {
+                    actions[i] = POP;
+                } else if (rule.embed() != null) {
+                    if (rule.until() == null) {
+                        throw new IllegalArgumentException("Rule " + i + " of state " + stateName + " of grammar "
+                                + grammar.name() + " embeds " + rule.embed() + " without until");
+                    }
+                    Grammar embedded = grammars.apply(rule.embed())
+                                               .orElseThrow(() -> new IllegalArgumentException(
+                                                       "Unknown grammar " + rule.embed() + " embedded by "
+                                                               + grammar.name()));
+                    actions[i] = PUSH;
+                    targets[i] = id(embedded, Grammar.INITIAL_STATE, rule);
+                }
+            }
+
+            Dfa dfa;
+            try {
+                dfa = Dfa.compile(patterns, ignoreCase);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid state " + stateName + " of grammar " + grammar.name()
+                        + ": " + e.getMessage(), e);
+            }
+            Grammar.State state = grammar.states().get(stateName);
+            return new State(grammar.name() + ":" + stateName,
+                             dfa,
+                             state.style() == null ? TokenTypes.NONE : TokenTypes.of(state.style()),
+                             state.singleLine(),
+                             types,
+                             actions,
+                             targets);
+        }
+
+        private static List<Rule> rules(Grammar grammar, String stateName, Set<String> visited) {
+            if (!visited.add(stateName)) {
+                throw new IllegalArgumentException("State " + stateName + " of grammar " + grammar.name()
+                        + " includes itself");
+            }
+            Grammar.State state = grammar.states().get(stateName);
+            if (state == null) {
+                throw new IllegalArgumentException("Unknown state " + stateName + " of grammar " + grammar.name());
+            }
+            List<Rule> rules = new ArrayList<>(state.rules());
+            if (state.include() != null) {
+                rules.addAll(rules(grammar, state.include(), visited));
+            }
+            return rules;
+        }
+    }
+}
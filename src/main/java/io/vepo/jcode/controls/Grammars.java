@@ -0,0 +1,126 @@
+package io.vepo.jcode.controls;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads the grammars bundled with the editor and the ones in <code>~/.jcode/grammars</code>, and compiles them. A
+ * user grammar replaces the bundled one of the same name. Stylesheets of bundled grammars are resources under
+ * <code>/css</code>, those of user grammars are relative to the grammar file.
+ * <p>
+ * An invalid grammar is logged and skipped, it never prevents the other languages from loading.
+ */
+final class Grammars {
+
+    private static final Logger logger = LoggerFactory.getLogger(Grammars.class);
+
+    private static final String[] BUNDLED = { "yaml", "kotlin", "sql", "shell", "javascript" };
+    private static final String GRAMMAR_EXTENSION = ".json";
+    private static final String DEFAULT_STYLESHEET = "grammar-keywords.css";
+
+    private Grammars() {
+    }
+
+    /**
+     * Directory of the user grammars.
+     */
+    static Path userDirectory() {
+        return Paths.get(System.getProperty("user.home"), ".jcode", "grammars");
+    }
+
+    /**
+     * Compile the bundled grammars and the ones of the user directory.
+     */
+    static List<GrammarHighlighter> load() {
+        return load(userDirectory());
+    }
+
+    /**
+     * Compile the bundled grammars and the ones of the given directory.
+     */
+    static List<GrammarHighlighter> load(Path userDirectory) {
+        Map<String, Grammar> grammars = new LinkedHashMap<>();
+        Map<String, String> stylesheets = new LinkedHashMap<>();
+        for (String name : BUNDLED) {
+            bundled(name).ifPresent(grammar -> {
+                grammars.put(grammar.name(), grammar);
+                stylesheets.put(grammar.name(), resource(grammar.stylesheet() == null ? DEFAULT_STYLESHEET
+                                                                                      : grammar.stylesheet()));
+            });
+        }
+
+        if (Files.isDirectory(userDirectory)) {
+            try (Stream<Path> files = Files.list(userDirectory)) {
+                for (Path file : files.filter(file -> file.toString().endsWith(GRAMMAR_EXTENSION)).sorted().toList()) {
+                    try (InputStream input = Files.newInputStream(file)) {
+                        Grammar grammar = Grammar.read(input);
+                        grammars.put(grammar.name(), grammar);
+                        stylesheets.put(grammar.name(),
+                                        grammar.stylesheet() == null ? resource(DEFAULT_STYLESHEET)
+                                                                     : file.resolveSibling(grammar.stylesheet())
+                                                                           .toUri()
+                                                                           .toString());
+                        logger.info("Grammar {} loaded from {}", grammar.name(), file);
+                    } catch (IOException e) {
+                        logger.warn("Could not read grammar {}!", file, e);
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn("Could not list grammars of {}!", userDirectory, e);
+            }
+        }
+
+        List<GrammarHighlighter> highlighters = new ArrayList<>(grammars.size());
+        for (Grammar grammar : grammars.values()) {
+            try {
+                GrammarLexer lexer = GrammarLexer.compile(grammar, name -> Optional.ofNullable(grammars.get(name)));
+                highlighters.add(new GrammarHighlighter(grammar, lexer, stylesheets.get(grammar.name())));
+            } catch (IllegalArgumentException e) {
+                logger.warn("Invalid grammar {}: {}", grammar.name(), e.getMessage());
+            }
+        }
+        return highlighters;
+    }
+
+    /**
+     * Compile a bundled grammar, whatever the user grammars are, for the languages embedded by the built-in ones.
+     */
+    static Optional<GrammarLexer> lexer(String name) {
+        try {
+            return bundled(name).map(grammar -> GrammarLexer.compile(grammar, Grammars::bundled));
+        } catch (IllegalArgumentException e) {
+            logger.warn("Invalid grammar {}: {}", name, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private static Optional<Grammar> bundled(String name) {
+        try (InputStream input = Grammars.class.getResourceAsStream("/grammars/" + name + GRAMMAR_EXTENSION)) {
+            if (input == null) {
+                logger.warn("Bundled grammar {} not found!", name);
+                return Optional.empty();
+            }
+            return Optional.of(Grammar.read(input));
+        } catch (IOException e) {
+            logger.warn("Could not read bundled grammar {}!", name, e);
+            return Optional.empty();
+        }
+    }
+
+    private static String resource(String stylesheet) {
+        var url = Grammars.class.getResource("/css/" + stylesheet);
+        return url == null ? null : url.toExternalForm();
+    }
+}
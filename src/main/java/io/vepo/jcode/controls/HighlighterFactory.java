@@ -1,13 +1,44 @@
 package io.vepo.jcode.controls;
 
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of the language highlighters. Highlighters are stateless, so a single instance of each one is shared by
+ * all the editors. Files are matched, case insensitively, by their name, then by their extension and, when the
+ * content is known, by the interpreter of their shebang line.
+ * <p>
+ * Besides the built-in languages, the languages described by a {@link Grammar} are registered, then any
+ * {@link LanguageHighlighter} declared as a {@link ServiceLoader} provider, each taking precedence over the ones
+ * registered before it for the files it declares.
+ */
 public class HighlighterFactory {
-    
-    private static final Map<String, LanguageHighlighter> HIGHLIGHTERS = new HashMap<>();
-    
+
+    private static final Logger logger = LoggerFactory.getLogger(HighlighterFactory.class);
+
+    private static final Map<String, LanguageHighlighter> BY_EXTENSION = new ConcurrentHashMap<>();
+    private static final Map<String, LanguageHighlighter> BY_FILE_NAME = new ConcurrentHashMap<>();
+    private static final Map<String, LanguageHighlighter> BY_INTERPRETER = new ConcurrentHashMap<>();
+
+    // Highlighters declaring no file are probed through supportsFileExtension, once per extension
+    private static final List<LanguageHighlighter> PROBED = new CopyOnWriteArrayList<>();
+    private static final Map<String, Optional<LanguageHighlighter>> PROBED_EXTENSIONS = new ConcurrentHashMap<>();
+
+    private static final int MAX_SHEBANG_LENGTH = 256;
+
+    private static volatile HighlightingMetrics metrics = HighlightingMetrics.NONE;
+
     static {
         // Register built-in highlighters
         registerHighlighter(new JavaHighlighter());
@@ -16,44 +47,63 @@ public class HighlighterFactory {
         registerHighlighter(new CssHighlighter());
         registerHighlighter(new HtmlHighlighter());
         registerHighlighter(new MarkdownHighlighter());
+
+        // Register the languages described by grammars, bundled or from ~/.jcode/grammars
+        Grammars.load().forEach(HighlighterFactory::registerHighlighter);
+
+        // Register highlighters provided by other modules
+        Iterator<LanguageHighlighter> providers = ServiceLoader.load(LanguageHighlighter.class).iterator();
+        while (true) {
+            try {
+                if (!providers.hasNext()) {
+                    break;
+                }
+                registerHighlighter(providers.next());
+            } catch (ServiceConfigurationError e) {
+                logger.warn("Could not load language highlighter!", e);
+            }
+        }
     }
-    
+
     /**
      * Register a new language highlighter
      */
     public static void registerHighlighter(LanguageHighlighter highlighter) {
-        // Register for common extensions
-        if (highlighter.supportsFileExtension("java")) {
-            HIGHLIGHTERS.put("java", highlighter);
-        }
-        if (highlighter.supportsFileExtension("xml")) {
-            HIGHLIGHTERS.put("xml", highlighter);
-        }
-        if (highlighter.supportsFileExtension("json")) {
-            HIGHLIGHTERS.put("json", highlighter);
-        }
-        if (highlighter.supportsFileExtension("css")) {
-            HIGHLIGHTERS.put("css", highlighter);
-        }
-        if (highlighter.supportsFileExtension("html")) {
-            HIGHLIGHTERS.put("html", highlighter);
-            HIGHLIGHTERS.put("htm", highlighter);
-        }
-        if (highlighter.supportsFileExtension("md")) {
-            HIGHLIGHTERS.put("md", highlighter);
-        }
-        if (highlighter.supportsFileExtension("markdown")) {
-            HIGHLIGHTERS.put("markdown", highlighter);
+        highlighter.getFileExtensions().forEach(extension -> BY_EXTENSION.put(normalize(extension), highlighter));
+        highlighter.getFileNames().forEach(fileName -> BY_FILE_NAME.put(normalize(fileName), highlighter));
+        highlighter.getInterpreters().forEach(interpreter -> BY_INTERPRETER.put(interpreter, highlighter));
+        if (highlighter.getFileExtensions().isEmpty() && highlighter.getFileNames().isEmpty()) {
+            PROBED.add(0, highlighter);
         }
+        PROBED_EXTENSIONS.clear();
+    }
+
+    /**
+     * Set the metrics receiving the cost of highlighting the documents opened from now on
+     */
+    public static void setMetrics(HighlightingMetrics metrics) {
+        HighlighterFactory.metrics = Objects.requireNonNull(metrics, "metrics");
+    }
+
+    static HighlightingMetrics getMetrics() {
+        return metrics;
     }
-    
+
     /**
      * Get the appropriate highlighter for the given file extension
      */
     public static Optional<LanguageHighlighter> getHighlighter(String fileExtension) {
-        return Optional.ofNullable(HIGHLIGHTERS.get(fileExtension.toLowerCase()));
+        String extension = normalize(fileExtension);
+        LanguageHighlighter highlighter = BY_EXTENSION.get(extension);
+        if (highlighter != null) {
+            return Optional.of(highlighter);
+        }
+        return PROBED_EXTENSIONS.computeIfAbsent(extension,
+                                                 key -> PROBED.stream()
+                                                              .filter(probed -> probed.supportsFileExtension(key))
+                                                              .findFirst());
     }
-    
+
     /**
      * Get the appropriate highlighter for the given file name
      */
@@ -61,29 +111,76 @@ public class HighlighterFactory {
         if (fileName == null || fileName.isEmpty()) {
             return Optional.empty();
         }
-        
+
+        LanguageHighlighter highlighter = BY_FILE_NAME.get(normalize(fileName));
+        if (highlighter != null) {
+            return Optional.of(highlighter);
+        }
+
         int lastDotIndex = fileName.lastIndexOf('.');
         if (lastDotIndex == -1 || lastDotIndex == fileName.length() - 1) {
             return Optional.empty();
         }
-        
-        String extension = fileName.substring(lastDotIndex + 1);
-        switch (extension) {
-            case "java":
-                return Optional.of(new JavaHighlighter());
-            case "xml":
-                return Optional.of(new XmlHighlighter());
-            case "json":
-                return Optional.of(new JsonHighlighter());
-            case "css":
-                return Optional.of(new CssHighlighter());
-            case "html":
-                return Optional.of(new HtmlHighlighter());
-            case "md":
-            case "markdown":
-                return Optional.of(new MarkdownHighlighter());
-            default:
-                return Optional.empty();
+        return getHighlighter(fileName.substring(lastDotIndex + 1));
+    }
+
+    /**
+     * Get the appropriate highlighter for the given file, looking at the shebang line of its content when the name
+     * is not enough
+     */
+    public static Optional<LanguageHighlighter> getHighlighterForFile(String fileName, CharSequence content) {
+        return getHighlighterForFile(fileName).or(() -> interpreter(content).flatMap(
+                HighlighterFactory::getHighlighterForInterpreter));
+    }
+
+    /**
+     * Get the appropriate highlighter for the given shebang interpreter, like <code>python3</code>
+     */
+    public static Optional<LanguageHighlighter> getHighlighterForInterpreter(String interpreter) {
+        LanguageHighlighter highlighter = BY_INTERPRETER.get(interpreter);
+        if (highlighter == null) {
+            // python3.12 is still python
+            int versionIndex = interpreter.length();
+            while (versionIndex > 0 && (Character.isDigit(interpreter.charAt(versionIndex - 1))
+                    || interpreter.charAt(versionIndex - 1) == '.')) {
+                --versionIndex;
+            }
+            highlighter = BY_INTERPRETER.get(interpreter.substring(0, versionIndex));
         }
+        return Optional.ofNullable(highlighter);
+    }
+
+    /**
+     * Interpreter named by the shebang line of a content, like <code>bash</code> for
+     * <code>#!/usr/bin/env bash</code>.
+     */
+    static Optional<String> interpreter(CharSequence content) {
+        if (content == null || content.length() < 2 || content.charAt(0) != '#' || content.charAt(1) != '!') {
+            return Optional.empty();
+        }
+        int end = 2;
+        while (end < content.length() && end < MAX_SHEBANG_LENGTH && content.charAt(end) != '\n') {
+            ++end;
+        }
+        String[] words = content.subSequence(2, end).toString().trim().split("\\s+");
+        String command = baseName(words[0]);
+        if (command.equals("env")) {
+            // Skip the options of env, like -S
+            for (int i = 1; i < words.length; ++i) {
+                if (!words[i].startsWith("-")) {
+                    return Optional.of(baseName(words[i]));
+                }
+            }
+            return Optional.empty();
+        }
+        return command.isEmpty() ? Optional.empty() : Optional.of(command);
+    }
+
+    private static String baseName(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static String normalize(String name) {
+        return name.toLowerCase(Locale.ROOT);
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,27 @@
+package io.vepo.jcode.controls;
+
+import java.time.Duration;
+
+/**
+ * Receives the cost of highlighting the edits of every document, registered with
+ * {@link HighlighterFactory#setMetrics(HighlightingMetrics)}. Called on the UI thread.
+ */
+@FunctionalInterface
+public interface HighlightingMetrics {
+
+    /**
+     * Metrics that ignore everything.
+     */
+    HighlightingMetrics NONE = (cost, averageCost, quietPeriod, restyledParagraphs) -> {
+    };
+
+    /**
+     * An edit was highlighted and its styles applied.
+     *
+     * @param cost               time spent highlighting the edit, on the background thread
+     * @param averageCost        moving average of the cost of the last edits of the document
+     * @param quietPeriod        time without edits the document now waits for before highlighting
+     * @param restyledParagraphs number of paragraphs whose styles changed
+     */
+    void highlighted(Duration cost, Duration averageCost, Duration quietPeriod, int restyledParagraphs);
+}
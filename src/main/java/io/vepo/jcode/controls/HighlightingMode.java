@@ -0,0 +1,75 @@
+package io.vepo.jcode.controls;
+
+import org.fxmisc.richtext.CodeArea;
+
+/**
+ * How the editor of a file is highlighted, chosen from the file before its code area is built, so a large file
+ * never pays for a highlighting it can not afford.
+ */
+public enum HighlightingMode {
+
+    /**
+     * Every paragraph is highlighted, the visible ones first and the others in background.
+     */
+    FULL,
+
+    /**
+     * Only the paragraphs scrolled to are highlighted, and paragraphs longer than the line threshold are left
+     * unstyled.
+     */
+    DEGRADED,
+
+    /**
+     * Nothing is lexed, the file has no known language.
+     */
+    PLAIN;
+
+    private static final String PROPERTY = HighlightingMode.class.getName();
+
+    /**
+     * Choose the mode of a file.
+     *
+     * @param knownLanguage whether a highlighter handles the file
+     * @param maxSize       size, in characters, above which a file is degraded
+     * @param maxLineLength length, in characters, of the longest line a file can have without being degraded
+     */
+    public static HighlightingMode choose(boolean knownLanguage, CharSequence content, int maxSize,
+                                          int maxLineLength) {
+        if (!knownLanguage) {
+            return PLAIN;
+        }
+        if (content.length() > maxSize || hasLongLines(content, maxLineLength)) {
+            return DEGRADED;
+        }
+        return FULL;
+    }
+
+    /**
+     * Check if any line of the content is longer than <code>maxLineLength</code> characters.
+     */
+    static boolean hasLongLines(CharSequence content, int maxLineLength) {
+        int lineStart = 0;
+        for (int i = 0; i < content.length(); ++i) {
+            if (content.charAt(i) == '\n') {
+                lineStart = i + 1;
+            } else if (i - lineStart >= maxLineLength) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Set the mode of a code area, before it is configured by its highlighter.
+     */
+    public void applyTo(CodeArea codeArea) {
+        codeArea.getProperties().put(PROPERTY, this);
+    }
+
+    /**
+     * Mode of a code area, {@link #FULL} unless another one was applied.
+     */
+    static HighlightingMode of(CodeArea codeArea) {
+        return codeArea.getProperties().get(PROPERTY) instanceof HighlightingMode mode ? mode : FULL;
+    }
+}
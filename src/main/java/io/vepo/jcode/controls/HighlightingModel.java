@@ -0,0 +1,546 @@
+package io.vepo.jcode.controls;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+
+import org.fxmisc.richtext.model.StyleSpans;
+import org.fxmisc.richtext.model.StyleSpansBuilder;
+
+/**
+ * Highlighting of a whole document, kept paragraph by paragraph together with the lexer state each paragraph
+ * starts in, see {@link LexerCheckpoints}. After an edit lexing resumes at the first damaged paragraph and goes on
+ * until the lexer state matches the previous run, so an edit deep inside a large document never rescans the text
+ * before it.
+ * <p>
+ * Tokens are kept as one packed int array per paragraph, see {@link TokenBuffer}, and only turned into spans for
+ * the paragraphs that are restyled, with the style collections shared by {@link TokenTypes}. The paragraphs lexed
+ * again after an edit are compared with their previous tokens, so only the edited paragraphs and the ones whose
+ * tokens changed are restyled.
+ * <p>
+ * A model may also cover only the first paragraphs of a document and be {@link #extend(CharSequence, int,
+ * BooleanSupplier) extended} later, so a large document can be highlighted a piece at a time. Edits to the
+ * paragraphs not highlighted yet are ignored, they are lexed once the model reaches them.
+ * <p>
+ * Large ranges are split in chunks at paragraph boundaries and lexed in parallel on the common
+ * {@link ForkJoinPool}, each chunk assuming it starts in the initial state. Chunks are then stitched in order: when
+ * the state a chunk really starts in is not the initial one, its paragraphs are lexed again from the right state
+ * until the state matches the one found in parallel, usually after the multi-paragraph construct crossing the
+ * boundary is closed.
+ * <p>
+ * A model is not thread safe, but it can be handed from one thread to another between updates. An update that is
+ * cancelled leaves the model as it was.
+ */
+final class HighlightingModel {
+
+    private static final BooleanSupplier NEVER_CANCELLED = () -> false;
+
+    /**
+     * Number of chunks lexed at once, when a range is large enough to be split.
+     */
+    static final int PARALLELISM = ForkJoinPool.getCommonPoolParallelism();
+
+    // Ranges shorter than this are lexed on the calling thread, splitting them costs more than it saves
+    static final int PARALLEL_THRESHOLD = 1 << 19;
+    private static final int MIN_CHUNK = 1 << 17;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * Paragraphs lexed from a range of text, and the lexer state after them.
+     */
+    private record Lexed(LexerCheckpoints checkpoints, List<int[]> tokens, int state) {
+    }
+
+    /**
+     * Spans that replace the styles of the document starting at <code>from</code>, covering
+     * <code>paragraphs</code> whole paragraphs from the paragraph <code>paragraph</code>.
+     */
+    record Restyle(int from, StyleSpans<Collection<String>> spans, int paragraph, int paragraphs) {
+
+        int to() {
+            return from + spans.length();
+        }
+    }
+
+    private final ParagraphLexer lexer;
+    private final int parallelism;
+    private final TokenBuffer buffer;
+    private LexerCheckpoints checkpoints;
+    private List<int[]> tokens;
+    // Lexer state of the first paragraph not highlighted yet
+    private int frontierState;
+    private BracketIndex brackets;
+    private boolean complete;
+
+    HighlightingModel(ParagraphLexer lexer) {
+        this(lexer, PARALLELISM);
+    }
+
+    /**
+     * @param parallelism number of chunks lexed at once, large ranges are split in up to four times as many
+     */
+    HighlightingModel(ParagraphLexer lexer, int parallelism) {
+        this.lexer = lexer;
+        this.parallelism = parallelism;
+        this.checkpoints = new LexerCheckpoints();
+        this.tokens = new ArrayList<>();
+        this.brackets = BracketIndex.empty();
+        this.buffer = new TokenBuffer();
+    }
+
+    /**
+     * Compute the highlighting of a whole text with a paragraph lexer.
+     */
+    static StyleSpans<Collection<String>> computeHighlighting(ParagraphLexer lexer, CharSequence text) {
+        return new HighlightingModel(lexer).highlight(text);
+    }
+
+    /**
+     * Highlight the whole text, discarding any previous result.
+     */
+    StyleSpans<Collection<String>> highlight(CharSequence text) {
+        return highlight(text, NEVER_CANCELLED).spans();
+    }
+
+    /**
+     * Highlight the whole text, discarding any previous result.
+     *
+     * @return the spans of the whole text, or <code>null</code> if cancelled
+     */
+    Restyle highlight(CharSequence text, BooleanSupplier cancelled) {
+        Lexed lexed = lex(text, 0, text.length(), ParagraphLexer.INITIAL_STATE, cancelled);
+        if (lexed == null) {
+            return null;
+        }
+        checkpoints = lexed.checkpoints();
+        tokens = lexed.tokens();
+        brackets = BracketIndex.empty().replace(0, 0, text, 0, checkpoints, tokens);
+        complete = true;
+        return restyleParagraphs(0, checkpoints.size());
+    }
+
+    /**
+     * Take the tokens of the whole text from the cache, if it has them, instead of lexing it.
+     *
+     * @return the spans of the whole text, or <code>null</code> if the text is not cached
+     */
+    Restyle restore(CharSequence text, TokenCache cache) {
+        var cached = cache.get(lexer, text);
+        if (cached == null) {
+            return null;
+        }
+        checkpoints = new LexerCheckpoints(cached.checkpoints().size());
+        checkpoints.replace(0, 0, cached.checkpoints());
+        tokens = new ArrayList<>(cached.tokens());
+        brackets = cached.brackets();
+        complete = true;
+        return restyleParagraphs(0, checkpoints.size());
+    }
+
+    /**
+     * Cache the tokens of the whole text, once it is completely highlighted.
+     */
+    void store(CharSequence text, TokenCache cache) {
+        if (complete) {
+            cache.put(lexer, text, checkpoints, tokens, brackets);
+        }
+    }
+
+    /**
+     * Highlight the paragraphs after the ones already highlighted, until <code>paragraphs</code> paragraphs are
+     * highlighted or the end of the text is reached.
+     *
+     * @return the spans of the paragraphs lexed, or <code>null</code> if cancelled
+     */
+    Restyle extend(CharSequence text, int paragraphs, BooleanSupplier cancelled) {
+        if (complete) {
+            return new Restyle(text.length(), spans(0, 0), checkpoints.size(), 0);
+        }
+
+        int first = checkpoints.size();
+        int from = highlightedEnd();
+        if (first >= paragraphs) {
+            return new Restyle(from, spans(first, first), first, 0);
+        }
+        // End of the last paragraph to highlight
+        int to = from;
+        for (int count = first + 1; count < paragraphs; ++count) {
+            int end = lineEnd(text, to, text.length());
+            if (end == text.length()) {
+                break;
+            }
+            to = end + 1;
+        }
+        to = lineEnd(text, to, text.length());
+
+        Lexed lexed = lex(text, from, to, frontierState, cancelled);
+        if (lexed == null) {
+            return null;
+        }
+        checkpoints.replace(first, first, lexed.checkpoints());
+        tokens.addAll(lexed.tokens());
+        brackets = brackets.replace(first, first, text, from, lexed.checkpoints(), lexed.tokens());
+        frontierState = lexed.state();
+        complete = to == text.length();
+        return new Restyle(from, spans(first, checkpoints.size()), first, checkpoints.size() - first);
+    }
+
+    /**
+     * Update the highlighting after the old text <code>[start, oldEnd)</code> was replaced by
+     * <code>text[start, newEnd)</code>.
+     */
+    List<Restyle> update(CharSequence text, int start, int oldEnd, int newEnd) {
+        return update(text, start, oldEnd, newEnd, NEVER_CANCELLED);
+    }
+
+    /**
+     * Update the highlighting after the old text <code>[start, oldEnd)</code> was replaced by
+     * <code>text[start, newEnd)</code>.
+     *
+     * @return the spans of the paragraphs to restyle, in document order, or <code>null</code> if cancelled
+     */
+    List<Restyle> update(CharSequence text, int start, int oldEnd, int newEnd, BooleanSupplier cancelled) {
+        if (!complete && (checkpoints.size() == 0 || start >= highlightedEnd())) {
+            return List.of();
+        }
+
+        int first = checkpoints.paragraphAt(start);
+        int firstOffset = checkpoints.start(first);
+        if (!complete && oldEnd >= highlightedEnd()) {
+            // The damage reaches the paragraphs not highlighted yet, they are lexed again when the model is extended
+            truncate(first);
+            return List.of();
+        }
+
+        int last = checkpoints.paragraphAt(oldEnd);
+        int regionEnd = checkpoints.start(last) + checkpoints.length(last) + newEnd - oldEnd;
+        boolean lastParagraph = complete && last == checkpoints.size() - 1;
+        if (lastParagraph ? regionEnd != text.length() : regionEnd >= text.length()) {
+            // The damage does not describe this text, start over
+            if (complete) {
+                Restyle restyle = highlight(text, cancelled);
+                return restyle == null ? null : List.of(restyle);
+            }
+            truncate(0);
+            return List.of();
+        }
+
+        LexerCheckpoints relexedCheckpoints = new LexerCheckpoints(last - first + 1);
+        List<int[]> relexedTokens = new ArrayList<>(last - first + 1);
+        int state = checkpoints.state(first);
+        int pos = firstOffset;
+        while (true) {
+            if (cancelled.getAsBoolean()) {
+                return null;
+            }
+            int end = lineEnd(text, pos, regionEnd);
+            state = lex(text, pos, end, state, relexedCheckpoints, relexedTokens);
+            if (end == regionEnd) {
+                break;
+            }
+            pos = end + 1;
+        }
+        int damaged = relexedCheckpoints.size();
+
+        // Paragraphs after the damage are only lexed again while their state differs from the previous run
+        int next = last + 1;
+        pos = regionEnd + 1;
+        while (next < checkpoints.size() && checkpoints.state(next) != state) {
+            if (cancelled.getAsBoolean()) {
+                return null;
+            }
+            int length = checkpoints.length(next++);
+            state = lex(text, pos, pos + length, state, relexedCheckpoints, relexedTokens);
+            pos += length + 1;
+        }
+        if (next == checkpoints.size()) {
+            frontierState = state;
+        }
+
+        // The text of the paragraphs after the damage did not change, they are only restyled if their tokens did
+        boolean[] changed = new boolean[relexedCheckpoints.size()];
+        for (int i = 0; i < changed.length; ++i) {
+            changed[i] = i < damaged || !Arrays.equals(tokens.get(last + 1 + i - damaged), relexedTokens.get(i));
+        }
+
+        checkpoints.replace(first, next, relexedCheckpoints);
+        tokens.subList(first, next).clear();
+        tokens.addAll(first, relexedTokens);
+        brackets = brackets.replace(first, next, text, firstOffset, relexedCheckpoints, relexedTokens);
+
+        List<Restyle> restyles = new ArrayList<>();
+        int i = 0;
+        while (i < changed.length) {
+            int runStart = i;
+            while (i < changed.length && changed[i]) {
+                ++i;
+            }
+            if (i > runStart) {
+                restyles.add(restyleParagraphs(first + runStart, first + i));
+            }
+            while (i < changed.length && !changed[i]) {
+                ++i;
+            }
+        }
+        return restyles;
+    }
+
+    /**
+     * Index of the brackets of the highlighted paragraphs, it never changes once returned.
+     */
+    BracketIndex brackets() {
+        return brackets;
+    }
+
+    /**
+     * Split a restyle of the current paragraphs in consecutive restyles of at most <code>maxParagraphs</code>
+     * paragraphs each, sharing its spans.
+     */
+    List<Restyle> slice(Restyle restyle, int maxParagraphs) {
+        if (restyle.paragraphs() <= maxParagraphs) {
+            return List.of(restyle);
+        }
+        int end = restyle.paragraph() + restyle.paragraphs();
+        List<Restyle> slices = new ArrayList<>((restyle.paragraphs() + maxParagraphs - 1) / maxParagraphs);
+        for (int first = restyle.paragraph(); first < end; first += maxParagraphs) {
+            int last = Math.min(end, first + maxParagraphs);
+            int from = checkpoints.start(first) - restyle.from();
+            int to = last < end ? checkpoints.start(last) - restyle.from() : restyle.spans().length();
+            slices.add(new Restyle(restyle.from() + from, restyle.spans().subView(from, to), first, last - first));
+        }
+        return slices;
+    }
+
+    /**
+     * Spans of the whole paragraphs covering the text <code>[from, to)</code>, as currently highlighted.
+     */
+    Restyle restyle(int from, int to) {
+        if (checkpoints.size() == 0) {
+            return new Restyle(from, spans(0, 0), 0, 0);
+        }
+        int first = checkpoints.paragraphAt(from);
+        int last = checkpoints.paragraphAt(Math.max(from, to - 1));
+        return restyleParagraphs(first, last + 1);
+    }
+
+    /**
+     * Spans of the whole document as currently highlighted.
+     */
+    StyleSpans<Collection<String>> spans() {
+        return spans(0, checkpoints.size());
+    }
+
+    /**
+     * Number of paragraphs currently highlighted.
+     */
+    int paragraphCount() {
+        return checkpoints.size();
+    }
+
+    /**
+     * Check if every paragraph of the document is highlighted.
+     */
+    boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Lexer state the paragraph started in when it was last lexed.
+     */
+    int state(int paragraph) {
+        return checkpoints.state(paragraph);
+    }
+
+    /**
+     * Offset of the first paragraph not highlighted yet.
+     */
+    private int highlightedEnd() {
+        int last = checkpoints.size() - 1;
+        return last < 0 ? 0 : checkpoints.start(last) + checkpoints.length(last) + 1;
+    }
+
+    private void truncate(int paragraph) {
+        if (paragraph < checkpoints.size()) {
+            frontierState = checkpoints.state(paragraph);
+            checkpoints.replace(paragraph, checkpoints.size(), new LexerCheckpoints());
+            tokens.subList(paragraph, tokens.size()).clear();
+            brackets = brackets.head(paragraph);
+        }
+        complete = false;
+    }
+
+    private Restyle restyleParagraphs(int first, int end) {
+        return new Restyle(checkpoints.start(first), spans(first, end), first, end - first);
+    }
+
+    /**
+     * Lex the paragraphs of <code>text[from, to)</code>, <code>to</code> being the end of a paragraph.
+     *
+     * @return the paragraphs lexed, or <code>null</code> if cancelled
+     */
+    private Lexed lex(CharSequence text, int from, int to, int state, BooleanSupplier cancelled) {
+        int chunks = Math.min(parallelism * CHUNKS_PER_THREAD, (to - from) / MIN_CHUNK);
+        if (parallelism < 2 || to - from < PARALLEL_THRESHOLD || chunks < 2) {
+            return lex(text, from, to, state, cancelled, buffer);
+        }
+
+        List<Integer> starts = new ArrayList<>(chunks);
+        starts.add(from);
+        for (int chunk = 1; chunk < chunks; ++chunk) {
+            int end = lineEnd(text, Math.max(from + (int) ((long) (to - from) * chunk / chunks),
+                                             starts.get(starts.size() - 1)), to);
+            if (end < to) {
+                starts.add(end + 1);
+            }
+        }
+        List<Callable<Lexed>> tasks = new ArrayList<>(starts.size());
+        for (int chunk = 0; chunk < starts.size(); ++chunk) {
+            int chunkStart = starts.get(chunk);
+            int chunkEnd = chunk + 1 < starts.size() ? starts.get(chunk + 1) - 1 : to;
+            int chunkState = chunk == 0 ? state : ParagraphLexer.INITIAL_STATE;
+            tasks.add(() -> lex(text, chunkStart, chunkEnd, chunkState, cancelled, new TokenBuffer()));
+        }
+
+        List<Lexed> lexedChunks = new ArrayList<>(tasks.size());
+        try {
+            for (Future<Lexed> future : ForkJoinPool.commonPool().invokeAll(tasks)) {
+                lexedChunks.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        if (lexedChunks.contains(null)) {
+            return null;
+        }
+        return stitch(text, starts, lexedChunks, cancelled);
+    }
+
+    /**
+     * Join chunks lexed in parallel, lexing again the paragraphs of a chunk that did not start in the initial
+     * state, until the state matches.
+     */
+    private Lexed stitch(CharSequence text, List<Integer> starts, List<Lexed> chunks, BooleanSupplier cancelled) {
+        int paragraphs = 0;
+        for (Lexed chunk : chunks) {
+            paragraphs += chunk.checkpoints().size();
+        }
+        LexerCheckpoints stitchedCheckpoints = new LexerCheckpoints(paragraphs);
+        List<int[]> stitchedTokens = new ArrayList<>(paragraphs);
+        int state = ParagraphLexer.INITIAL_STATE;
+        for (int chunk = 0; chunk < chunks.size(); ++chunk) {
+            Lexed lexed = chunks.get(chunk);
+            LexerCheckpoints chunkCheckpoints = lexed.checkpoints();
+            int paragraph = 0;
+            int start = starts.get(chunk);
+            if (chunk > 0) {
+                // The state only differs when a multi-paragraph construct crosses the boundary
+                while (paragraph < chunkCheckpoints.size() && chunkCheckpoints.state(paragraph) != state) {
+                    if (cancelled.getAsBoolean()) {
+                        return null;
+                    }
+                    int length = chunkCheckpoints.length(paragraph++);
+                    state = lex(text, start, start + length, state, stitchedCheckpoints, stitchedTokens, buffer);
+                    start += length + 1;
+                }
+            }
+            if (paragraph < chunkCheckpoints.size()) {
+                for (int i = paragraph; i < chunkCheckpoints.size(); ++i) {
+                    stitchedCheckpoints.add(chunkCheckpoints.state(i), chunkCheckpoints.length(i));
+                }
+                stitchedTokens.addAll(lexed.tokens().subList(paragraph, lexed.tokens().size()));
+                state = lexed.state();
+            }
+        }
+        return new Lexed(stitchedCheckpoints, stitchedTokens, state);
+    }
+
+    private Lexed lex(CharSequence text, int from, int to, int state, BooleanSupplier cancelled,
+                      TokenBuffer tokenBuffer) {
+        LexerCheckpoints lexedCheckpoints = new LexerCheckpoints();
+        List<int[]> lexedTokens = new ArrayList<>();
+        int start = from;
+        while (true) {
+            if (cancelled.getAsBoolean()) {
+                return null;
+            }
+            int end = lineEnd(text, start, to);
+            state = lex(text, start, end, state, lexedCheckpoints, lexedTokens, tokenBuffer);
+            if (end == to) {
+                return new Lexed(lexedCheckpoints, lexedTokens, state);
+            }
+            start = end + 1;
+        }
+    }
+
+    private int lex(CharSequence text, int start, int end, int state, LexerCheckpoints targetCheckpoints,
+                    List<int[]> targetTokens) {
+        return lex(text, start, end, state, targetCheckpoints, targetTokens, buffer);
+    }
+
+    private int lex(CharSequence text, int start, int end, int state, LexerCheckpoints targetCheckpoints,
+                    List<int[]> targetTokens, TokenBuffer tokenBuffer) {
+        tokenBuffer.clear();
+        int nextState = lexer.lexParagraph(text, start, end, state, tokenBuffer);
+        targetCheckpoints.add(state, end - start);
+        targetTokens.add(tokenBuffer.toArray(start));
+        return nextState;
+    }
+
+    private StyleSpans<Collection<String>> spans(int from, int to) {
+        int capacity = 1;
+        for (int i = from; i < to; ++i) {
+            capacity += 2 * tokens.get(i).length / TokenBuffer.TOKEN_SIZE + 1;
+        }
+        StyleSpansBuilder<Collection<String>> spansBuilder = new StyleSpansBuilder<>(capacity);
+        spansBuilder.add(Collections.emptyList(), 0);
+
+        // Every add creates a span, so gaps between tokens and line terminators are added together
+        int unstyled = 0;
+        for (int i = from; i < to; ++i) {
+            int[] paragraphTokens = tokens.get(i);
+            int last = 0;
+            for (int token = 0; token < paragraphTokens.length; token += TokenBuffer.TOKEN_SIZE) {
+                int tokenStart = paragraphTokens[token];
+                int tokenLength = paragraphTokens[token + 1];
+                unstyled += tokenStart - last;
+                if (unstyled > 0) {
+                    spansBuilder.add(Collections.emptyList(), unstyled);
+                    unstyled = 0;
+                }
+                spansBuilder.add(TokenTypes.styles(paragraphTokens[token + 2]), tokenLength);
+                last = tokenStart + tokenLength;
+            }
+            unstyled += checkpoints.length(i) - last;
+            if (i < checkpoints.size() - 1 || !complete) {
+                // Line terminator
+                ++unstyled;
+            }
+        }
+        if (unstyled > 0) {
+            spansBuilder.add(Collections.emptyList(), unstyled);
+        }
+        return spansBuilder.create();
+    }
+
+    private static int lineEnd(CharSequence text, int from, int limit) {
+        for (int i = from; i < limit; ++i) {
+            if (text.charAt(i) == '\n') {
+                return i;
+            }
+        }
+        return limit;
+    }
+}
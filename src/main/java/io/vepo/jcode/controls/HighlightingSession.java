@@ -0,0 +1,536 @@
+package io.vepo.jcode.controls;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.fxmisc.richtext.CodeArea;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.vepo.jcode.config.ConfigurationManager;
+import io.vepo.jcode.controls.HighlightingModel.Restyle;
+import javafx.animation.AnimationTimer;
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+
+/**
+ * Keeps the highlighting of a document up to date. Edits are accumulated as they happen and, once typing pauses for
+ * a {@link AdaptiveDebounce quiet period} adapted to the cost of the last edits, a snapshot of the text is
+ * highlighted on a background thread. Every edit bumps the document version: a job still
+ * running when the text changes is cancelled, and spans computed for an old version are never applied.
+ * <p>
+ * A document is highlighted from the top, the visible paragraphs first: the first job stops right after the
+ * viewport, and the rest of the document is filled in a chunk at a time while no edit is pending. Scrolling past the
+ * highlighted paragraphs makes the next job go straight to the new viewport. In {@link HighlightingMode#DEGRADED}
+ * mode the rest of the document is not filled in, only the paragraphs scrolled to are highlighted.
+ * <p>
+ * The {@link BracketIndex} of the last job is kept to match brackets and fold regions, until the next edit makes it
+ * stale.
+ * <p>
+ * With a {@link TokenCache}, a document whose content was completely highlighted before is taken from the cache by
+ * the first job, and a document is cached as soon as it is completely highlighted.
+ * <p>
+ * Only the paragraphs whose styles changed are pushed to the code area, each contiguous run of them with its own
+ * spans, and the number of paragraphs restyled by the last edit is kept for diagnostics.
+ * <p>
+ * Restyling a large range at once would block the UI thread for a long time, so spans are cut in slices of a few
+ * paragraphs and applied over successive frames, as many as fit in a time budget per frame and those closest to the
+ * viewport first. Slices still waiting when the text changes are dropped and highlighted again with the next edit.
+ * <p>
+ * All methods must be called on the UI thread. At most one job per document is running at any time, so the
+ * {@link HighlightingModel} is only touched by one thread at once.
+ */
+final class HighlightingSession {
+
+    private static final Logger logger = LoggerFactory.getLogger(HighlightingSession.class);
+
+    private static final int VIEWPORT_MARGIN = 100;
+    // Paragraphs highlighted by each background job, enough for the model to lex them in parallel
+    private static final int FILL_IN_CHUNK = 2_000 * Math.max(1, HighlightingModel.PARALLELISM);
+    private static final int SLICE_PARAGRAPHS = 200;
+    private static final long FRAME_BUDGET_NANOS = Duration.ofMillis(4).toNanos();
+
+    private static final ExecutorService HIGHLIGHTER =
+            Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+                                         Thread.ofPlatform().daemon().name("highlighter-", 0).factory());
+
+    /**
+     * Highlighting of one version of the document.
+     */
+    private static final class Job {
+        private final int version;
+        private final String text;
+        private final int paragraphs;
+        private final TextDamage damage;
+        private final int staleFrom;
+        private final int staleTo;
+        private volatile boolean cancelled;
+        private long cost;
+        private BracketIndex brackets;
+
+        /**
+         * @param paragraphs number of paragraphs to extend the highlighting to, or 0 to only apply the damage
+         */
+        private Job(int version, String text, int paragraphs, TextDamage damage, int staleFrom, int staleTo) {
+            this.version = version;
+            this.text = text;
+            this.paragraphs = paragraphs;
+            this.damage = damage;
+            this.staleFrom = staleFrom;
+            this.staleTo = staleTo;
+        }
+
+        private boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private final HighlightingModel model;
+    private final Supplier<String> text;
+    private final Consumer<Restyle> styler;
+    private final Executor worker;
+    private final Executor uiThread;
+    private final Executor nextFrame;
+    private final HighlightingMetrics metrics;
+    private final AdaptiveDebounce debounce;
+
+    private TextDamage damage;
+    private int version;
+    // Whether edits wait for the running job, or only a viewport fill-in
+    private boolean scheduled;
+    private boolean viewportRequested;
+    private Job running;
+    private int viewportStart;
+    private int viewportEnd;
+    private boolean fillIn;
+    private TokenCache cache;
+    private BracketIndex brackets;
+    private final List<Runnable> bracketsChanged;
+    private int restyledParagraphs;
+
+    // Slices of the current version not applied yet, and whether a frame is requested to apply them
+    private final List<Restyle> slices;
+    private boolean frameRequested;
+
+    private String snapshot;
+    private int snapshotVersion;
+
+    // Range of the model text whose newest spans were computed but never applied
+    private int staleFrom;
+    private int staleTo;
+
+    /**
+     * @param worker    runs the highlighting jobs
+     * @param uiThread  runs a task on the UI thread
+     * @param nextFrame runs a task on the UI thread, at the next frame
+     * @param metrics   receives the cost of highlighting each edit
+     */
+    HighlightingSession(ParagraphLexer lexer, Supplier<String> text, Consumer<Restyle> styler, Executor worker,
+                        Executor uiThread, Executor nextFrame, HighlightingMetrics metrics) {
+        this.model = new HighlightingModel(lexer);
+        this.text = text;
+        this.styler = styler;
+        this.worker = worker;
+        this.uiThread = uiThread;
+        this.nextFrame = nextFrame;
+        this.metrics = metrics;
+        this.debounce = new AdaptiveDebounce();
+        this.damage = new TextDamage();
+        this.staleFrom = -1;
+        this.slices = new ArrayList<>();
+        this.fillIn = true;
+        this.bracketsChanged = new ArrayList<>();
+    }
+
+    /**
+     * Highlight the code area with the given lexer and keep it highlighted while it is edited, as cheaply as its
+     * {@link HighlightingMode} requires.
+     */
+    static void install(CodeArea codeArea, ParagraphLexer lexer) {
+        boolean degraded = HighlightingMode.of(codeArea) == HighlightingMode.DEGRADED;
+        if (degraded) {
+            lexer = new LongLineGuard(lexer, ConfigurationManager.getInstance().getLongLineThreshold());
+        }
+        var session = new HighlightingSession(lexer,
+                                              codeArea::getText,
+                                              restyle -> codeArea.setStyleSpans(restyle.from(), restyle.spans()),
+                                              HIGHLIGHTER,
+                                              Platform::runLater,
+                                              new Frames(),
+                                              HighlighterFactory.getMetrics());
+        codeArea.plainTextChanges()
+                .subscribe(change -> session.edited(change.getPosition(),
+                                                    change.getRemoved().length(),
+                                                    change.getInserted().length()));
+        var quietPeriod = new PauseTransition();
+        quietPeriod.setOnFinished(ignore -> session.schedule());
+        codeArea.multiPlainChanges()
+                .subscribe(ignore -> {
+                    quietPeriod.setDuration(javafx.util.Duration.millis(session.quietPeriod().toMillis()));
+                    quietPeriod.playFromStart();
+                });
+        codeArea.viewportDirtyEvents()
+                .subscribe(ignore -> {
+                    if (!codeArea.getVisibleParagraphs().isEmpty()) {
+                        session.viewportChanged(codeArea.firstVisibleParToAllParIndex(),
+                                                codeArea.lastVisibleParToAllParIndex());
+                    }
+                });
+
+        BracketMatcher.install(codeArea, session);
+        FoldingGutter.install(codeArea, session);
+
+        // Apply initial highlighting
+        if (degraded) {
+            session.highlightViewportOnly();
+        } else {
+            session.cacheTokensIn(TokenCache.shared());
+        }
+        session.start();
+    }
+
+    /**
+     * Only highlight the paragraphs up to the viewport, never filling in the rest of the document.
+     */
+    void highlightViewportOnly() {
+        fillIn = false;
+    }
+
+    /**
+     * Look for the tokens of the document in the cache before highlighting it, and cache them once highlighted.
+     */
+    void cacheTokensIn(TokenCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Highlight the document, starting with the viewport.
+     */
+    void start() {
+        schedule();
+    }
+
+    /**
+     * Record the paragraphs visible on the viewport, highlighting up to them next if they are not highlighted yet.
+     */
+    void viewportChanged(int firstVisibleParagraph, int lastVisibleParagraph) {
+        viewportStart = firstVisibleParagraph;
+        viewportEnd = lastVisibleParagraph + 1;
+        if (running != null || !damage.isEmpty()) {
+            // Filled in once the job running finishes and no edit is pending
+            viewportRequested = true;
+        } else {
+            schedule();
+        }
+    }
+
+    /**
+     * Record that the text <code>[position, position + removed)</code> was replaced by <code>inserted</code>
+     * characters.
+     */
+    void edited(int position, int removed, int inserted) {
+        ++version;
+        damage.add(position, removed, inserted);
+        brackets = null;
+        if (running != null) {
+            running.cancelled = true;
+        }
+        if (!slices.isEmpty()) {
+            // Slices are in the coordinates of the model text, like the stale range
+            for (Restyle slice : slices) {
+                stale(slice.from(), slice.to());
+            }
+            slices.clear();
+        }
+    }
+
+    /**
+     * Highlight the current version of the document, as soon as the job running finishes.
+     */
+    void schedule() {
+        if (running != null) {
+            scheduled = true;
+            return;
+        }
+
+        // Edits go first, the rest of the document is only highlighted while no edit is pending
+        int paragraphs = 0;
+        if (damage.isEmpty()) {
+            if (model.isComplete()) {
+                return;
+            }
+            int highlighted = model.paragraphCount();
+            if (highlighted < viewportEnd + VIEWPORT_MARGIN) {
+                paragraphs = viewportEnd + VIEWPORT_MARGIN;
+            } else if (fillIn) {
+                paragraphs = highlighted + FILL_IN_CHUNK;
+            } else {
+                return;
+            }
+        }
+
+        var job = new Job(version, snapshot(), paragraphs, damage, staleFrom, staleTo);
+        damage = new TextDamage();
+        running = job;
+        worker.execute(() -> {
+            long started = System.nanoTime();
+            var restyles = highlight(job);
+            var sliced = restyles == null ? null : slice(restyles);
+            job.cost = System.nanoTime() - started;
+            job.brackets = model.brackets();
+            uiThread.execute(() -> completed(job, sliced));
+        });
+    }
+
+    /**
+     * Version of the document, incremented on every edit.
+     */
+    int version() {
+        return version;
+    }
+
+    /**
+     * Offset of the bracket matching the one at <code>offset</code>, or <code>-1</code> if there is none or the
+     * brackets of the current version of the document are not indexed yet.
+     */
+    int matchingBracket(int offset) {
+        return brackets == null ? -1 : brackets.match(offset);
+    }
+
+    /**
+     * Last paragraph of the region that can be folded into <code>paragraph</code>, or <code>-1</code> if there is
+     * none or the current version of the document is not indexed yet, see {@link BracketIndex#foldEnd(int)}.
+     */
+    int foldEnd(int paragraph) {
+        return brackets == null ? -1 : brackets.foldEnd(paragraph);
+    }
+
+    /**
+     * Run the listener whenever the brackets of a new version of the document are indexed.
+     */
+    void onBracketsChanged(Runnable listener) {
+        bracketsChanged.add(listener);
+    }
+
+    /**
+     * Time without edits to wait for before highlighting them.
+     */
+    Duration quietPeriod() {
+        return debounce.quietPeriod();
+    }
+
+    /**
+     * Number of slices waiting for a frame to be applied.
+     */
+    int pendingSlices() {
+        return slices.size();
+    }
+
+    /**
+     * Number of paragraphs restyled after the last edit whose highlighting was applied.
+     */
+    int restyledParagraphs() {
+        return restyledParagraphs;
+    }
+
+    private String snapshot() {
+        // The text of a large document is copied once per version, not once per chunk
+        if (snapshot == null || snapshotVersion != version) {
+            snapshot = text.get();
+            snapshotVersion = version;
+        }
+        return snapshot;
+    }
+
+    private List<Restyle> highlight(Job job) {
+        if (job.paragraphs > 0) {
+            if (cache != null && model.paragraphCount() == 0) {
+                var restored = model.restore(job.text, cache);
+                if (restored != null) {
+                    return List.of(restored);
+                }
+            }
+            var restyle = model.extend(job.text, job.paragraphs, job::isCancelled);
+            if (restyle != null && cache != null && model.isComplete()) {
+                model.store(job.text, cache);
+            }
+            return restyle == null ? null : List.of(restyle);
+        }
+
+        var restyles = model.update(job.text,
+                                    job.damage.start(),
+                                    job.damage.oldEnd(),
+                                    job.damage.newEnd(),
+                                    job::isCancelled);
+        if (restyles == null || job.staleFrom < 0) {
+            return restyles;
+        }
+
+        // Spans computed but never applied go with this job, together with the restyles overlapping them
+        int from = job.damage.mapStart(job.staleFrom);
+        int to = job.damage.mapEnd(job.staleTo);
+        List<Restyle> merged = new ArrayList<>(restyles.size() + 1);
+        for (Restyle restyle : restyles) {
+            if (restyle.to() < from || restyle.from() > to) {
+                merged.add(restyle);
+            } else {
+                from = Math.min(from, restyle.from());
+                to = Math.max(to, restyle.to());
+            }
+        }
+        merged.add(model.restyle(from, to));
+        merged.sort(Comparator.comparingInt(Restyle::from));
+        return merged;
+    }
+
+    private List<Restyle> slice(List<Restyle> restyles) {
+        List<Restyle> sliced = new ArrayList<>(restyles.size());
+        for (Restyle restyle : restyles) {
+            if (restyle.spans().length() > 0) {
+                sliced.addAll(model.slice(restyle, SLICE_PARAGRAPHS));
+            }
+        }
+        return sliced;
+    }
+
+    private void completed(Job job, List<Restyle> restyles) {
+        running = null;
+        if (restyles == null) {
+            // Cancelled jobs leave the model untouched, their damage goes with the next job
+            job.damage.add(damage);
+            damage = job.damage;
+        } else if (job.version == version) {
+            int paragraphs = 0;
+            for (Restyle restyle : restyles) {
+                paragraphs += restyle.paragraphs();
+            }
+            if (job.paragraphs == 0) {
+                restyledParagraphs = paragraphs;
+                debounce.measured(job.cost);
+                logger.debug("Restyled {} paragraphs for version {} in {}, waiting {} for the next edits",
+                             paragraphs, job.version, debounce.lastCost(), debounce.quietPeriod());
+                metrics.highlighted(debounce.lastCost(), debounce.averageCost(), debounce.quietPeriod(), paragraphs);
+            }
+            slices.addAll(restyles);
+            staleFrom = -1;
+            brackets = job.brackets;
+            if (slices.isEmpty()) {
+                bracketsChanged.forEach(Runnable::run);
+            } else {
+                // Brackets are marked once restyled, or the slices would erase the marks
+                requestFrame();
+            }
+        } else {
+            // The model moved to the version of the job, and so did the slices dropped while it was running
+            if (staleFrom >= 0) {
+                int from = job.damage.mapStart(staleFrom);
+                int to = job.damage.mapEnd(staleTo);
+                staleFrom = -1;
+                stale(from, to);
+            }
+            for (Restyle restyle : restyles) {
+                stale(restyle.from(), restyle.to());
+            }
+        }
+
+        // Keep filling in the document unless edits are waiting for the typing to pause, even if the viewport moved
+        boolean edits = scheduled;
+        boolean viewport = viewportRequested;
+        scheduled = false;
+        viewportRequested = false;
+        if (edits || damage.isEmpty() && (viewport || fillIn)) {
+            schedule();
+        }
+    }
+
+    private void stale(int from, int to) {
+        if (staleFrom < 0) {
+            staleFrom = from;
+            staleTo = to;
+        } else {
+            staleFrom = Math.min(staleFrom, from);
+            staleTo = Math.max(staleTo, to);
+        }
+    }
+
+    private void requestFrame() {
+        if (!frameRequested && !slices.isEmpty()) {
+            frameRequested = true;
+            nextFrame.execute(this::applySlices);
+        }
+    }
+
+    /**
+     * Apply slices until the frame budget is spent, at least one so a slow frame still makes progress.
+     */
+    private void applySlices() {
+        frameRequested = false;
+        if (slices.isEmpty()) {
+            // Dropped by an edit
+            return;
+        }
+        long deadline = System.nanoTime() + FRAME_BUDGET_NANOS;
+        do {
+            styler.accept(slices.remove(closestToViewport()));
+        } while (!slices.isEmpty() && System.nanoTime() < deadline);
+        if (slices.isEmpty()) {
+            bracketsChanged.forEach(Runnable::run);
+        } else {
+            requestFrame();
+        }
+    }
+
+    private int closestToViewport() {
+        int closest = 0;
+        int closestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < slices.size(); ++i) {
+            Restyle slice = slices.get(i);
+            int distance = Math.max(0, Math.max(slice.paragraph() - viewportEnd,
+                                                viewportStart - (slice.paragraph() + slice.paragraphs())));
+            if (distance < closestDistance) {
+                closest = i;
+                closestDistance = distance;
+                if (distance == 0) {
+                    break;
+                }
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * Runs tasks at the next pulse of the JavaFX animation timer.
+     */
+    private static final class Frames extends AnimationTimer implements Executor {
+
+        private final Deque<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable task) {
+            if (tasks.isEmpty()) {
+                start();
+            }
+            tasks.add(task);
+        }
+
+        @Override
+        public void handle(long now) {
+            // Tasks submitted while running wait for the next pulse
+            for (int count = tasks.size(); count > 0; --count) {
+                tasks.poll().run();
+            }
+            if (tasks.isEmpty()) {
+                stop();
+            }
+        }
+    }
+}
@@ -1,18 +1,17 @@
 package io.vepo.jcode.controls;
 
-import java.time.Duration;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.regex.Matcher;
+import java.util.Optional;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import org.fxmisc.richtext.CodeArea;
 import org.fxmisc.richtext.LineNumberFactory;
 import org.fxmisc.richtext.model.StyleSpans;
-import org.fxmisc.richtext.model.StyleSpansBuilder;
 
 public class HtmlHighlighter implements LanguageHighlighter {
     
+    // The pattern is only kept for getPattern(), highlighting is done by the MarkupLexer
     private static final String[] TAGS = {
         "html", "head", "body", "title", "meta", "link", "script", "style",
         "div", "span", "p", "h1", "h2", "h3", "h4", "h5", "h6",
@@ -30,7 +29,7 @@ public class HtmlHighlighter implements LanguageHighlighter {
     private static final String TAG_PATTERN = "</?(" + String.join("|", TAGS) + ")\\b[^>]*>";
     private static final String ATTRIBUTE_PATTERN = "\\b(" + String.join("|", ATTRIBUTES) + ")\\b";
     private static final String STRING_PATTERN = "\"([^\"\\\\]|\\\\.)*\"|'([^'\\\\]|\\\\.)*'";
-    private static final String COMMENT_PATTERN = "<!--[^-]*-->";
+    private static final String COMMENT_PATTERN = "<!--(.|\\R)*?-->";
     private static final String DOCTYPE_PATTERN = "<!DOCTYPE[^>]*>";
     private static final String CDATA_PATTERN = "<!\\[CDATA\\[.*?\\]\\]>";
     private static final String EQUALS_PATTERN = "=";
@@ -45,6 +44,11 @@ public class HtmlHighlighter implements LanguageHighlighter {
         + "|(?<EQUALS>" + EQUALS_PATTERN + ")"
     );
 
+    private static final String STYLESHEET = HtmlHighlighter.class.getResource("/css/html-keywords.css").toExternalForm();
+
+    private static final MarkupLexer LEXER = new MarkupLexer(Grammars.lexer("javascript").orElse(null),
+                                                             new CssHighlighter().getParagraphLexer().orElseThrow());
+
     @Override
     public Pattern getPattern() {
         return PATTERN;
@@ -57,27 +61,12 @@ public class HtmlHighlighter implements LanguageHighlighter {
 
     @Override
     public StyleSpans<Collection<String>> computeHighlighting(String text) {
-        Matcher matcher = PATTERN.matcher(text);
-        int lastKwEnd = 0;
-        StyleSpansBuilder<Collection<String>> spansBuilder = new StyleSpansBuilder<>();
-        
-        while (matcher.find()) {
-            String styleClass =
-                matcher.group("TAG") != null ? "tag" :
-                matcher.group("ATTRIBUTE") != null ? "attribute" :
-                matcher.group("STRING") != null ? "string" :
-                matcher.group("COMMENT") != null ? "comment" :
-                matcher.group("DOCTYPE") != null ? "doctype" :
-                matcher.group("CDATA") != null ? "cdata" :
-                matcher.group("EQUALS") != null ? "equals" :
-                null;
-            
-            spansBuilder.add(Collections.emptyList(), matcher.start() - lastKwEnd);
-            spansBuilder.add(Collections.singleton(styleClass), matcher.end() - matcher.start());
-            lastKwEnd = matcher.end();
-        }
-        spansBuilder.add(Collections.emptyList(), text.length() - lastKwEnd);
-        return spansBuilder.create();
+        return HighlightingModel.computeHighlighting(LEXER, text);
+    }
+
+    @Override
+    public Optional<ParagraphLexer> getParagraphLexer() {
+        return Optional.of(LEXER);
     }
 
     @Override
@@ -86,7 +75,7 @@ public class HtmlHighlighter implements LanguageHighlighter {
         codeArea.setParagraphGraphicFactory(LineNumberFactory.get(codeArea));
         
         // Set up styling
-        codeArea.getStylesheets().add(HtmlHighlighter.class.getResource("/css/html-keywords.css").toExternalForm());
+        codeArea.getStylesheets().add(STYLESHEET);
         
         // Apply CSS class to the CodeArea
         codeArea.getStyleClass().add(getCssClass());
@@ -95,16 +84,11 @@ public class HtmlHighlighter implements LanguageHighlighter {
         codeArea.setStyle("-fx-font-family: 'Consolas'; -fx-font-size: 14px;");
         
         // Set up syntax highlighting
-        codeArea.multiPlainChanges()
-                .successionEnds(Duration.ofMillis(500))
-                .subscribe(ignore -> codeArea.setStyleSpans(0, computeHighlighting(codeArea.getText())));
-        
-        // Apply initial highlighting
-        codeArea.setStyleSpans(0, computeHighlighting(codeArea.getText()));
+        HighlightingSession.install(codeArea, LEXER);
     }
 
     @Override
-    public boolean supportsFileExtension(String extension) {
-        return "html".equalsIgnoreCase(extension) || "htm".equalsIgnoreCase(extension);
+    public Set<String> getFileExtensions() {
+        return Set.of("html", "htm");
     }
 } 
\ No newline at end of file
@@ -1,15 +1,13 @@
 package io.vepo.jcode.controls;
 
-import java.time.Duration;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.regex.Matcher;
+import java.util.Optional;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import org.fxmisc.richtext.CodeArea;
 import org.fxmisc.richtext.LineNumberFactory;
 import org.fxmisc.richtext.model.StyleSpans;
-import org.fxmisc.richtext.model.StyleSpansBuilder;
 
 public class JavaHighlighter implements LanguageHighlighter {
     
@@ -28,6 +26,7 @@ public class JavaHighlighter implements LanguageHighlighter {
         "yield", "when", "true", "false", "null"
     };
 
+    // The pattern is only kept for getPattern(), highlighting is done by the JavaLexer
     private static final String KEYWORD_PATTERN = "\\b(" + String.join("|", KEYWORDS) + ")\\b";
     private static final String PAREN_PATTERN = "\\(|\\)";
     private static final String BRACE_PATTERN = "\\{|\\}";
@@ -54,6 +53,10 @@ public class JavaHighlighter implements LanguageHighlighter {
         + "|(?<TYPE>" + TYPE_PATTERN + ")"
     );
 
+    private static final String STYLESHEET = JavaHighlighter.class.getResource("/css/java-keywords.css").toExternalForm();
+
+    private static final JavaLexer LEXER = new JavaLexer(KEYWORDS);
+
     @Override
     public Pattern getPattern() {
         return PATTERN;
@@ -66,31 +69,12 @@ public class JavaHighlighter implements LanguageHighlighter {
 
     @Override
     public StyleSpans<Collection<String>> computeHighlighting(String text) {
-        Matcher matcher = PATTERN.matcher(text);
-        int lastKwEnd = 0;
-        StyleSpansBuilder<Collection<String>> spansBuilder = new StyleSpansBuilder<>();
-        
-        while (matcher.find()) {
-            String styleClass =
-                matcher.group("KEYWORD") != null ? "keyword" :
-                matcher.group("PAREN") != null ? "paren" :
-                matcher.group("BRACE") != null ? "brace" :
-                matcher.group("BRACKET") != null ? "bracket" :
-                matcher.group("SEMICOLON") != null ? "semicolon" :
-                matcher.group("STRING") != null ? "string" :
-                matcher.group("CHAR") != null ? "char" :
-                matcher.group("COMMENT") != null ? "comment" :
-                matcher.group("NUMBER") != null ? "number" :
-                matcher.group("ANNOTATION") != null ? "annotation" :
-                matcher.group("TYPE") != null ? "type" :
-                null;
-            
-            spansBuilder.add(Collections.emptyList(), matcher.start() - lastKwEnd);
-            spansBuilder.add(Collections.singleton(styleClass), matcher.end() - matcher.start());
-            lastKwEnd = matcher.end();
-        }
-        spansBuilder.add(Collections.emptyList(), text.length() - lastKwEnd);
-        return spansBuilder.create();
+        return HighlightingModel.computeHighlighting(LEXER, text);
+    }
+
+    @Override
+    public Optional<ParagraphLexer> getParagraphLexer() {
+        return Optional.of(LEXER);
     }
 
     @Override
@@ -99,7 +83,7 @@ public class JavaHighlighter implements LanguageHighlighter {
         codeArea.setParagraphGraphicFactory(LineNumberFactory.get(codeArea));
         
         // Set up styling
-        codeArea.getStylesheets().add(JavaHighlighter.class.getResource("/css/java-keywords.css").toExternalForm());
+        codeArea.getStylesheets().add(STYLESHEET);
         
         // Apply CSS class to the CodeArea
         codeArea.getStyleClass().add(getCssClass());
@@ -108,16 +92,11 @@ public class JavaHighlighter implements LanguageHighlighter {
         codeArea.setStyle("-fx-font-family: 'Consolas'; -fx-font-size: 14px;");
         
         // Set up syntax highlighting
-        codeArea.multiPlainChanges()
-                .successionEnds(Duration.ofMillis(500))
-                .subscribe(ignore -> codeArea.setStyleSpans(0, computeHighlighting(codeArea.getText())));
-        
-        // Apply initial highlighting
-        codeArea.setStyleSpans(0, computeHighlighting(codeArea.getText()));
+        HighlightingSession.install(codeArea, LEXER);
     }
 
     @Override
-    public boolean supportsFileExtension(String extension) {
-        return "java".equalsIgnoreCase(extension);
+    public Set<String> getFileExtensions() {
+        return Set.of("java");
     }
 } 
\ No newline at end of file
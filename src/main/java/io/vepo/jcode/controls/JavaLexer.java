@@ -0,0 +1,253 @@
+package io.vepo.jcode.controls;
+
+/**
+ * Single pass, character driven lexer for Java. Every character is looked at once, keywords are found through a
+ * precomputed {@link KeywordTable} and no object is created per token.
+ */
+final class JavaLexer implements ParagraphLexer {
+
+    static final int BLOCK_COMMENT = 1;
+    static final int TEXT_BLOCK = 2;
+
+    private static final int KEYWORD = TokenTypes.of("keyword");
+    private static final int PAREN = TokenTypes.of("paren");
+    private static final int BRACE = TokenTypes.of("brace");
+    private static final int BRACKET = TokenTypes.of("bracket");
+    private static final int SEMICOLON = TokenTypes.of("semicolon");
+    private static final int STRING = TokenTypes.of("string");
+    private static final int CHAR = TokenTypes.of("char");
+    private static final int COMMENT = TokenTypes.of("comment");
+    private static final int NUMBER = TokenTypes.of("number");
+    private static final int ANNOTATION = TokenTypes.of("annotation");
+    private static final int TYPE = TokenTypes.of("type");
+
+    private final KeywordTable keywords;
+
+    JavaLexer(String... keywords) {
+        this.keywords = new KeywordTable(keywords);
+    }
+
+    @Override
+    public int lexParagraph(CharSequence text, int start, int end, int state, TokenSink sink) {
+        int pos = start;
+        if (state == BLOCK_COMMENT) {
+            int close = blockCommentEnd(text, pos, end);
+            if (close < 0) {
+                emit(sink, pos, end, COMMENT);
+                return BLOCK_COMMENT;
+            }
+            sink.token(pos, close, COMMENT);
+            pos = close;
+        } else if (state == TEXT_BLOCK) {
+            int close = textBlockEnd(text, pos, end);
+            if (close < 0) {
+                emit(sink, pos, end, STRING);
+                return TEXT_BLOCK;
+            }
+            sink.token(pos, close, STRING);
+            pos = close;
+        }
+
+        while (pos < end) {
+            char c = text.charAt(pos);
+            switch (c) {
+                case '(', ')' -> sink.token(pos, ++pos, PAREN);
+                case '{', '}' -> sink.token(pos, ++pos, BRACE);
+                case '[', ']' -> sink.token(pos, ++pos, BRACKET);
+                case ';' -> sink.token(pos, ++pos, SEMICOLON);
+                case '"' -> {
+                    if (startsWith(text, pos, end, "\"\"\"")) {
+                        int close = textBlockEnd(text, pos + 3, end);
+                        if (close < 0) {
+                            sink.token(pos, end, STRING);
+                            return TEXT_BLOCK;
+                        }
+                        sink.token(pos, close, STRING);
+                        pos = close;
+                    } else {
+                        int close = quotedEnd(text, pos + 1, end, '"');
+                        sink.token(pos, close, STRING);
+                        pos = close;
+                    }
+                }
+                case '\'' -> {
+                    int close = quotedEnd(text, pos + 1, end, '\'');
+                    sink.token(pos, close, CHAR);
+                    pos = close;
+                }
+                case '/' -> {
+                    if (pos + 1 < end && text.charAt(pos + 1) == '/') {
+                        sink.token(pos, end, COMMENT);
+                        pos = end;
+                    } else if (pos + 1 < end && text.charAt(pos + 1) == '*') {
+                        int close = blockCommentEnd(text, pos + 2, end);
+                        if (close < 0) {
+                            sink.token(pos, end, COMMENT);
+                            return BLOCK_COMMENT;
+                        }
+                        sink.token(pos, close, COMMENT);
+                        pos = close;
+                    } else {
+                        ++pos;
+                    }
+                }
+                case '@' -> {
+                    int identifierEnd = identifierEnd(text, pos + 1, end);
+                    if (identifierEnd > pos + 1) {
+                        sink.token(pos, identifierEnd, ANNOTATION);
+                    }
+                    pos = Math.max(identifierEnd, pos + 1);
+                }
+                default -> {
+                    if (isDigit(c)) {
+                        int numberEnd = numberEnd(text, pos, end);
+                        sink.token(pos, numberEnd, NUMBER);
+                        pos = numberEnd;
+                    } else if (isIdentifierStart(c)) {
+                        pos = identifier(text, pos, end, sink);
+                    } else {
+                        ++pos;
+                    }
+                }
+            }
+        }
+        return INITIAL_STATE;
+    }
+
+    private int identifier(CharSequence text, int start, int end, TokenSink sink) {
+        int identifierEnd = identifierEnd(text, start, end);
+        // non-sealed is the only keyword that is not a single identifier
+        if (identifierEnd < end && text.charAt(identifierEnd) == '-') {
+            int hyphenatedEnd = identifierEnd(text, identifierEnd + 1, end);
+            if (keywords.contains(text, start, hyphenatedEnd)) {
+                sink.token(start, hyphenatedEnd, KEYWORD);
+                return hyphenatedEnd;
+            }
+        }
+
+        if (keywords.contains(text, start, identifierEnd)) {
+            sink.token(start, identifierEnd, KEYWORD);
+        } else if (text.charAt(start) >= 'A' && text.charAt(start) <= 'Z') {
+            sink.token(start, identifierEnd, TYPE);
+        }
+        return identifierEnd;
+    }
+
+    private static void emit(TokenSink sink, int start, int end, int type) {
+        if (start < end) {
+            sink.token(start, end, type);
+        }
+    }
+
+    private static int identifierEnd(CharSequence text, int pos, int end) {
+        while (pos < end && isIdentifierPart(text.charAt(pos))) {
+            ++pos;
+        }
+        return pos;
+    }
+
+    private static int numberEnd(CharSequence text, int pos, int end) {
+        if (text.charAt(pos) == '0' && pos + 1 < end && "xXbB".indexOf(text.charAt(pos + 1)) >= 0) {
+            pos += 2;
+            while (pos < end && (Character.digit(text.charAt(pos), 16) >= 0 || text.charAt(pos) == '_')) {
+                ++pos;
+            }
+        } else {
+            pos = digitsEnd(text, pos, end);
+            if (pos + 1 < end && text.charAt(pos) == '.' && isDigit(text.charAt(pos + 1))) {
+                pos = digitsEnd(text, pos + 1, end);
+            }
+            if (pos < end && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')) {
+                int exponent = pos + 1;
+                if (exponent < end && (text.charAt(exponent) == '+' || text.charAt(exponent) == '-')) {
+                    ++exponent;
+                }
+                if (exponent < end && isDigit(text.charAt(exponent))) {
+                    pos = digitsEnd(text, exponent, end);
+                }
+            }
+        }
+        if (pos < end && "fFdDlL".indexOf(text.charAt(pos)) >= 0) {
+            ++pos;
+        }
+        return pos;
+    }
+
+    private static int digitsEnd(CharSequence text, int pos, int end) {
+        while (pos < end && (isDigit(text.charAt(pos)) || text.charAt(pos) == '_')) {
+            ++pos;
+        }
+        return pos;
+    }
+
+    /**
+     * End of a string or char literal started before <code>pos</code>, or the end of the paragraph if it is not
+     * terminated.
+     */
+    private static int quotedEnd(CharSequence text, int pos, int end, char quote) {
+        while (pos < end) {
+            char c = text.charAt(pos++);
+            if (c == '\\') {
+                ++pos;
+            } else if (c == quote) {
+                return pos;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * End of the block comment started before <code>pos</code>, or -1 if it is not closed on this paragraph.
+     */
+    private static int blockCommentEnd(CharSequence text, int pos, int end) {
+        for (int i = pos; i + 1 < end; ++i) {
+            if (text.charAt(i) == '*' && text.charAt(i + 1) == '/') {
+                return i + 2;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * End of the text block started before <code>pos</code>, or -1 if it is not closed on this paragraph.
+     */
+    private static int textBlockEnd(CharSequence text, int pos, int end) {
+        while (pos < end) {
+            char c = text.charAt(pos);
+            if (c == '\\') {
+                pos += 2;
+            } else if (c == '"' && startsWith(text, pos, end, "\"\"\"")) {
+                return pos + 3;
+            } else {
+                ++pos;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(CharSequence text, int pos, int end, String prefix) {
+        if (pos + prefix.length() > end) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); ++i) {
+            if (text.charAt(pos + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$'
+                || (c >= 128 && Character.isJavaIdentifierStart(c));
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || isDigit(c) || c == '_' || c == '$'
+                || (c >= 128 && Character.isJavaIdentifierPart(c));
+    }
+}
@@ -1,15 +1,13 @@
 package io.vepo.jcode.controls;
 
-import java.time.Duration;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.regex.Matcher;
+import java.util.Optional;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import org.fxmisc.richtext.CodeArea;
 import org.fxmisc.richtext.LineNumberFactory;
 import org.fxmisc.richtext.model.StyleSpans;
-import org.fxmisc.richtext.model.StyleSpansBuilder;
 
 public class JsonHighlighter implements LanguageHighlighter {
     
@@ -31,6 +29,14 @@ public class JsonHighlighter implements LanguageHighlighter {
         + "|(?<COMMA>" + COMMA_PATTERN + ")"
     );
 
+    private static final String STYLESHEET = JsonHighlighter.class.getResource("/css/json-keywords.css").toExternalForm();
+
+    private static final RegexParagraphLexer LEXER = new RegexParagraphLexer(
+        PATTERN,
+        new String[] { "STRING", "NUMBER", "BOOLEAN", "KEY", "BRACE", "BRACKET", "COMMA" },
+        new String[] { "string", "number", "boolean", "key", "brace", "bracket", "comma" }
+    );
+
     @Override
     public Pattern getPattern() {
         return PATTERN;
@@ -43,27 +49,12 @@ public class JsonHighlighter implements LanguageHighlighter {
 
     @Override
     public StyleSpans<Collection<String>> computeHighlighting(String text) {
-        Matcher matcher = PATTERN.matcher(text);
-        int lastKwEnd = 0;
-        StyleSpansBuilder<Collection<String>> spansBuilder = new StyleSpansBuilder<>();
-        
-        while (matcher.find()) {
-            String styleClass =
-                matcher.group("STRING") != null ? "string" :
-                matcher.group("NUMBER") != null ? "number" :
-                matcher.group("BOOLEAN") != null ? "boolean" :
-                matcher.group("KEY") != null ? "key" :
-                matcher.group("BRACE") != null ? "brace" :
-                matcher.group("BRACKET") != null ? "bracket" :
-                matcher.group("COMMA") != null ? "comma" :
-                null;
-            
-            spansBuilder.add(Collections.emptyList(), matcher.start() - lastKwEnd);
-            spansBuilder.add(Collections.singleton(styleClass), matcher.end() - matcher.start());
-            lastKwEnd = matcher.end();
-        }
-        spansBuilder.add(Collections.emptyList(), text.length() - lastKwEnd);
-        return spansBuilder.create();
+        return HighlightingModel.computeHighlighting(LEXER, text);
+    }
+
+    @Override
+    public Optional<ParagraphLexer> getParagraphLexer() {
+        return Optional.of(LEXER);
     }
 
     @Override
@@ -72,7 +63,7 @@ public class JsonHighlighter implements LanguageHighlighter {
         codeArea.setParagraphGraphicFactory(LineNumberFactory.get(codeArea));
         
         // Set up styling
-        codeArea.getStylesheets().add(JsonHighlighter.class.getResource("/css/json-keywords.css").toExternalForm());
+        codeArea.getStylesheets().add(STYLESHEET);
         
         // Apply CSS class to the CodeArea
         codeArea.getStyleClass().add(getCssClass());
@@ -81,16 +72,11 @@ public class JsonHighlighter implements LanguageHighlighter {
         codeArea.setStyle("-fx-font-family: 'Consolas'; -fx-font-size: 14px;");
         
         // Set up syntax highlighting
-        codeArea.multiPlainChanges()
-                .successionEnds(Duration.ofMillis(500))
-                .subscribe(ignore -> codeArea.setStyleSpans(0, computeHighlighting(codeArea.getText())));
-        
-        // Apply initial highlighting
-        codeArea.setStyleSpans(0, computeHighlighting(codeArea.getText()));
+        HighlightingSession.install(codeArea, LEXER);
     }
 
     @Override
-    public boolean supportsFileExtension(String extension) {
-        return "json".equalsIgnoreCase(extension);
+    public Set<String> getFileExtensions() {
+        return Set.of("json");
     }
 } 
\ No newline at end of file
@@ -0,0 +1,56 @@
+package io.vepo.jcode.controls;
+
+/**
+ * Open addressing hash set of keywords that is queried with a range of a {@link CharSequence}, so a lexer can
+ * look words up without creating a String for each of them.
+ */
+final class KeywordTable {
+
+    private final char[][] slots;
+    private final int mask;
+
+    KeywordTable(String... keywords) {
+        int size = Integer.highestOneBit(Math.max(keywords.length, 1) * 4 - 1) << 1;
+        this.slots = new char[size][];
+        this.mask = size - 1;
+        for (String keyword : keywords) {
+            int slot = hash(keyword, 0, keyword.length()) & mask;
+            while (slots[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = keyword.toCharArray();
+        }
+    }
+
+    /**
+     * Check if <code>text[start, end)</code> is one of the keywords.
+     */
+    boolean contains(CharSequence text, int start, int end) {
+        for (int slot = hash(text, start, end) & mask; slots[slot] != null; slot = (slot + 1) & mask) {
+            if (matches(slots[slot], text, start, end)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(char[] keyword, CharSequence text, int start, int end) {
+        if (keyword.length != end - start) {
+            return false;
+        }
+        for (int i = 0; i < keyword.length; ++i) {
+            if (keyword[i] != text.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(CharSequence text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; ++i) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -1,6 +1,9 @@
 package io.vepo.jcode.controls;
 
 import java.util.Collection;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import org.fxmisc.richtext.CodeArea;
@@ -23,13 +26,43 @@ public interface LanguageHighlighter {
      */
     StyleSpans<Collection<String>> computeHighlighting(String text);
     
+    /**
+     * Get the paragraph lexer used to highlight incrementally, if this language has one
+     */
+    default Optional<ParagraphLexer> getParagraphLexer() {
+        return Optional.empty();
+    }
+    
     /**
      * Configure the code area for this language
      */
     void configureCodeArea(CodeArea codeArea);
     
+    /**
+     * Get the extensions, without the dot, of the files highlighted by this language
+     */
+    default Set<String> getFileExtensions() {
+        return Set.of();
+    }
+    
+    /**
+     * Get the names of the files highlighted by this language whatever their extension, like <code>Makefile</code>
+     */
+    default Set<String> getFileNames() {
+        return Set.of();
+    }
+    
+    /**
+     * Get the interpreters that select this language from the shebang line of a file, like <code>bash</code>
+     */
+    default Set<String> getInterpreters() {
+        return Set.of();
+    }
+    
     /**
      * Check if this highlighter supports the given file extension
      */
-    boolean supportsFileExtension(String extension);
+    default boolean supportsFileExtension(String extension) {
+        return getFileExtensions().contains(extension.toLowerCase(Locale.ROOT));
+    }
 } 
\ No newline at end of file
@@ -0,0 +1,140 @@
+package io.vepo.jcode.controls;
+
+import java.util.Arrays;
+
+/**
+ * Lexer state at the start of every paragraph of a document, with the length of each paragraph, kept in primitive
+ * arrays. Lexing can resume at any paragraph from its checkpoint, without looking at the text before it.
+ * <p>
+ * Paragraph offsets are derived from the lengths and only computed when asked for, so replacing paragraphs near the
+ * start of a large document does not shift every offset after them.
+ */
+final class LexerCheckpoints {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] states;
+    private int[] lengths;
+    private int[] starts;
+    private int size;
+    private int validStarts;
+
+    LexerCheckpoints() {
+        this(INITIAL_CAPACITY);
+    }
+
+    LexerCheckpoints(int capacity) {
+        this.states = new int[Math.max(capacity, 1)];
+        this.lengths = new int[states.length];
+        this.starts = new int[states.length];
+    }
+
+    /**
+     * Number of paragraphs.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Lexer state the paragraph starts in.
+     */
+    int state(int paragraph) {
+        return states[checkIndex(paragraph)];
+    }
+
+    /**
+     * Length of the paragraph, without its line terminator.
+     */
+    int length(int paragraph) {
+        return lengths[checkIndex(paragraph)];
+    }
+
+    /**
+     * Offset of the first character of the paragraph.
+     */
+    int start(int paragraph) {
+        checkIndex(paragraph);
+        computeStarts(paragraph);
+        return starts[paragraph];
+    }
+
+    /**
+     * Index of the paragraph containing <code>offset</code>. The offset of a line terminator belongs to the paragraph
+     * it ends, offsets after the document belong to the last paragraph.
+     */
+    int paragraphAt(int offset) {
+        if (size == 0) {
+            throw new IllegalStateException("No paragraph!");
+        }
+        // Extend the computed offsets only as far as needed
+        while (validStarts < size && (validStarts == 0 || paragraphEnd(validStarts - 1) < offset)) {
+            computeStarts(validStarts);
+        }
+        int low = 0;
+        int high = validStarts - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (paragraphEnd(middle) < offset) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Append a paragraph.
+     */
+    void add(int state, int length) {
+        ensureCapacity(size + 1);
+        states[size] = state;
+        lengths[size] = length;
+        ++size;
+    }
+
+    /**
+     * Replace the paragraphs <code>[from, to)</code> with all the paragraphs of <code>replacement</code>.
+     */
+    void replace(int from, int to, LexerCheckpoints replacement) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Invalid range [" + from + ", " + to + ") of " + size + " paragraphs");
+        }
+        int newSize = size - (to - from) + replacement.size;
+        ensureCapacity(newSize);
+        System.arraycopy(states, to, states, from + replacement.size, size - to);
+        System.arraycopy(lengths, to, lengths, from + replacement.size, size - to);
+        System.arraycopy(replacement.states, 0, states, from, replacement.size);
+        System.arraycopy(replacement.lengths, 0, lengths, from, replacement.size);
+        size = newSize;
+        validStarts = Math.min(validStarts, from);
+    }
+
+    private int paragraphEnd(int paragraph) {
+        return starts[paragraph] + lengths[paragraph];
+    }
+
+    private void computeStarts(int paragraph) {
+        for (int i = validStarts; i <= paragraph; ++i) {
+            starts[i] = i == 0 ? 0 : starts[i - 1] + lengths[i - 1] + 1;
+        }
+        validStarts = Math.max(validStarts, paragraph + 1);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > states.length) {
+            int newCapacity = Math.max(capacity, states.length + (states.length >> 1));
+            states = Arrays.copyOf(states, newCapacity);
+            lengths = Arrays.copyOf(lengths, newCapacity);
+            starts = Arrays.copyOf(starts, newCapacity);
+        }
+    }
+
+    private int checkIndex(int paragraph) {
+        if (paragraph < 0 || paragraph >= size) {
+            throw new IndexOutOfBoundsException("Paragraph " + paragraph + " of " + size);
+        }
+        return paragraph;
+    }
+}
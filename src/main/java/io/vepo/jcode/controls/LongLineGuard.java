@@ -0,0 +1,26 @@
+package io.vepo.jcode.controls;
+
+/**
+ * {@link ParagraphLexer} leaving the paragraphs longer than a limit unstyled. A minified file is a single huge
+ * paragraph: lexing it is cheap, but rendering the thousands of spans it produces is not.
+ * <p>
+ * A long paragraph keeps the state it starts in, so the paragraphs after it are lexed as if it was not there.
+ */
+final class LongLineGuard implements ParagraphLexer {
+
+    private final ParagraphLexer lexer;
+    private final int maxLineLength;
+
+    LongLineGuard(ParagraphLexer lexer, int maxLineLength) {
+        this.lexer = lexer;
+        this.maxLineLength = maxLineLength;
+    }
+
+    @Override
+    public int lexParagraph(CharSequence text, int start, int end, int state, TokenSink sink) {
+        if (end - start > maxLineLength) {
+            return state;
+        }
+        return lexer.lexParagraph(text, start, end, state, sink);
+    }
+}
@@ -0,0 +1,255 @@
+package io.vepo.jcode.controls;
+
+import java.util.Arrays;
+
+/**
+ * Single pass {@link ParagraphLexer} for Markdown, in two phases: the block a paragraph belongs to is decided first,
+ * then its inline constructs are found in one left to right scan.
+ * <p>
+ * Tokens never overlap. A header or a fenced code block styles its whole paragraph, so emphasis inside a header is
+ * part of the header. Inside a paragraph the construct starting first wins and takes whatever it contains: a code
+ * span inside a link is part of the link, and a <code>*</code> inside a code span is code. Fenced code blocks are
+ * the only construct spanning paragraphs, they are carried by the lexer state.
+ * <p>
+ * Searches for closing delimiters remember where they failed, so a paragraph full of unmatched delimiters is still
+ * scanned in linear time.
+ */
+final class MarkdownLexer implements ParagraphLexer {
+
+    static final int FENCED_CODE = 1;
+    static final int TILDE_FENCED_CODE = 2;
+
+    private static final int HEADER = TokenTypes.of("md-header");
+    private static final int BOLD = TokenTypes.of("md-bold");
+    private static final int ITALIC = TokenTypes.of("md-italic");
+    private static final int CODE = TokenTypes.of("md-code");
+    private static final int LINK = TokenTypes.of("md-link");
+
+    private static final int MAX_INDENT = 3;
+    private static final int MIN_FENCE = 3;
+    private static final int MAX_HEADER_LEVEL = 6;
+    private static final int CACHED_CODE_RUNS = 8;
+
+    // Start of a failed search, a search starting at or after it fails too
+    private static final int UNKNOWN = Integer.MAX_VALUE;
+
+    @Override
+    public int lexParagraph(CharSequence text, int start, int end, int state, TokenSink sink) {
+        if (state != INITIAL_STATE) {
+            emit(sink, start, end, CODE);
+            return isClosingFence(text, start, end, state == FENCED_CODE ? '`' : '~') ? INITIAL_STATE : state;
+        }
+
+        int pos = indentEnd(text, start, end);
+        if (pos < end && pos - start <= MAX_INDENT) {
+            char c = text.charAt(pos);
+            if ((c == '`' || c == '~') && isOpeningFence(text, pos, end, c)) {
+                sink.token(start, end, CODE);
+                return c == '`' ? FENCED_CODE : TILDE_FENCED_CODE;
+            }
+            if (c == '#' && isHeader(text, pos, end)) {
+                sink.token(start, end, HEADER);
+                return INITIAL_STATE;
+            }
+        }
+
+        inline(text, start, end, sink);
+        return INITIAL_STATE;
+    }
+
+    private static void inline(CharSequence text, int start, int end, TokenSink sink) {
+        int noBoldStar = UNKNOWN;
+        int noBoldUnderscore = UNKNOWN;
+        int noItalicStar = UNKNOWN;
+        int noItalicUnderscore = UNKNOWN;
+        int[] noCode = null;
+        int bracketClose = -1;
+        int parenClose = -1;
+
+        int pos = start;
+        while (pos < end) {
+            char c = text.charAt(pos);
+            int tokenEnd = -1;
+            int type = TokenTypes.NONE;
+            switch (c) {
+                case '\\' -> {
+                    // Escaped punctuation is never a delimiter
+                    pos += pos + 1 < end && isPunctuation(text.charAt(pos + 1)) ? 2 : 1;
+                    continue;
+                }
+                case '`' -> {
+                    int run = runEnd(text, pos, end, c) - pos;
+                    if (noCode == null) {
+                        noCode = new int[CACHED_CODE_RUNS + 1];
+                        Arrays.fill(noCode, UNKNOWN);
+                    }
+                    int noCloser = run <= CACHED_CODE_RUNS ? noCode[run] : UNKNOWN;
+                    int close = pos + run >= noCloser ? -1 : findRun(text, pos + run, end, c, run, run);
+                    if (close < 0) {
+                        if (run <= CACHED_CODE_RUNS) {
+                            noCode[run] = Math.min(noCode[run], pos + run);
+                        }
+                        pos += run;
+                        continue;
+                    }
+                    tokenEnd = close + run;
+                    type = CODE;
+                }
+                case '[' -> {
+                    if (bracketClose < pos) {
+                        bracketClose = indexOf(text, pos + 1, end, ']');
+                        if (bracketClose < 0) {
+                            bracketClose = end;
+                        }
+                    }
+                    if (bracketClose > pos + 1 && bracketClose + 1 < end && text.charAt(bracketClose + 1) == '(') {
+                        if (parenClose < bracketClose) {
+                            parenClose = indexOf(text, bracketClose + 2, end, ')');
+                            if (parenClose < 0) {
+                                parenClose = end;
+                            }
+                        }
+                        if (parenClose > bracketClose + 2 && parenClose < end) {
+                            tokenEnd = parenClose + 1;
+                            type = LINK;
+                        }
+                    }
+                }
+                case '*', '_' -> {
+                    int run = runEnd(text, pos, end, c) - pos;
+                    boolean star = c == '*';
+                    if (!star && pos > start && Character.isLetterOrDigit(text.charAt(pos - 1))) {
+                        // Intraword underscores, like in snake_case, are not emphasis
+                        pos += run;
+                        continue;
+                    }
+                    if (run >= 2) {
+                        int noCloser = star ? noBoldStar : noBoldUnderscore;
+                        int close = pos + 2 >= noCloser ? -1 : findRun(text, pos + 2, end, c, 2, Integer.MAX_VALUE);
+                        if (close >= 0) {
+                            tokenEnd = close + 2;
+                            type = BOLD;
+                        } else if (star) {
+                            noBoldStar = Math.min(noBoldStar, pos + 2);
+                        } else {
+                            noBoldUnderscore = Math.min(noBoldUnderscore, pos + 2);
+                        }
+                    } else {
+                        int noCloser = star ? noItalicStar : noItalicUnderscore;
+                        int close = pos + 1 >= noCloser ? -1 : findRun(text, pos + 1, end, c, 1, 1);
+                        if (close >= 0) {
+                            tokenEnd = close + 1;
+                            type = ITALIC;
+                        } else if (star) {
+                            noItalicStar = Math.min(noItalicStar, pos + 1);
+                        } else {
+                            noItalicUnderscore = Math.min(noItalicUnderscore, pos + 1);
+                        }
+                    }
+                    if (tokenEnd < 0) {
+                        pos += run;
+                        continue;
+                    }
+                }
+                default -> {
+                    // Plain text
+                }
+            }
+
+            if (tokenEnd > pos) {
+                sink.token(pos, tokenEnd, type);
+                pos = tokenEnd;
+            } else {
+                ++pos;
+            }
+        }
+    }
+
+    /**
+     * Start of the first run of <code>c</code> after <code>from</code> whose length is in
+     * <code>[minLength, maxLength]</code>. Escaped characters are skipped, except in code spans, and underscores
+     * cannot close inside a word.
+     */
+    private static int findRun(CharSequence text, int from, int end, char c, int minLength, int maxLength) {
+        int pos = from;
+        while (pos < end) {
+            char current = text.charAt(pos);
+            if (current == '\\' && c != '`') {
+                pos += 2;
+            } else if (current == c) {
+                int runEnd = runEnd(text, pos, end, c);
+                int length = runEnd - pos;
+                boolean intraword = c == '_' && runEnd < end && Character.isLetterOrDigit(text.charAt(runEnd));
+                if (length >= minLength && length <= maxLength && !intraword) {
+                    return pos;
+                }
+                pos = runEnd;
+            } else {
+                ++pos;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isOpeningFence(CharSequence text, int pos, int end, char c) {
+        int runEnd = runEnd(text, pos, end, c);
+        if (runEnd - pos < MIN_FENCE) {
+            return false;
+        }
+        // The info string of a backtick fence has no backtick, or the line is an inline code span
+        return c != '`' || indexOf(text, runEnd, end, '`') < 0;
+    }
+
+    private static boolean isClosingFence(CharSequence text, int start, int end, char c) {
+        int pos = indentEnd(text, start, end);
+        if (pos - start > MAX_INDENT) {
+            return false;
+        }
+        int runEnd = runEnd(text, pos, end, c);
+        if (runEnd - pos < MIN_FENCE) {
+            return false;
+        }
+        for (int i = runEnd; i < end; ++i) {
+            if (!Character.isWhitespace(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isHeader(CharSequence text, int pos, int end) {
+        int runEnd = runEnd(text, pos, end, '#');
+        return runEnd - pos <= MAX_HEADER_LEVEL
+                && (runEnd == end || text.charAt(runEnd) == ' ' || text.charAt(runEnd) == '\t');
+    }
+
+    private static int indentEnd(CharSequence text, int pos, int end) {
+        return runEnd(text, pos, end, ' ');
+    }
+
+    private static int runEnd(CharSequence text, int pos, int end, char c) {
+        while (pos < end && text.charAt(pos) == c) {
+            ++pos;
+        }
+        return pos;
+    }
+
+    private static int indexOf(CharSequence text, int from, int end, char c) {
+        for (int i = from; i < end; ++i) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isPunctuation(char c) {
+        return c < 128 && !Character.isLetterOrDigit(c) && !Character.isWhitespace(c);
+    }
+
+    private static void emit(TokenSink sink, int start, int end, int type) {
+        if (start < end) {
+            sink.token(start, end, type);
+        }
+    }
+}
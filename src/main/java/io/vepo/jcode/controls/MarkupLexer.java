@@ -0,0 +1,422 @@
+package io.vepo.jcode.controls;
+
+import java.util.Locale;
+
+/**
+ * Single pass, character driven lexer for XML and HTML. Every character is looked at once, no regular expression
+ * is run and no object is created per token, so multi-megabyte documents are lexed in linear time.
+ * <p>
+ * The lexer is a state machine with an explicit state for each construct that can span paragraphs: the inside of a
+ * tag, a quoted attribute value, a comment, a CDATA section, a processing instruction and a doctype with its internal
+ * subset. The state of a paragraph packs the construct in its low bits and, in HTML, whether the tag being read is a
+ * <code>script</code> or a <code>style</code> one, whose content is raw text up to its end tag.
+ * <p>
+ * That raw text is lexed by the lexer of its language, JavaScript or CSS, into the same token stream. The state of
+ * the embedded lexer is pushed on the state of the markup, in its high bits, so a paragraph inside a script resumes
+ * both, and an edit inside a script is relexed up to where both states converge again, like any other edit. A
+ * script whose <code>type</code> is not JavaScript or JSON is left raw.
+ */
+final class MarkupLexer implements ParagraphLexer {
+
+    static final int TAG = 1;
+    static final int DOUBLE_QUOTED = 2;
+    static final int SINGLE_QUOTED = 3;
+    static final int COMMENT = 4;
+    static final int CDATA = 5;
+    static final int INSTRUCTION = 6;
+    static final int DOCTYPE = 7;
+    static final int DOCTYPE_SUBSET = 8;
+    static final int RAW = 9;
+
+    static final int SCRIPT = 1 << 4;
+    static final int STYLE = 2 << 4;
+    static final int DATA = 3 << 4;
+
+    private static final int CONSTRUCT = 0xF;
+    private static final int RAW_ELEMENT = 0x3 << 4;
+    private static final int EMBEDDED_SHIFT = 6;
+    // Embedded states that do not fit the high bits are dropped, the embedded lexer restarts from its initial state
+    private static final int MAX_EMBEDDED_STATE = Integer.MAX_VALUE >>> EMBEDDED_SHIFT;
+
+    private static final int TAG_TYPE = TokenTypes.of("tag");
+    private static final int ATTRIBUTE_TYPE = TokenTypes.of("attribute");
+    private static final int STRING_TYPE = TokenTypes.of("string");
+    private static final int COMMENT_TYPE = TokenTypes.of("comment");
+    private static final int CDATA_TYPE = TokenTypes.of("cdata");
+    private static final int INSTRUCTION_TYPE = TokenTypes.of("instruction");
+    private static final int DOCTYPE_TYPE = TokenTypes.of("doctype");
+    private static final int ENTITY_TYPE = TokenTypes.of("entity");
+
+    private static final int MAX_ENTITY = 32;
+
+    private final boolean html;
+    private final ParagraphLexer script;
+    private final ParagraphLexer style;
+
+    /**
+     * @param html whether to lex HTML, whose names are case insensitive and whose <code>script</code> and
+     *             <code>style</code> elements hold raw text
+     */
+    MarkupLexer(boolean html) {
+        this(html, null, null);
+    }
+
+    /**
+     * Lexer of HTML.
+     *
+     * @param script lexer of the content of <code>script</code> elements, or <code>null</code> to leave it raw
+     * @param style  lexer of the content of <code>style</code> elements, or <code>null</code> to leave it raw
+     */
+    MarkupLexer(ParagraphLexer script, ParagraphLexer style) {
+        this(true, script, style);
+    }
+
+    private MarkupLexer(boolean html, ParagraphLexer script, ParagraphLexer style) {
+        this.html = html;
+        this.script = script;
+        this.style = style;
+    }
+
+    @Override
+    public int lexParagraph(CharSequence text, int start, int end, int state, TokenSink sink) {
+        if (start == end && (state & CONSTRUCT) == RAW) {
+            // The embedded lexer sees empty paragraphs too, they end its single line constructs
+            return state(raw(text, start, end, state, sink));
+        }
+        int pos = start;
+        while (pos < end) {
+            int rawElement = state & RAW_ELEMENT;
+            long next = switch (state & CONSTRUCT) {
+                case TAG -> tag(text, pos, end, rawElement, sink);
+                case DOUBLE_QUOTED -> quoted(text, pos, end, '"', state, sink);
+                case SINGLE_QUOTED -> quoted(text, pos, end, '\'', state, sink);
+                case COMMENT -> closed(text, pos, end, "-->", COMMENT_TYPE, state, sink);
+                case CDATA -> closed(text, pos, end, "]]>", CDATA_TYPE, state, sink);
+                case INSTRUCTION -> closed(text, pos, end, "?>", INSTRUCTION_TYPE, state, sink);
+                case DOCTYPE, DOCTYPE_SUBSET -> doctype(text, pos, end, state, sink);
+                case RAW -> raw(text, pos, end, state, sink);
+                default -> content(text, pos, end, sink);
+            };
+            pos = position(next);
+            state = state(next);
+        }
+        return state;
+    }
+
+    /**
+     * Lex content up to the start of a construct, or the end of the paragraph.
+     */
+    private long content(CharSequence text, int pos, int end, TokenSink sink) {
+        while (pos < end) {
+            char c = text.charAt(pos);
+            if (c == '&') {
+                pos = entity(text, pos, end, sink);
+            } else if (c != '<' || pos + 1 == end) {
+                ++pos;
+            } else if (startsWith(text, pos, end, "<!--")) {
+                return closed(text, pos, end, "-->", 4, COMMENT_TYPE, COMMENT, sink);
+            } else if (startsWith(text, pos, end, "<![CDATA[")) {
+                return closed(text, pos, end, "]]>", 9, CDATA_TYPE, CDATA, sink);
+            } else if (startsWith(text, pos, end, "<!") && pos + 2 < end && isNameStart(text.charAt(pos + 2))) {
+                return doctype(text, pos, end, DOCTYPE, sink);
+            } else if (startsWith(text, pos, end, "<?")) {
+                return closed(text, pos, end, "?>", 2, INSTRUCTION_TYPE, INSTRUCTION, sink);
+            } else if (startsWith(text, pos, end, "</") && pos + 2 < end && isNameStart(text.charAt(pos + 2))) {
+                int nameEnd = nameEnd(text, pos + 2, end);
+                sink.token(pos, nameEnd, TAG_TYPE);
+                return next(nameEnd, TAG);
+            } else if (isNameStart(text.charAt(pos + 1))) {
+                int nameEnd = nameEnd(text, pos + 1, end);
+                sink.token(pos, nameEnd, TAG_TYPE);
+                return next(nameEnd, rawElement(text, pos + 1, nameEnd) | TAG);
+            } else {
+                ++pos;
+            }
+        }
+        return next(end, INITIAL_STATE);
+    }
+
+    /**
+     * Lex the attributes of a tag, up to its end.
+     */
+    private long tag(CharSequence text, int pos, int end, int rawElement, TokenSink sink) {
+        boolean type = false;
+        while (pos < end) {
+            char c = text.charAt(pos);
+            if (c == '>') {
+                sink.token(pos, pos + 1, TAG_TYPE);
+                return next(pos + 1, rawElement == 0 ? INITIAL_STATE : rawElement | RAW);
+            } else if (c == '/' && pos + 1 < end && text.charAt(pos + 1) == '>') {
+                // A self-closing tag has no content, raw or not
+                sink.token(pos, pos + 2, TAG_TYPE);
+                return next(pos + 2, INITIAL_STATE);
+            } else if (c == '<') {
+                // A tag that is never closed ends where the next one starts
+                return next(pos, INITIAL_STATE);
+            } else if (c == '"' || c == '\'') {
+                int close = indexOf(text, pos + 1, end, c);
+                if (close < 0) {
+                    sink.token(pos, end, STRING_TYPE);
+                    return next(end, rawElement | (c == '"' ? DOUBLE_QUOTED : SINGLE_QUOTED));
+                }
+                sink.token(pos, close + 1, STRING_TYPE);
+                rawElement = scriptType(rawElement, type, text, pos + 1, close);
+                pos = close + 1;
+            } else if (c == '=') {
+                int valueStart = skipWhitespace(text, pos + 1, end);
+                if (valueStart < end && (text.charAt(valueStart) == '"' || text.charAt(valueStart) == '\'')) {
+                    pos = valueStart;
+                    continue;
+                }
+                pos = unquotedValue(text, valueStart, end, sink);
+                rawElement = scriptType(rawElement, type, text, valueStart, pos);
+            } else if (isNameChar(c)) {
+                int nameEnd = nameEnd(text, pos, end);
+                sink.token(pos, nameEnd, ATTRIBUTE_TYPE);
+                type = nameEnd - pos == 4 && startsWithIgnoreCase(text, pos, nameEnd, "type");
+                pos = nameEnd;
+            } else {
+                ++pos;
+            }
+        }
+        return next(end, rawElement | TAG);
+    }
+
+    /**
+     * Lex the rest of a quoted attribute value left open in the previous paragraph.
+     */
+    private static long quoted(CharSequence text, int pos, int end, char quote, int state, TokenSink sink) {
+        int close = indexOf(text, pos, end, quote);
+        if (close < 0) {
+            emit(sink, pos, end, STRING_TYPE);
+            return next(end, state);
+        }
+        sink.token(pos, close + 1, STRING_TYPE);
+        return next(close + 1, state & RAW_ELEMENT | TAG);
+    }
+
+    /**
+     * Raw element of a tag after the value <code>[start, end)</code> of one of its attributes: a script whose
+     * <code>type</code> is not JavaScript or JSON holds data, not code.
+     */
+    private static int scriptType(int rawElement, boolean type, CharSequence text, int start, int end) {
+        if (rawElement != SCRIPT || !type) {
+            return rawElement;
+        }
+        String value = text.subSequence(start, end).toString().strip().toLowerCase(Locale.ROOT);
+        boolean code = value.isEmpty() || value.equals("module") || value.equals("importmap")
+                || value.contains("javascript") || value.contains("ecmascript") || value.contains("json");
+        return code ? SCRIPT : DATA;
+    }
+
+    private static int skipWhitespace(CharSequence text, int pos, int end) {
+        while (pos < end && Character.isWhitespace(text.charAt(pos))) {
+            ++pos;
+        }
+        return pos;
+    }
+
+    private static int unquotedValue(CharSequence text, int pos, int end, TokenSink sink) {
+        int valueEnd = pos;
+        while (valueEnd < end && isUnquotedValueChar(text, valueEnd, end)) {
+            ++valueEnd;
+        }
+        emit(sink, pos, valueEnd, STRING_TYPE);
+        return valueEnd;
+    }
+
+    private static boolean isUnquotedValueChar(CharSequence text, int pos, int end) {
+        char c = text.charAt(pos);
+        if (c == '/' && pos + 1 < end && text.charAt(pos + 1) == '>') {
+            return false;
+        }
+        return !Character.isWhitespace(c) && c != '>' && c != '<' && c != '"' && c != '\'';
+    }
+
+    /**
+     * Lex a doctype, from its start or from the given state, up to its end. The internal subset may hold
+     * <code>&gt;</code>, the doctype only ends after it.
+     */
+    private static long doctype(CharSequence text, int pos, int end, int state, TokenSink sink) {
+        int start = pos;
+        while (pos < end) {
+            char c = text.charAt(pos++);
+            if (state == DOCTYPE_SUBSET) {
+                if (c == ']') {
+                    state = DOCTYPE;
+                }
+            } else if (c == '[') {
+                state = DOCTYPE_SUBSET;
+            } else if (c == '>') {
+                sink.token(start, pos, DOCTYPE_TYPE);
+                return next(pos, INITIAL_STATE);
+            }
+        }
+        emit(sink, start, end, DOCTYPE_TYPE);
+        return next(end, state);
+    }
+
+    /**
+     * Lex a construct, in the given state since the start of the paragraph, up to its <code>close</code>.
+     */
+    private static long closed(CharSequence text, int pos, int end, String close, int type, int state,
+                               TokenSink sink) {
+        return closed(text, pos, end, close, 0, type, state, sink);
+    }
+
+    /**
+     * Lex a construct starting at <code>pos</code> with an opening of <code>opening</code> characters up to its
+     * <code>close</code>, or the end of the paragraph in the given state.
+     */
+    private static long closed(CharSequence text, int pos, int end, String close, int opening, int type, int state,
+                               TokenSink sink) {
+        int found = indexOf(text, pos + opening, end, close);
+        if (found < 0) {
+            emit(sink, pos, end, type);
+            return next(end, state);
+        }
+        sink.token(pos, found + close.length(), type);
+        return next(found + close.length(), INITIAL_STATE);
+    }
+
+    /**
+     * Lex the raw text of a <code>script</code> or <code>style</code> element up to its end tag, with the lexer of
+     * its language if there is one.
+     */
+    private long raw(CharSequence text, int pos, int end, int state, TokenSink sink) {
+        int rawElement = state & RAW_ELEMENT;
+        String endTag = rawElement == STYLE ? "</style" : "</script";
+        int close = -1;
+        for (int i = indexOf(text, pos, end, '<'); i >= 0 && close < 0; i = indexOf(text, i + 1, end, '<')) {
+            if (startsWithIgnoreCase(text, i, end, endTag)
+                    && (i + endTag.length() == end || !isNameChar(text.charAt(i + endTag.length())))) {
+                close = i;
+            }
+        }
+
+        ParagraphLexer embedded = rawElement == SCRIPT ? script : rawElement == STYLE ? style : null;
+        int embeddedState = state >>> EMBEDDED_SHIFT;
+        if (embedded != null) {
+            embeddedState = embedded.lexParagraph(text, pos, close < 0 ? end : close, embeddedState, sink);
+        }
+        if (close >= 0) {
+            return next(close, INITIAL_STATE);
+        }
+        return next(end, embeddedState > MAX_EMBEDDED_STATE ? rawElement | RAW
+                                                              : embeddedState << EMBEDDED_SHIFT | rawElement | RAW);
+    }
+
+    private int rawElement(CharSequence text, int nameStart, int nameEnd) {
+        if (!html) {
+            return 0;
+        }
+        if (nameEnd - nameStart == 6 && startsWithIgnoreCase(text, nameStart, nameEnd, "script")) {
+            return SCRIPT;
+        }
+        if (nameEnd - nameStart == 5 && startsWithIgnoreCase(text, nameStart, nameEnd, "style")) {
+            return STYLE;
+        }
+        return 0;
+    }
+
+    /**
+     * Emit an entity or character reference, like <code>&amp;amp;</code> or <code>&amp;#x20;</code>, at
+     * <code>pos</code>.
+     *
+     * @return the position after it, or after the ampersand if there is none
+     */
+    private static int entity(CharSequence text, int pos, int end, TokenSink sink) {
+        int limit = Math.min(end, pos + MAX_ENTITY);
+        int i = pos + 1;
+        if (i < limit && text.charAt(i) == '#') {
+            ++i;
+        }
+        int nameStart = i;
+        while (i < limit && isNameChar(text.charAt(i))) {
+            ++i;
+        }
+        if (i == nameStart || i == limit || text.charAt(i) != ';') {
+            return pos + 1;
+        }
+        sink.token(pos, i + 1, ENTITY_TYPE);
+        return i + 1;
+    }
+
+    private static long next(int pos, int state) {
+        return (long) state << 32 | pos;
+    }
+
+    private static int position(long next) {
+        return (int) next;
+    }
+
+    private static int state(long next) {
+        return (int) (next >>> 32);
+    }
+
+    private static void emit(TokenSink sink, int start, int end, int type) {
+        if (start < end) {
+            sink.token(start, end, type);
+        }
+    }
+
+    private static int nameEnd(CharSequence text, int pos, int end) {
+        while (pos < end && isNameChar(text.charAt(pos))) {
+            ++pos;
+        }
+        return pos;
+    }
+
+    private static boolean isNameStart(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '_' || c == ':'
+                || c > 0x7F && Character.isLetter(c);
+    }
+
+    private static boolean isNameChar(char c) {
+        return isNameStart(c) || c >= '0' && c <= '9' || c == '-' || c == '.'
+                || c > 0x7F && Character.isLetterOrDigit(c);
+    }
+
+    private static int indexOf(CharSequence text, int pos, int end, char c) {
+        for (int i = pos; i < end; ++i) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(CharSequence text, int pos, int end, String target) {
+        char first = target.charAt(0);
+        for (int i = indexOf(text, pos, end, first); i >= 0; i = indexOf(text, i + 1, end, first)) {
+            if (startsWith(text, i, end, target)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(CharSequence text, int pos, int end, String prefix) {
+        if (end - pos < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); ++i) {
+            if (text.charAt(pos + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWithIgnoreCase(CharSequence text, int pos, int end, String prefix) {
+        if (end - pos < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); ++i) {
+            if (Character.toLowerCase(text.charAt(pos + i)) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
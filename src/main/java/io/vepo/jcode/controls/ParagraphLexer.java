@@ -0,0 +1,32 @@
+package io.vepo.jcode.controls;
+
+/**
+ * Lexer that highlights a document one paragraph at a time. A small state value is carried from one paragraph
+ * to the next, so lexing can restart at any paragraph whose starting state is known.
+ * <p>
+ * Lexers are shared by all the documents of a language and large documents are lexed by several threads at once,
+ * so implementations must be thread safe.
+ */
+public interface ParagraphLexer {
+
+    /**
+     * State of the lexer at the start of a document
+     */
+    int INITIAL_STATE = 0;
+
+    /**
+     * Lex the paragraph <code>text[start, end)</code>, without its line terminator, starting in the given state.
+     *
+     * @return the lexer state at the start of the next paragraph
+     */
+    int lexParagraph(CharSequence text, int start, int end, int state, TokenSink sink);
+
+    /**
+     * Receives the tokens found by a {@link ParagraphLexer}, in document order. Token types are ids registered in
+     * {@link TokenTypes}.
+     */
+    @FunctionalInterface
+    interface TokenSink {
+        void token(int start, int end, int type);
+    }
+}
@@ -0,0 +1,579 @@
+package io.vepo.jcode.controls;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Text of a document as a piece table: a sequence of pieces, each a range of the original text or of an append-only
+ * buffer holding every text inserted since. The original text stays in the bytes of the file, memory-mapped, and
+ * only the pieces read are decoded, so a document costs little more heap than the text inserted in it.
+ * <p>
+ * The pieces are the nodes of a treap ordered by position, every node keeping the characters and line feeds of its
+ * subtree, so inserting and deleting text, and finding a line or the line of an offset, walk a single path of the
+ * tree. The original text is split in pieces of at most {@link #PIECE_SIZE} bytes, finding a line decodes only the
+ * piece holding it.
+ * <p>
+ * The original text is decoded once to find its pieces, batch by batch on another thread, while the lines already
+ * indexed can be read. Text is only inserted or deleted once the whole original text is indexed, so the pieces
+ * indexed last always follow the text.
+ * <p>
+ * Lines end with a line feed, a carriage return before it is not part of the line. The charset must be stateless,
+ * so any piece can be decoded alone, and the byte order mark of a UTF-8 or UTF-16 file is not part of the text. A
+ * piece table is not thread safe.
+ */
+final class PieceTable {
+
+    /**
+     * Most bytes of the original text in a piece.
+     */
+    static final int PIECE_SIZE = 16 * 1024;
+
+    // Bytes mapped at once, a piece is copied to the heap when it crosses two regions
+    private static final long REGION_SIZE = 1L << 30;
+    private static final int CACHED_PIECES = 16;
+
+    /**
+     * A piece and its subtree. A piece of the original text is <code>bytes</code> bytes from the byte
+     * <code>start</code>, a piece of the added text is <code>length</code> characters from the character
+     * <code>start</code>.
+     */
+    private static final class Node {
+        private final Node left;
+        private final Node right;
+        private final int priority;
+        private final boolean original;
+        private final long start;
+        private final int bytes;
+        private final int length;
+        private final int lineFeeds;
+        private final long chars;
+        private final long feeds;
+
+        private Node(Node left, Node right, int priority, boolean original, long start, int bytes, int length,
+                     int lineFeeds) {
+            this.left = left;
+            this.right = right;
+            this.priority = priority;
+            this.original = original;
+            this.start = start;
+            this.bytes = bytes;
+            this.length = length;
+            this.lineFeeds = lineFeeds;
+            this.chars = chars(left) + length + chars(right);
+            this.feeds = feeds(left) + lineFeeds + feeds(right);
+        }
+
+        private static Node leaf(boolean original, long start, int bytes, int length, int lineFeeds) {
+            return new Node(null, null, ThreadLocalRandom.current().nextInt(), original, start, bytes, length,
+                            lineFeeds);
+        }
+
+        private Node with(Node left, Node right) {
+            return new Node(left, right, priority, original, start, bytes, length, lineFeeds);
+        }
+    }
+
+    /**
+     * Pieces of the original text indexed from the byte <code>start</code> to the byte <code>end</code>.
+     */
+    record Batch(Node pieces, long start, long end) {
+    }
+
+    private final ByteBuffer[] regions;
+    private final Charset charset;
+    private final long size;
+    private final StringBuilder added = new StringBuilder();
+    // Decoded pieces of the original text, by their first byte
+    private final Map<Long, char[]> decoded = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, char[]> eldest) {
+            return size() > CACHED_PIECES;
+        }
+    };
+    private Node root;
+    private long indexed;
+
+    private PieceTable(ByteBuffer[] regions, Charset charset) {
+        this.regions = regions;
+        this.charset = charset;
+        long bytes = 0;
+        for (ByteBuffer region : regions) {
+            bytes += region.limit();
+        }
+        this.size = bytes;
+        // The byte order mark is not part of the text
+        this.indexed = byteOrderMark(regions[0], charset);
+    }
+
+    /**
+     * Piece table of a file whose bytes are mapped but not indexed yet, the table is empty until the pieces indexed
+     * by {@link #index(long, long)} are appended.
+     *
+     * @throws IOException if the file can not be read
+     */
+    static PieceTable map(Path path, Charset charset) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer[] regions = new ByteBuffer[(int) Math.max(1, (size + REGION_SIZE - 1) / REGION_SIZE)];
+            for (int i = 0; i < regions.length; ++i) {
+                long start = i * REGION_SIZE;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, size - start));
+            }
+            return new PieceTable(regions, charset);
+        }
+    }
+
+    /**
+     * Number of characters of the text.
+     */
+    long length() {
+        return chars(root);
+    }
+
+    /**
+     * Number of lines of the text, one more than its line feeds.
+     */
+    long lineCount() {
+        return feeds(root) + 1;
+    }
+
+    /**
+     * Offset of the first character of a line.
+     */
+    long lineStart(long line) {
+        if (line < 0 || line >= lineCount()) {
+            throw new IndexOutOfBoundsException("Line " + line + " of " + lineCount());
+        }
+        if (line == 0) {
+            return 0;
+        }
+        // Find the line feed ending the line before
+        long start = 0;
+        Node node = root;
+        while (true) {
+            if (line <= feeds(node.left)) {
+                node = node.left;
+                continue;
+            }
+            line -= feeds(node.left);
+            start += chars(node.left);
+            if (line <= node.lineFeeds) {
+                CharSequence text = text(node);
+                for (int i = 0; ; ++i) {
+                    if (text.charAt(i) == '\n' && --line == 0) {
+                        return start + i + 1;
+                    }
+                }
+            }
+            line -= node.lineFeeds;
+            start += node.length;
+            node = node.right;
+        }
+    }
+
+    /**
+     * Line holding an offset, the last line for the length of the text.
+     */
+    long lineOf(long offset) {
+        checkOffset(offset);
+        long line = 0;
+        Node node = root;
+        while (node != null) {
+            if (offset < chars(node.left)) {
+                node = node.left;
+                continue;
+            }
+            line += feeds(node.left);
+            offset -= chars(node.left);
+            if (offset < node.length) {
+                CharSequence text = text(node);
+                for (int i = 0; i < offset; ++i) {
+                    if (text.charAt(i) == '\n') {
+                        ++line;
+                    }
+                }
+                return line;
+            }
+            line += node.lineFeeds;
+            offset -= node.length;
+            node = node.right;
+        }
+        return line;
+    }
+
+    /**
+     * Text of a line, without its line terminator.
+     */
+    String line(long line) {
+        return line(line, Integer.MAX_VALUE - 8);
+    }
+
+    /**
+     * Text of a line, without its line terminator, cut after <code>maxLength</code> characters.
+     */
+    String line(long line, int maxLength) {
+        long start = lineStart(line);
+        return text(start, Math.min(lineEnd(line, start), start + maxLength));
+    }
+
+    /**
+     * Offset of the line terminator of a line, or the length of the text for the last line.
+     */
+    long lineEnd(long line) {
+        return lineEnd(line, lineStart(line));
+    }
+
+    private long lineEnd(long line, long start) {
+        long end = line + 1 < lineCount() ? lineStart(line + 1) - 1 : length();
+        if (end > start && charAt(end - 1) == '\r') {
+            --end;
+        }
+        return end;
+    }
+
+    /**
+     * Character at an offset.
+     */
+    char charAt(long offset) {
+        if (offset < 0 || offset >= length()) {
+            throw new IndexOutOfBoundsException("Offset " + offset + " of " + length());
+        }
+        Node node = root;
+        while (true) {
+            if (offset < chars(node.left)) {
+                node = node.left;
+            } else if (offset < chars(node.left) + node.length) {
+                return text(node).charAt((int) (offset - chars(node.left)));
+            } else {
+                offset -= chars(node.left) + node.length;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Text from <code>start</code>, inclusive, to <code>end</code>, exclusive.
+     */
+    String text(long start, long end) {
+        checkOffset(start);
+        checkOffset(end);
+        if (end < start) {
+            throw new IndexOutOfBoundsException("Range " + start + " to " + end);
+        }
+        if (end - start > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Range " + start + " to " + end + " does not fit a string");
+        }
+        StringBuilder builder = new StringBuilder((int) (end - start));
+        append(root, 0, start, end, builder);
+        return builder.toString();
+    }
+
+    /**
+     * Insert a text at an offset.
+     */
+    void insert(long offset, CharSequence text) {
+        checkIndexed();
+        checkOffset(offset);
+        if (text.isEmpty()) {
+            return;
+        }
+        int start = added.length();
+        added.append(text);
+        Node piece = Node.leaf(false, start, 0, text.length(), lineFeeds(text, 0, text.length()));
+        Node[] parts = split(root, offset);
+        root = merge(merge(parts[0], piece), parts[1]);
+    }
+
+    /**
+     * Delete the text from <code>start</code>, inclusive, to <code>end</code>, exclusive.
+     */
+    void delete(long start, long end) {
+        checkIndexed();
+        checkOffset(start);
+        checkOffset(end);
+        if (end <= start) {
+            return;
+        }
+        Node[] head = split(root, start);
+        Node[] tail = split(head[1], end - start);
+        root = merge(head[0], tail[1]);
+    }
+
+    /**
+     * Replace the text from <code>start</code>, inclusive, to <code>end</code>, exclusive.
+     */
+    void replace(long start, long end, CharSequence text) {
+        delete(start, end);
+        insert(start, text);
+    }
+
+    @Override
+    public String toString() {
+        return text(0, length());
+    }
+
+    private void checkIndexed() {
+        if (!isIndexed()) {
+            throw new IllegalStateException("Text edited before byte " + indexed + " of " + size + " is indexed");
+        }
+    }
+
+    private void checkOffset(long offset) {
+        if (offset < 0 || offset > length()) {
+            throw new IndexOutOfBoundsException("Offset " + offset + " of " + length());
+        }
+    }
+
+    private void append(Node node, long nodeStart, long start, long end, StringBuilder builder) {
+        if (node == null || nodeStart >= end || nodeStart + node.chars <= start) {
+            return;
+        }
+        append(node.left, nodeStart, start, end, builder);
+        long pieceStart = nodeStart + chars(node.left);
+        long from = Math.max(start, pieceStart);
+        long to = Math.min(end, pieceStart + node.length);
+        if (from < to) {
+            int offset = (int) (from - pieceStart);
+            if (node.original) {
+                builder.append(decode(node), offset, (int) (to - from));
+            } else {
+                builder.append(added, (int) node.start + offset, (int) (node.start + to - pieceStart));
+            }
+        }
+        append(node.right, pieceStart + node.length, start, end, builder);
+    }
+
+    /**
+     * Split the first <code>offset</code> characters of a subtree from the others, splitting the piece holding the
+     * offset in two.
+     */
+    private Node[] split(Node node, long offset) {
+        if (node == null) {
+            return new Node[2];
+        }
+        long leftChars = chars(node.left);
+        if (offset <= leftChars) {
+            Node[] parts = split(node.left, offset);
+            parts[1] = node.with(parts[1], node.right);
+            return parts;
+        }
+        if (offset >= leftChars + node.length) {
+            Node[] parts = split(node.right, offset - leftChars - node.length);
+            parts[0] = node.with(node.left, parts[0]);
+            return parts;
+        }
+        Node[] pieces = splitPiece(node, (int) (offset - leftChars));
+        return new Node[] { merge(node.left, pieces[0]), merge(pieces[1], node.right) };
+    }
+
+    private Node[] splitPiece(Node node, int offset) {
+        CharSequence text = text(node);
+        int lineFeeds = lineFeeds(text, 0, offset);
+        if (node.original) {
+            // Decoding stops at the byte where the first characters end, unless the offset cuts a surrogate pair
+            CharsetDecoder decoder = decoder();
+            ByteBuffer in = bytes(node.start, node.bytes);
+            CharBuffer out = CharBuffer.allocate(offset);
+            decoder.decode(in, out, false);
+            if (out.position() == offset) {
+                int bytes = in.position();
+                return new Node[] { Node.leaf(true, node.start, bytes, offset, lineFeeds),
+                                    Node.leaf(true, node.start + bytes, node.bytes - bytes, node.length - offset,
+                                              node.lineFeeds - lineFeeds) };
+            }
+            // Move the piece to the added text, where it can be cut anywhere
+            int start = added.length();
+            added.append(text);
+            node = Node.leaf(false, start, 0, node.length, node.lineFeeds);
+        }
+        return new Node[] { Node.leaf(false, node.start, 0, offset, lineFeeds),
+                            Node.leaf(false, node.start + offset, 0, node.length - offset,
+                                      node.lineFeeds - lineFeeds) };
+    }
+
+    private CharSequence text(Node node) {
+        if (node.original) {
+            return CharBuffer.wrap(decode(node), 0, node.length);
+        }
+        return CharBuffer.wrap(added, (int) node.start, (int) node.start + node.length);
+    }
+
+    private char[] decode(Node node) {
+        char[] chars = decoded.get(node.start);
+        if (chars == null || chars.length < node.length) {
+            CharBuffer out = CharBuffer.allocate(node.length);
+            CharsetDecoder decoder = decoder();
+            decoder.decode(bytes(node.start, node.bytes), out, true);
+            decoder.flush(out);
+            chars = out.array();
+            decoded.put(node.start, chars);
+        }
+        return chars;
+    }
+
+    /**
+     * Pieces of the original text from the byte <code>from</code> on, about <code>bytes</code> bytes of it, decoded
+     * to count their characters and line feeds. The table is not changed, so a thread can index the text while
+     * another one uses the table.
+     *
+     * @return the pieces, to be appended to the table by {@link #append(Batch)}
+     */
+    Batch index(long from, long bytes) {
+        // Cartesian tree of random priorities, built in linear time as the BracketIndex is
+        Deque<Node> spine = new ArrayDeque<>();
+        CharsetDecoder decoder = decoder();
+        CharBuffer out = CharBuffer.allocate((int) Math.ceil(PIECE_SIZE * (double) decoder.maxCharsPerByte()) + 1);
+        long position = from;
+        long end = Math.min(size, from + bytes);
+        while (position < end) {
+            int length = (int) Math.min(PIECE_SIZE, size - position);
+            ByteBuffer in = bytes(position, length);
+            boolean endOfInput = position + length == size;
+            decoder.reset();
+            out.clear();
+            CoderResult result = decoder.decode(in, out, endOfInput);
+            if (endOfInput) {
+                decoder.flush(out);
+            }
+            int decoded = in.position();
+            if (result.isOverflow() || decoded == 0) {
+                throw new IllegalStateException("Can not decode " + charset + " at byte " + position);
+            }
+            Node node = Node.leaf(true, position, decoded, out.position(), lineFeeds(out.flip(), 0, out.limit()));
+            Node popped = null;
+            while (!spine.isEmpty() && spine.peek().priority < node.priority) {
+                Node top = spine.pop();
+                popped = top.with(top.left, popped);
+            }
+            spine.push(popped == null ? node : node.with(popped, null));
+            position += decoded;
+        }
+        Node child = null;
+        while (!spine.isEmpty()) {
+            Node top = spine.pop();
+            child = top.with(top.left, child);
+        }
+        return new Batch(child, from, position);
+    }
+
+    /**
+     * Append pieces of the original text indexed by {@link #index(long, long)}, following the ones indexed before.
+     */
+    void append(Batch batch) {
+        if (batch.start() != indexed) {
+            throw new IllegalStateException("Batch from byte " + batch.start() + " does not follow byte " + indexed);
+        }
+        root = merge(root, batch.pieces());
+        indexed = batch.end();
+    }
+
+    /**
+     * First byte of the original text not indexed yet.
+     */
+    long indexed() {
+        return indexed;
+    }
+
+    /**
+     * Whether the whole original text is indexed.
+     */
+    boolean isIndexed() {
+        return indexed == size;
+    }
+
+    /**
+     * Size in bytes of the original text.
+     */
+    long size() {
+        return size;
+    }
+
+    private static int byteOrderMark(ByteBuffer bytes, Charset charset) {
+        byte[] mark;
+        if (charset.equals(StandardCharsets.UTF_8)) {
+            mark = new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+        } else if (charset.equals(StandardCharsets.UTF_16BE)) {
+            mark = new byte[] { (byte) 0xFE, (byte) 0xFF };
+        } else if (charset.equals(StandardCharsets.UTF_16LE)) {
+            mark = new byte[] { (byte) 0xFF, (byte) 0xFE };
+        } else {
+            return 0;
+        }
+        if (bytes.limit() < mark.length) {
+            return 0;
+        }
+        for (int i = 0; i < mark.length; ++i) {
+            if (bytes.get(i) != mark[i]) {
+                return 0;
+            }
+        }
+        return mark.length;
+    }
+
+    private CharsetDecoder decoder() {
+        return charset.newDecoder()
+                      .onMalformedInput(CodingErrorAction.REPLACE)
+                      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Bytes of the original text, sliced from their region or copied when they cross two regions.
+     */
+    private ByteBuffer bytes(long start, int length) {
+        int region = (int) (start / REGION_SIZE);
+        int offset = (int) (start % REGION_SIZE);
+        if (offset + length <= regions[region].limit()) {
+            return regions[region].slice(offset, length);
+        }
+        ByteBuffer copy = ByteBuffer.allocate(length);
+        int first = regions[region].limit() - offset;
+        copy.put(regions[region].slice(offset, first));
+        copy.put(regions[region + 1].slice(0, length - first));
+        return copy.flip();
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            return left.with(left.left, merge(left.right, right));
+        }
+        return right.with(merge(left, right.left), right.right);
+    }
+
+    private static int lineFeeds(CharSequence text, int start, int end) {
+        int count = 0;
+        for (int i = start; i < end; ++i) {
+            if (text.charAt(i) == '\n') {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    private static long chars(Node node) {
+        return node == null ? 0 : node.chars;
+    }
+
+    private static long feeds(Node node) {
+        return node == null ? 0 : node.feeds;
+    }
+}
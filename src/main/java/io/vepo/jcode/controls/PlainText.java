@@ -0,0 +1,26 @@
+package io.vepo.jcode.controls;
+
+import org.fxmisc.richtext.CodeArea;
+import org.fxmisc.richtext.LineNumberFactory;
+
+/**
+ * Editor of the files with no known language, like logs and dumps: line numbers and font, but nothing is lexed.
+ */
+public final class PlainText {
+
+    static final String CSS_CLASS = "plain-text";
+
+    private PlainText() {
+    }
+
+    public static void configureCodeArea(CodeArea codeArea) {
+        // Set up line numbers
+        codeArea.setParagraphGraphicFactory(LineNumberFactory.get(codeArea));
+
+        // Apply CSS class to the CodeArea
+        codeArea.getStyleClass().add(CSS_CLASS);
+
+        // Set font using CSS
+        codeArea.setStyle("-fx-font-family: 'Consolas'; -fx-font-size: 14px;");
+    }
+}
@@ -0,0 +1,115 @@
+package io.vepo.jcode.controls;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * {@link ParagraphLexer} driven by a named-group alternation. The alternation is matched inside a single
+ * paragraph; constructs that can span several paragraphs, like block comments, are declared as {@link Block}s and
+ * become the lexer state when they are left open at the end of a paragraph.
+ */
+final class RegexParagraphLexer implements ParagraphLexer {
+
+    /**
+     * A construct that may continue on the following paragraphs when it is not closed on the one it was opened.
+     */
+    record Block(Pattern open, Pattern close, int type) {
+
+        static Block of(String open, String close, String styleClass) {
+            return new Block(Pattern.compile(open), Pattern.compile(close), TokenTypes.of(styleClass));
+        }
+    }
+
+    private final Pattern pattern;
+    private final String[] groups;
+    private final int[] types;
+    private final Block[] blocks;
+
+    /**
+     * @param pattern      alternation of named groups
+     * @param groups       group names, in the order they are checked
+     * @param styleClasses style class of each group
+     * @param blocks       multi-paragraph constructs, state <code>i + 1</code> means "inside <code>blocks[i]</code>"
+     */
+    RegexParagraphLexer(Pattern pattern, String[] groups, String[] styleClasses, Block... blocks) {
+        if (groups.length != styleClasses.length) {
+            throw new IllegalArgumentException("Each group must have a style class!");
+        }
+        this.pattern = pattern;
+        this.groups = groups.clone();
+        this.types = new int[styleClasses.length];
+        for (int i = 0; i < styleClasses.length; ++i) {
+            types[i] = TokenTypes.of(styleClasses[i]);
+        }
+        this.blocks = blocks.clone();
+    }
+
+    @Override
+    public int lexParagraph(CharSequence text, int start, int end, int state, TokenSink sink) {
+        int pos = start;
+        if (state != INITIAL_STATE) {
+            Block block = blocks[state - 1];
+            Matcher close = block.close().matcher(text).region(pos, end);
+            if (!close.find()) {
+                sink.token(pos, end, block.type());
+                return state;
+            }
+            sink.token(pos, close.end(), block.type());
+            pos = close.end();
+        }
+
+        Matcher matcher = pattern.matcher(text).useTransparentBounds(true);
+        Matcher[] openers = new Matcher[blocks.length];
+        int[] nextOpen = new int[blocks.length];
+        for (int i = 0; i < blocks.length; ++i) {
+            openers[i] = blocks[i].open().matcher(text).useTransparentBounds(true);
+            nextOpen[i] = -1;
+        }
+
+        while (pos < end) {
+            boolean found = matcher.region(pos, end).find();
+            int tokenStart = found ? matcher.start() : end;
+
+            // An opener the alternation could not match before the next token is left open on this paragraph
+            int blockIndex = -1;
+            int blockStart = tokenStart;
+            for (int i = 0; i < blocks.length; ++i) {
+                if (nextOpen[i] != Integer.MAX_VALUE && nextOpen[i] < pos) {
+                    nextOpen[i] = openers[i].region(pos, end).find() ? openers[i].start() : Integer.MAX_VALUE;
+                }
+                if (nextOpen[i] < blockStart) {
+                    blockIndex = i;
+                    blockStart = nextOpen[i];
+                }
+            }
+
+            if (blockIndex >= 0) {
+                Block block = blocks[blockIndex];
+                Matcher opener = openers[blockIndex].region(blockStart, end);
+                int contentStart = opener.lookingAt() ? opener.end() : blockStart;
+                Matcher close = block.close().matcher(text).region(contentStart, end);
+                if (!close.find()) {
+                    sink.token(blockStart, end, block.type());
+                    return blockIndex + 1;
+                }
+                sink.token(blockStart, close.end(), block.type());
+                pos = close.end();
+            } else if (found) {
+                sink.token(matcher.start(), matcher.end(), type(matcher));
+                pos = Math.max(matcher.end(), matcher.start() + 1);
+            } else {
+                pos = end;
+            }
+        }
+        return INITIAL_STATE;
+    }
+
+    private int type(Matcher matcher) {
+        for (int i = 0; i < groups.length; ++i) {
+            if (matcher.start(groups[i]) != -1) {
+                return types[i];
+            }
+        }
+        return TokenTypes.NONE;
+    }
+}
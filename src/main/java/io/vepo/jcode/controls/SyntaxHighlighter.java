@@ -1,105 +0,0 @@
-package io.vepo.jcode.controls;
-
-import java.time.Duration;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import org.fxmisc.richtext.CodeArea;
-import org.fxmisc.richtext.LineNumberFactory;
-import org.fxmisc.richtext.model.StyleSpans;
-import org.fxmisc.richtext.model.StyleSpansBuilder;
-
-import javafx.scene.text.Font;
-
-public class SyntaxHighlighter {
-    
-    private static final String[] KEYWORDS = new String[] {
-        "abstract", "assert", "boolean", "break", "byte",
-        "case", "catch", "char", "class", "const",
-        "continue", "default", "do", "double", "else",
-        "enum", "extends", "final", "finally", "float",
-        "for", "goto", "if", "implements", "import",
-        "instanceof", "int", "interface", "long", "native",
-        "new", "package", "private", "protected", "public",
-        "return", "short", "static", "strictfp", "super",
-        "switch", "synchronized", "this", "throw", "throws",
-        "transient", "try", "void", "volatile", "while",
-        "var", "record", "sealed", "permits", "non-sealed",
-        "yield", "when"
-    };
-
-    private static final String KEYWORD_PATTERN = "\\b(" + String.join("|", KEYWORDS) + ")\\b";
-    private static final String PAREN_PATTERN = "\\(|\\)";
-    private static final String BRACE_PATTERN = "\\{|\\}";
-    private static final String BRACKET_PATTERN = "\\[|\\]";
-    private static final String SEMICOLON_PATTERN = "\\;";
-    private static final String STRING_PATTERN = "\"([^\"\\\\]|\\\\.)*\"";
-    private static final String CHAR_PATTERN = "'([^'\\\\]|\\\\.)*'";
-    private static final String COMMENT_PATTERN = "//[^\n]*|/\\*(.|\\R)*?\\*/";
-    private static final String NUMBER_PATTERN = "\\b\\d+(\\.\\d+)?\\b";
-    private static final String ANNOTATION_PATTERN = "@\\w+";
-
-    private static final Pattern PATTERN = Pattern.compile(
-        "(?<KEYWORD>" + KEYWORD_PATTERN + ")"
-        + "|(?<PAREN>" + PAREN_PATTERN + ")"
-        + "|(?<BRACE>" + BRACE_PATTERN + ")"
-        + "|(?<BRACKET>" + BRACKET_PATTERN + ")"
-        + "|(?<SEMICOLON>" + SEMICOLON_PATTERN + ")"
-        + "|(?<STRING>" + STRING_PATTERN + ")"
-        + "|(?<CHAR>" + CHAR_PATTERN + ")"
-        + "|(?<COMMENT>" + COMMENT_PATTERN + ")"
-        + "|(?<NUMBER>" + NUMBER_PATTERN + ")"
-        + "|(?<ANNOTATION>" + ANNOTATION_PATTERN + ")"
-    );
-
-    public static void configureCodeArea(CodeArea codeArea) {
-        // Set up line numbers
-        codeArea.setParagraphGraphicFactory(LineNumberFactory.get(codeArea));
-        
-        // Set up styling
-        codeArea.getStylesheets().add(SyntaxHighlighter.class.getResource("/css/java-keywords.css").toExternalForm());
-        
-        // Apply CSS class to the CodeArea
-        codeArea.getStyleClass().add("java-code");
-        
-        // Set font using CSS
-        codeArea.setStyle("-fx-font-family: 'Consolas'; -fx-font-size: 14px;");
-        
-        // Set up syntax highlighting
-        codeArea.multiPlainChanges()
-                .successionEnds(Duration.ofMillis(500))
-                .subscribe(ignore -> codeArea.setStyleSpans(0, computeHighlighting(codeArea.getText())));
-        
-        // Apply initial highlighting
-        codeArea.setStyleSpans(0, computeHighlighting(codeArea.getText()));
-    }
-
-    private static StyleSpans<Collection<String>> computeHighlighting(String text) {
-        Matcher matcher = PATTERN.matcher(text);
-        int lastKwEnd = 0;
-        StyleSpansBuilder<Collection<String>> spansBuilder = new StyleSpansBuilder<>();
-        
-        while (matcher.find()) {
-            String styleClass =
-                matcher.group("KEYWORD") != null ? "keyword" :
-                matcher.group("PAREN") != null ? "paren" :
-                matcher.group("BRACE") != null ? "brace" :
-                matcher.group("BRACKET") != null ? "bracket" :
-                matcher.group("SEMICOLON") != null ? "semicolon" :
-                matcher.group("STRING") != null ? "string" :
-                matcher.group("CHAR") != null ? "char" :
-                matcher.group("COMMENT") != null ? "comment" :
-                matcher.group("NUMBER") != null ? "number" :
-                matcher.group("ANNOTATION") != null ? "annotation" :
-                null; /* never happens */
-            
-            spansBuilder.add(Collections.emptyList(), matcher.start() - lastKwEnd);
-            spansBuilder.add(Collections.singleton(styleClass), matcher.end() - matcher.start());
-            lastKwEnd = matcher.end();
-        }
-        spansBuilder.add(Collections.emptyList(), text.length() - lastKwEnd);
-        return spansBuilder.create();
-    }
-} 
\ No newline at end of file
@@ -0,0 +1,81 @@
+package io.vepo.jcode.controls;
+
+/**
+ * Accumulates the edits made to a document since it was last highlighted as a single damaged region: the old text
+ * <code>[start, oldEnd)</code> was replaced by the current text <code>[start, newEnd)</code>.
+ */
+final class TextDamage {
+
+    private boolean empty = true;
+    private int start;
+    private int oldEnd;
+    private int newEnd;
+
+    /**
+     * Record that the current text <code>[position, position + removed)</code> was replaced by
+     * <code>inserted</code> characters.
+     */
+    void add(int position, int removed, int inserted) {
+        if (empty) {
+            start = position;
+            oldEnd = position + removed;
+            newEnd = position + inserted;
+            empty = false;
+        } else {
+            int coveredEnd = Math.max(newEnd, position + removed);
+            oldEnd += coveredEnd - newEnd;
+            newEnd = coveredEnd + inserted - removed;
+            start = Math.min(start, position);
+        }
+    }
+
+    /**
+     * Record that the current text was damaged again, <code>other</code> being relative to the text this damage
+     * ends with.
+     */
+    void add(TextDamage other) {
+        if (!other.empty) {
+            add(other.start, other.oldEnd - other.start, other.newEnd - other.start);
+        }
+    }
+
+    /**
+     * Map the start of a range of the old text to the current text.
+     */
+    int mapStart(int offset) {
+        if (empty || offset <= start) {
+            return offset;
+        }
+        return offset >= oldEnd ? offset + newEnd - oldEnd : start;
+    }
+
+    /**
+     * Map the end of a range of the old text to the current text.
+     */
+    int mapEnd(int offset) {
+        if (empty || offset <= start) {
+            return offset;
+        }
+        return offset >= oldEnd ? offset + newEnd - oldEnd : newEnd;
+    }
+
+    void clear() {
+        empty = true;
+    }
+
+    boolean isEmpty() {
+        return empty;
+    }
+
+    int start() {
+        return start;
+    }
+
+    int oldEnd() {
+        return oldEnd;
+    }
+
+    int newEnd() {
+        return newEnd;
+    }
+}
@@ -0,0 +1,84 @@
+package io.vepo.jcode.controls;
+
+import java.util.Arrays;
+
+/**
+ * Growable buffer of tokens packed in a single int array as <code>(start, length, type)</code> triples. A buffer
+ * is meant to be cleared and reused, so lexing does not create an object per token.
+ */
+public final class TokenBuffer implements ParagraphLexer.TokenSink {
+
+    /**
+     * Number of ints used by each token.
+     */
+    public static final int TOKEN_SIZE = 3;
+
+    private static final int[] EMPTY = new int[0];
+
+    private int[] tokens;
+    private int size;
+
+    public TokenBuffer() {
+        this(64);
+    }
+
+    public TokenBuffer(int capacity) {
+        this.tokens = new int[Math.max(capacity, 1) * TOKEN_SIZE];
+    }
+
+    @Override
+    public void token(int start, int end, int type) {
+        int index = size * TOKEN_SIZE;
+        if (index + TOKEN_SIZE > tokens.length) {
+            tokens = Arrays.copyOf(tokens, tokens.length * 2);
+        }
+        tokens[index] = start;
+        tokens[index + 1] = end - start;
+        tokens[index + 2] = type;
+        ++size;
+    }
+
+    /**
+     * Number of tokens.
+     */
+    public int size() {
+        return size;
+    }
+
+    public int start(int token) {
+        return tokens[checkIndex(token) * TOKEN_SIZE];
+    }
+
+    public int length(int token) {
+        return tokens[checkIndex(token) * TOKEN_SIZE + 1];
+    }
+
+    public int type(int token) {
+        return tokens[checkIndex(token) * TOKEN_SIZE + 2];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Copy of the packed tokens, with starts made relative to <code>origin</code>.
+     */
+    public int[] toArray(int origin) {
+        if (size == 0) {
+            return EMPTY;
+        }
+        int[] copy = Arrays.copyOf(tokens, size * TOKEN_SIZE);
+        for (int i = 0; i < copy.length; i += TOKEN_SIZE) {
+            copy[i] -= origin;
+        }
+        return copy;
+    }
+
+    private int checkIndex(int token) {
+        if (token < 0 || token >= size) {
+            throw new IndexOutOfBoundsException("Token " + token + " of " + size);
+        }
+        return token;
+    }
+}
@@ -0,0 +1,160 @@
+package io.vepo.jcode.controls;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded cache of the tokens of whole documents, shared by all the editors, so reopening an unchanged file skips
+ * lexing. Documents are keyed by their lexer and a hash of their content.
+ * <p>
+ * Each entry is weighed by an estimate of the memory it holds: the least recently used entries are evicted once
+ * the budget is exceeded, and entries are softly referenced, so any of them can be collected under memory
+ * pressure. Hits and misses are counted to size the budget.
+ */
+public final class TokenCache {
+
+    static final long DEFAULT_BUDGET = 64L * 1024 * 1024;
+
+    private static final TokenCache SHARED = new TokenCache(DEFAULT_BUDGET);
+
+    // Estimated bytes held for each paragraph besides its tokens: array header, list slot, checkpoint and node of
+    // the bracket index
+    private static final int PARAGRAPH_OVERHEAD = 120;
+
+    /**
+     * Tokens of a whole document, never modified once cached.
+     */
+    record Entry(LexerCheckpoints checkpoints, List<int[]> tokens, BracketIndex brackets) {
+    }
+
+    private record Key(ParagraphLexer lexer, int length, long hash) {
+    }
+
+    private record Slot(SoftReference<Entry> entry, long bytes) {
+    }
+
+    private final long budget;
+    private final LinkedHashMap<Key, Slot> slots;
+    private long bytes;
+    private long hits;
+    private long misses;
+
+    TokenCache(long budget) {
+        this.budget = budget;
+        this.slots = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Cache shared by all the editors.
+     */
+    public static TokenCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Tokens of the text, if cached for the lexer. The entry must not be modified.
+     */
+    Entry get(ParagraphLexer lexer, CharSequence text) {
+        Key key = key(lexer, text);
+        synchronized (this) {
+            Slot slot = slots.get(key);
+            Entry entry = slot == null ? null : slot.entry().get();
+            if (entry == null) {
+                if (slot != null) {
+                    // Collected under memory pressure
+                    remove(key);
+                }
+                ++misses;
+                return null;
+            }
+            ++hits;
+            return entry;
+        }
+    }
+
+    /**
+     * Cache a copy of the tokens of the text, evicting the least recently used entries over the budget. Documents
+     * taking more than half of the budget are not cached.
+     */
+    void put(ParagraphLexer lexer, CharSequence text, LexerCheckpoints checkpoints, List<int[]> tokens,
+             BracketIndex brackets) {
+        long entryBytes = (long) checkpoints.size() * PARAGRAPH_OVERHEAD;
+        for (int[] paragraphTokens : tokens) {
+            entryBytes += (long) paragraphTokens.length * Integer.BYTES;
+        }
+        if (entryBytes > budget / 2) {
+            return;
+        }
+
+        // Token arrays and bracket indexes are never modified, only the lists holding them
+        LexerCheckpoints checkpointsCopy = new LexerCheckpoints(checkpoints.size());
+        checkpointsCopy.replace(0, 0, checkpoints);
+        Entry entry = new Entry(checkpointsCopy, new ArrayList<>(tokens), brackets);
+        Key key = key(lexer, text);
+        synchronized (this) {
+            remove(key);
+            slots.put(key, new Slot(new SoftReference<>(entry), entryBytes));
+            bytes += entryBytes;
+            Iterator<Map.Entry<Key, Slot>> eldest = slots.entrySet().iterator();
+            while (bytes > budget && eldest.hasNext()) {
+                bytes -= eldest.next().getValue().bytes();
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Number of lookups that found the tokens of the document.
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * Number of lookups that did not find the tokens of the document.
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Number of documents cached.
+     */
+    public synchronized int size() {
+        return slots.size();
+    }
+
+    /**
+     * Estimated memory, in bytes, held by the documents cached.
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Maximum memory, in bytes, held by the documents cached.
+     */
+    public long budget() {
+        return budget;
+    }
+
+    private void remove(Key key) {
+        Slot slot = slots.remove(key);
+        if (slot != null) {
+            bytes -= slot.bytes();
+        }
+    }
+
+    private static Key key(ParagraphLexer lexer, CharSequence text) {
+        // 64 bits FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); ++i) {
+            hash = (hash ^ text.charAt(i)) * 0x100000001b3L;
+        }
+        return new Key(lexer, text.length(), hash);
+    }
+}
@@ -0,0 +1,59 @@
+package io.vepo.jcode.controls;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Registry of token types. Lexers emit a token type as an int id, and every id stands for a style class whose
+ * style collection is created once and shared by all the spans of that type.
+ */
+public final class TokenTypes {
+
+    /**
+     * Token type of text without any style.
+     */
+    public static final int NONE = 0;
+
+    private static final Map<String, Integer> IDS = new HashMap<>();
+    private static volatile String[] styleClasses = { null };
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static volatile Collection<String>[] styles = new Collection[] { Collections.emptyList() };
+
+    private TokenTypes() {
+    }
+
+    /**
+     * Id of the token type styled with the given style class, registering it if needed.
+     */
+    public static synchronized int of(String styleClass) {
+        Integer id = IDS.get(styleClass);
+        if (id == null) {
+            id = styleClasses.length;
+            String[] newStyleClasses = Arrays.copyOf(styleClasses, id + 1);
+            newStyleClasses[id] = styleClass;
+            Collection<String>[] newStyles = Arrays.copyOf(styles, id + 1);
+            newStyles[id] = Collections.singletonList(styleClass);
+            IDS.put(styleClass, id);
+            styles = newStyles;
+            styleClasses = newStyleClasses;
+        }
+        return id;
+    }
+
+    /**
+     * Style class of a token type, <code>null</code> for {@link #NONE}.
+     */
+    public static String styleClass(int type) {
+        return styleClasses[type];
+    }
+
+    /**
+     * Shared style collection of a token type.
+     */
+    public static Collection<String> styles(int type) {
+        return styles[type];
+    }
+}
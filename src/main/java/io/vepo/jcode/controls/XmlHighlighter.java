@@ -1,20 +1,19 @@
 package io.vepo.jcode.controls;
 
-import java.time.Duration;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.regex.Matcher;
+import java.util.Optional;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import org.fxmisc.richtext.CodeArea;
 import org.fxmisc.richtext.LineNumberFactory;
 import org.fxmisc.richtext.model.StyleSpans;
-import org.fxmisc.richtext.model.StyleSpansBuilder;
 
 public class XmlHighlighter implements LanguageHighlighter {
     
+    // The pattern is only kept for getPattern(), highlighting is done by the MarkupLexer
     private static final String TAG_PATTERN = "<[^>]*>";
-    private static final String COMMENT_PATTERN = "<!--[^-]*-->";
+    private static final String COMMENT_PATTERN = "<!--(.|\\R)*?-->";
     private static final String STRING_PATTERN = "\"([^\"\\\\]|\\\\.)*\"";
     private static final String ATTRIBUTE_PATTERN = "\\b\\w+\\s*=";
     private static final String CDATA_PATTERN = "<!\\[CDATA\\[.*?\\]\\]>";
@@ -27,6 +26,10 @@ public class XmlHighlighter implements LanguageHighlighter {
         + "|(?<CDATA>" + CDATA_PATTERN + ")"
     );
 
+    private static final String STYLESHEET = XmlHighlighter.class.getResource("/css/xml-keywords.css").toExternalForm();
+
+    private static final MarkupLexer LEXER = new MarkupLexer(false);
+
     @Override
     public Pattern getPattern() {
         return PATTERN;
@@ -39,25 +42,12 @@ public class XmlHighlighter implements LanguageHighlighter {
 
     @Override
     public StyleSpans<Collection<String>> computeHighlighting(String text) {
-        Matcher matcher = PATTERN.matcher(text);
-        int lastKwEnd = 0;
-        StyleSpansBuilder<Collection<String>> spansBuilder = new StyleSpansBuilder<>();
-        
-        while (matcher.find()) {
-            String styleClass =
-                matcher.group("TAG") != null ? "tag" :
-                matcher.group("COMMENT") != null ? "comment" :
-                matcher.group("STRING") != null ? "string" :
-                matcher.group("ATTRIBUTE") != null ? "attribute" :
-                matcher.group("CDATA") != null ? "cdata" :
-                null;
-            
-            spansBuilder.add(Collections.emptyList(), matcher.start() - lastKwEnd);
-            spansBuilder.add(Collections.singleton(styleClass), matcher.end() - matcher.start());
-            lastKwEnd = matcher.end();
-        }
-        spansBuilder.add(Collections.emptyList(), text.length() - lastKwEnd);
-        return spansBuilder.create();
+        return HighlightingModel.computeHighlighting(LEXER, text);
+    }
+
+    @Override
+    public Optional<ParagraphLexer> getParagraphLexer() {
+        return Optional.of(LEXER);
     }
 
     @Override
@@ -66,7 +56,7 @@ public class XmlHighlighter implements LanguageHighlighter {
         codeArea.setParagraphGraphicFactory(LineNumberFactory.get(codeArea));
         
         // Set up styling
-        codeArea.getStylesheets().add(XmlHighlighter.class.getResource("/css/xml-keywords.css").toExternalForm());
+        codeArea.getStylesheets().add(STYLESHEET);
         
         // Apply CSS class to the CodeArea
         codeArea.getStyleClass().add(getCssClass());
@@ -75,16 +65,11 @@ public class XmlHighlighter implements LanguageHighlighter {
         codeArea.setStyle("-fx-font-family: 'Consolas'; -fx-font-size: 14px;");
         
         // Set up syntax highlighting
-        codeArea.multiPlainChanges()
-                .successionEnds(Duration.ofMillis(500))
-                .subscribe(ignore -> codeArea.setStyleSpans(0, computeHighlighting(codeArea.getText())));
-        
-        // Apply initial highlighting
-        codeArea.setStyleSpans(0, computeHighlighting(codeArea.getText()));
+        HighlightingSession.install(codeArea, LEXER);
     }
 
     @Override
-    public boolean supportsFileExtension(String extension) {
-        return "xml".equalsIgnoreCase(extension);
+    public Set<String> getFileExtensions() {
+        return Set.of("xml");
     }
 } 
\ No newline at end of file
@@ -0,0 +1,13 @@
+package io.vepo.jcode.events;
+
+import java.io.File;
+
+import javafx.concurrent.Worker;
+
+/**
+ * A chunk of the text of a file streamed while it is read, the first one opens the file and the last one completes
+ * it. Chunks of the same stream have the same worker, cancelling it stops reading the file.
+ */
+public record LoadingFileEvent(File file, Worker<?> stream, String text, boolean first, boolean last) implements Event {
+
+}
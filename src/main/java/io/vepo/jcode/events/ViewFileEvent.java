@@ -0,0 +1,11 @@
+package io.vepo.jcode.events;
+
+import java.io.File;
+import java.nio.charset.Charset;
+
+/**
+ * A file too large for the code area, to be opened in a line editor over the mapped file.
+ */
+public record ViewFileEvent(File file, Charset charset) implements Event {
+
+}
@@ -0,0 +1,69 @@
+package io.vepo.jcode.services;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+import io.vepo.jcode.events.LoadingFileEvent;
+import javafx.concurrent.Worker;
+
+/**
+ * Groups the chunks of a streamed file into batches, with a single batch in flight to the UI thread: while the UI
+ * appends a batch the next one grows, so batches get larger when the UI is slower than the disk.
+ */
+final class ChunkBatcher implements FileLoader.Chunks {
+
+    private final File file;
+    private final Worker<?> stream;
+    private final Consumer<LoadingFileEvent> sink;
+    private final Executor uiThread;
+    private final Semaphore inFlight = new Semaphore(1);
+    private final StringBuilder pending = new StringBuilder();
+    private boolean first = true;
+
+    /**
+     * @param stream   the worker reading the file
+     * @param sink     delivers a batch to the UI thread
+     * @param uiThread runs a task on the UI thread, after the batches delivered before
+     */
+    ChunkBatcher(File file, Worker<?> stream, Consumer<LoadingFileEvent> sink, Executor uiThread) {
+        this.file = file;
+        this.stream = stream;
+        this.sink = sink;
+        this.uiThread = uiThread;
+    }
+
+    @Override
+    public void chunk(char[] chars, int offset, int length) {
+        pending.append(chars, offset, length);
+        if (inFlight.tryAcquire()) {
+            deliver(false);
+        }
+    }
+
+    /**
+     * Deliver the rest of the file, after the batch in flight.
+     */
+    void finish() throws InterruptedException {
+        inFlight.acquire();
+        deliver(true);
+    }
+
+    private void deliver(boolean last) {
+        // A carriage return can be followed by a line feed in the next chunk, both must end the same paragraph
+        int length = pending.length();
+        if (!last && length > 0 && pending.charAt(length - 1) == '\r') {
+            --length;
+        }
+        if (length == 0 && !first && !last) {
+            inFlight.release();
+            return;
+        }
+        String text = pending.substring(0, length);
+        pending.delete(0, length);
+        sink.accept(new LoadingFileEvent(file, stream, text, first, last));
+        first = false;
+        uiThread.execute(inFlight::release);
+    }
+}
@@ -0,0 +1,263 @@
+package io.vepo.jcode.services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a whole file in a single pass over a {@link FileChannel} into a buffer of the size of the file, and decodes
+ * it at once, or streams it decoded chunk by chunk. Line endings are kept as they are in the file, the editor splits
+ * paragraphs on any of them.
+ * <p>
+ * Without an explicit charset, the byte order mark chooses it, otherwise the file is read as UTF-8 if it is valid
+ * UTF-8, and as ISO-8859-1 if it is not, since any byte sequence is valid ISO-8859-1. A streamed file is checked
+ * only on its first chunk, invalid UTF-8 found later is replaced.
+ */
+final class FileLoader {
+
+    /**
+     * Largest file that fits a single array.
+     */
+    static final long MAX_SIZE = Integer.MAX_VALUE - 8;
+
+    /**
+     * Bytes read at once, the channel copies each read through a temporary direct buffer of this size.
+     */
+    static final int CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * Most progress updates of a load, besides the last one.
+     */
+    static final int PROGRESS_UPDATES = 100;
+
+    static final Charset FALLBACK_CHARSET = StandardCharsets.ISO_8859_1;
+
+    private static final byte[] UTF_8_BOM = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+    private static final byte[] UTF_16BE_BOM = { (byte) 0xFE, (byte) 0xFF };
+    private static final byte[] UTF_16LE_BOM = { (byte) 0xFF, (byte) 0xFE };
+
+    /**
+     * Text of a file and the charset it was decoded with.
+     */
+    record Content(String text, Charset charset) {
+    }
+
+    /**
+     * Receives the number of bytes read of a file.
+     */
+    @FunctionalInterface
+    interface Progress {
+        void update(long loaded, long total);
+    }
+
+    /**
+     * Receives the text of a streamed file, chunk by chunk. The chunk is only valid during the call.
+     */
+    @FunctionalInterface
+    interface Chunks {
+        void chunk(char[] chars, int offset, int length);
+    }
+
+    private FileLoader() {
+    }
+
+    /**
+     * Read and decode a file.
+     *
+     * @param charset the charset of the file, or <code>null</code> to detect it
+     * @throws IOException if the file cannot be read or is larger than {@link #MAX_SIZE}
+     */
+    static Content load(Path path, Charset charset, Progress progress) throws IOException {
+        byte[] bytes;
+        int length;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > MAX_SIZE) {
+                throw new IOException("File " + path + " is too large to load: " + size + " bytes");
+            }
+            bytes = new byte[(int) size];
+            length = read(channel, ByteBuffer.wrap(bytes), progress);
+        }
+        return decode(bytes, length, charset);
+    }
+
+    private static int read(FileChannel channel, ByteBuffer buffer, Progress progress) throws IOException {
+        int size = buffer.capacity();
+        long step = Math.max(CHUNK_SIZE, size / PROGRESS_UPDATES);
+        long reported = 0;
+        while (buffer.position() < size) {
+            buffer.limit(Math.min(size, buffer.position() + CHUNK_SIZE));
+            if (channel.read(buffer) < 0) {
+                // The file was truncated while being read
+                break;
+            }
+            if (buffer.position() - reported >= step) {
+                reported = buffer.position();
+                progress.update(reported, size);
+            }
+        }
+        progress.update(buffer.position(), buffer.position());
+        return buffer.position();
+    }
+
+    /**
+     * Read a file, decoding its text chunk by chunk as it is read.
+     *
+     * @param charset the charset of the file, or <code>null</code> to detect it
+     * @return the charset the file was decoded with
+     * @throws IOException if the file cannot be read
+     */
+    static Charset stream(Path path, Charset charset, Chunks chunks, Progress progress) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long step = Math.max(CHUNK_SIZE, size / PROGRESS_UPDATES);
+            long reported = 0;
+            ByteBuffer in = ByteBuffer.allocate(CHUNK_SIZE);
+            CharsetDecoder decoder = null;
+            CharBuffer out = null;
+            boolean endOfInput = false;
+            while (!endOfInput) {
+                while (in.hasRemaining() && !endOfInput) {
+                    endOfInput = channel.read(in) < 0;
+                }
+                in.flip();
+                if (decoder == null) {
+                    charset = charset(in, charset);
+                    if (charset == null) {
+                        charset = isUtf8(in.duplicate(), endOfInput) ? StandardCharsets.UTF_8 : FALLBACK_CHARSET;
+                    }
+                    decoder = charset.newDecoder()
+                                     .onMalformedInput(CodingErrorAction.REPLACE)
+                                     .onUnmappableCharacter(CodingErrorAction.REPLACE);
+                    out = CharBuffer.allocate((int) Math.ceil(CHUNK_SIZE * (double) decoder.maxCharsPerByte()));
+                }
+                CoderResult result = decoder.decode(in, out, endOfInput);
+                while (result.isOverflow()) {
+                    emit(out, chunks);
+                    result = decoder.decode(in, out, endOfInput);
+                }
+                if (endOfInput) {
+                    while (decoder.flush(out).isOverflow()) {
+                        emit(out, chunks);
+                    }
+                }
+                emit(out, chunks);
+                in.compact();
+
+                long loaded = channel.position();
+                if (loaded - reported >= step) {
+                    reported = loaded;
+                    progress.update(loaded, Math.max(size, loaded));
+                }
+            }
+            progress.update(channel.position(), channel.position());
+            return charset;
+        }
+    }
+
+    /**
+     * Detect the charset of a file from its first chunk, as a streamed file.
+     *
+     * @param charset the charset of the file, or <code>null</code> to detect it
+     * @throws IOException if the file cannot be read
+     */
+    static Charset detect(Path path, Charset charset) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer in = ByteBuffer.allocate((int) Math.min(CHUNK_SIZE, channel.size()));
+            boolean endOfInput = false;
+            while (in.hasRemaining() && !endOfInput) {
+                endOfInput = channel.read(in) < 0;
+            }
+            in.flip();
+            charset = charset(in, charset);
+            if (charset == null) {
+                charset = isUtf8(in, channel.position() == channel.size()) ? StandardCharsets.UTF_8
+                                                                           : FALLBACK_CHARSET;
+            }
+            return charset;
+        }
+    }
+
+    private static void emit(CharBuffer out, Chunks chunks) {
+        if (out.position() > 0) {
+            chunks.chunk(out.array(), out.arrayOffset(), out.position());
+        }
+        out.clear();
+    }
+
+    private static Content decode(byte[] bytes, int length, Charset charset) {
+        ByteBuffer in = ByteBuffer.wrap(bytes, 0, length);
+        charset = charset(in, charset);
+        if (charset != null) {
+            return new Content(new String(bytes, in.position(), in.remaining(), charset), charset);
+        }
+
+        // Decoding replaces malformed input, so only text holding replacement characters needs to be validated
+        String text = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        if (text.indexOf('\uFFFD') < 0 || isUtf8(in, true)) {
+            return new Content(text, StandardCharsets.UTF_8);
+        }
+        return new Content(new String(bytes, 0, length, FALLBACK_CHARSET), FALLBACK_CHARSET);
+    }
+
+    /**
+     * Charset of some bytes, the explicit one or the one of their byte order mark, skipping the mark of the charset.
+     *
+     * @return the charset, or <code>null</code> if there is no explicit charset nor byte order mark
+     */
+    private static Charset charset(ByteBuffer in, Charset charset) {
+        Charset marked = null;
+        if (startsWith(in, UTF_8_BOM)) {
+            marked = StandardCharsets.UTF_8;
+        } else if (startsWith(in, UTF_16BE_BOM)) {
+            marked = StandardCharsets.UTF_16BE;
+        } else if (startsWith(in, UTF_16LE_BOM)) {
+            marked = StandardCharsets.UTF_16LE;
+        }
+        if (marked != null && (charset == null || charset.equals(marked))) {
+            in.position(in.position() + (marked.equals(StandardCharsets.UTF_8) ? UTF_8_BOM.length
+                                                                                : UTF_16BE_BOM.length));
+            return marked;
+        }
+        return charset;
+    }
+
+    /**
+     * Check if bytes are valid UTF-8, a sequence cut at the end is valid unless it is the end of the input.
+     */
+    private static boolean isUtf8(ByteBuffer in, boolean endOfInput) {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                                                       .onMalformedInput(CodingErrorAction.REPORT)
+                                                       .onUnmappableCharacter(CodingErrorAction.REPORT);
+        CharBuffer out = CharBuffer.allocate(8 * 1024);
+        while (true) {
+            var result = decoder.decode(in, out, endOfInput);
+            if (result.isError()) {
+                return false;
+            } else if (result.isUnderflow()) {
+                return !endOfInput || !decoder.flush(out.clear()).isError();
+            }
+            out.clear();
+        }
+    }
+
+    private static boolean startsWith(ByteBuffer in, byte[] prefix) {
+        if (in.remaining() < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; ++i) {
+            if (in.get(in.position() + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
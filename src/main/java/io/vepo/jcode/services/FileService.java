@@ -1,18 +1,21 @@
 package io.vepo.jcode.services;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
-import java.nio.file.Files;
+import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.concurrent.ExecutionException;
-import java.util.stream.Stream;
+import java.util.concurrent.Executor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.vepo.jcode.config.ConfigurationManager;
 import io.vepo.jcode.events.LoadedFileEvent;
+import io.vepo.jcode.events.LoadingFileEvent;
 import io.vepo.jcode.events.TaskStartedEvent;
+import io.vepo.jcode.events.ViewFileEvent;
 import io.vepo.jcode.Workbench;
+import javafx.application.Platform;
 import javafx.concurrent.Task;
 
 /**
@@ -23,18 +26,42 @@ public class FileService {
     
     private static final Logger logger = LoggerFactory.getLogger(FileService.class);
     private final Workbench workbench;
+    private final Executor ioScheduler;
     
     public FileService(Workbench workbench) {
         this.workbench = workbench;
+        this.ioScheduler = IoScheduler.shared();
     }
     
     /**
-     * Loads a file asynchronously and emits events for progress tracking and completion.
+     * Loads a file on the I/O scheduler and emits events for progress tracking and completion. The content is
+     * delivered by a {@link LoadedFileEvent}, or streamed by {@link LoadingFileEvent}s while it is read if the file
+     * is larger than the streaming threshold. Files larger than the viewer threshold are not read, a
+     * {@link ViewFileEvent} opens them in a line editor.
      * 
      * @param file The file to load
      */
     public void loadFile(File file) {
-        Task<String> loadFileTask = createLoadFileTask(file);
+        loadFile(file, null);
+    }
+    
+    /**
+     * Loads a file on the I/O scheduler with the given charset and emits events for progress tracking and
+     * completion.
+     * 
+     * @param file The file to load
+     * @param charset The charset of the file, or null to detect it from its content
+     */
+    public void loadFile(File file, Charset charset) {
+        if (file.length() > ConfigurationManager.getInstance().getViewerThreshold()) {
+            viewFile(file, charset);
+            return;
+        }
+        if (file.length() > ConfigurationManager.getInstance().getStreamingThreshold()) {
+            streamFile(file, charset);
+            return;
+        }
+        Task<String> loadFileTask = createLoadFileTask(file, charset);
         
         loadFileTask.setOnSucceeded(workerStateEvent -> {
             try {
@@ -48,48 +75,78 @@ public class FileService {
         });
         
         loadFileTask.setOnFailed(workerStateEvent -> {
-            logger.error("File loading task failed for: {}", file.getAbsolutePath());
+            logger.error("File loading task failed for: {}", file.getAbsolutePath(), loadFileTask.getException());
         });
         
         // Emit task started event for progress tracking
         workbench.emit(new TaskStartedEvent(loadFileTask.progressProperty()));
         
-        // Start the task
-        loadFileTask.run();
+        // Read the file off the UI thread, the task reports progress and completion on the UI thread
+        ioScheduler.execute(loadFileTask);
     }
     
     /**
-     * Creates a Task for loading a file with progress tracking.
+     * Creates a Task for loading a file with progress tracking by bytes read.
      * 
      * @param file The file to load
+     * @param charset The charset of the file, or null to detect it
      * @return A Task that loads the file content
      */
-    private Task<String> createLoadFileTask(File file) {
+    private Task<String> createLoadFileTask(File file, Charset charset) {
         return new Task<>() {
             @Override
             protected String call() throws Exception {
-                try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                    // Calculate total lines for progress tracking
-                    long lineCount;
-                    try (Stream<String> stream = Files.lines(file.toPath())) {
-                        lineCount = stream.count();
-                    }
-                    
-                    // Load file content line by line
-                    StringBuilder totalFile = new StringBuilder();
-                    long linesLoaded = 0;
-                    String line;
-                    
-                    while ((line = reader.readLine()) != null) {
-                        totalFile.append(line);
-                        totalFile.append("\n");
-                        updateProgress(++linesLoaded, lineCount);
-                    }
-                    
-                    return totalFile.toString();
+                FileLoader.Content content = FileLoader.load(file.toPath(), charset, this::updateProgress);
+                logger.debug("Loaded {} as {}", file.getAbsolutePath(), content.charset());
+                return content.text();
+            }
+        };
+    }
+    
+    /**
+     * Streams a file on the I/O scheduler, its first chunk is shown while the rest is read. Cancelling the task
+     * stops reading the file, and the task fails without a last chunk if the file can not be read to the end.
+     * 
+     * @param file The file to stream
+     * @param charset The charset of the file, or null to detect it
+     */
+    private void streamFile(File file, Charset charset) {
+        Task<Void> streamFileTask = new Task<>() {
+            @Override
+            protected Void call() throws Exception {
+                ChunkBatcher batcher = new ChunkBatcher(file, this, workbench::emit, Platform::runLater);
+                Charset decoded = FileLoader.stream(file.toPath(), charset, batcher, this::updateProgress);
+                logger.debug("Streamed {} as {}", file.getAbsolutePath(), decoded);
+                // Only a file read to the end is completed, a failed stream leaves its tab incomplete
+                if (!isCancelled()) {
+                    batcher.finish();
                 }
+                return null;
             }
         };
+        
+        streamFileTask.setOnFailed(workerStateEvent -> {
+            logger.error("File streaming task failed for: {}", file.getAbsolutePath(), streamFileTask.getException());
+        });
+        
+        workbench.emit(new TaskStartedEvent(streamFileTask.progressProperty()));
+        ioScheduler.execute(streamFileTask);
+    }
+    
+    /**
+     * Detects the charset of a file on the I/O scheduler, and opens it in the viewer.
+     * 
+     * @param file The file to view
+     * @param charset The charset of the file, or null to detect it
+     */
+    private void viewFile(File file, Charset charset) {
+        ioScheduler.execute(() -> {
+            try {
+                workbench.emit(new ViewFileEvent(file, FileLoader.detect(file.toPath(), charset)));
+            } catch (IOException e) {
+                logger.error("Failed to view file: {}", file.getAbsolutePath(), e);
+            }
+        });
     }
     
     /**
@@ -0,0 +1,48 @@
+package io.vepo.jcode.services;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs blocking I/O off the UI thread, each task on its own virtual thread. Disks serve few reads at once well, so at
+ * most <code>concurrency</code> tasks run at a time and the others wait, parked, in submission order.
+ */
+final class IoScheduler implements Executor {
+
+    /**
+     * Tasks running at once on the shared scheduler.
+     */
+    static final int DEFAULT_CONCURRENCY = 4;
+
+    private static final IoScheduler SHARED = new IoScheduler(DEFAULT_CONCURRENCY);
+
+    private final Semaphore permits;
+    private final ThreadFactory threads = Thread.ofVirtual().name("io-", 0).factory();
+
+    IoScheduler(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive: " + concurrency);
+        }
+        this.permits = new Semaphore(concurrency, true);
+    }
+
+    /**
+     * Scheduler shared by the services.
+     */
+    static IoScheduler shared() {
+        return SHARED;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        threads.newThread(() -> {
+            permits.acquireUninterruptibly();
+            try {
+                task.run();
+            } finally {
+                permits.release();
+            }
+        }).start();
+    }
+}
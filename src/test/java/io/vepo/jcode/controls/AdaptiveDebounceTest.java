@@ -0,0 +1,45 @@
+package io.vepo.jcode.controls;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+class AdaptiveDebounceTest {
+
+    @Test
+    void shouldHighlightCheapDocumentsAlmostImmediately() {
+        AdaptiveDebounce debounce = new AdaptiveDebounce();
+        assertEquals(AdaptiveDebounce.MIN_QUIET_PERIOD, debounce.quietPeriod());
+
+        debounce.measured(Duration.ofMillis(1).toNanos());
+        assertEquals(AdaptiveDebounce.MIN_QUIET_PERIOD, debounce.quietPeriod());
+        assertEquals(Duration.ofMillis(1), debounce.averageCost());
+    }
+
+    @Test
+    void shouldWaitLongerForExpensiveDocuments() {
+        AdaptiveDebounce debounce = new AdaptiveDebounce();
+        debounce.measured(Duration.ofMillis(50).toNanos());
+        assertEquals(Duration.ofMillis(200), debounce.quietPeriod());
+
+        debounce.measured(Duration.ofSeconds(10).toNanos());
+        assertEquals(AdaptiveDebounce.MAX_QUIET_PERIOD, debounce.quietPeriod());
+        assertEquals(Duration.ofSeconds(10), debounce.lastCost());
+    }
+
+    @Test
+    void shouldSmoothSingleSlowRuns() {
+        AdaptiveDebounce debounce = new AdaptiveDebounce();
+        debounce.measured(Duration.ofMillis(10).toNanos());
+        debounce.measured(Duration.ofMillis(110).toNanos());
+        assertEquals(Duration.ofMillis(40), debounce.averageCost());
+
+        // The average goes back down as cheap runs follow
+        for (int i = 0; i < 20; ++i) {
+            debounce.measured(Duration.ofMillis(10).toNanos());
+        }
+        assertTrue(debounce.averageCost().compareTo(Duration.ofMillis(11)) < 0);
+    }
+}
@@ -0,0 +1,254 @@
+package io.vepo.jcode.controls;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.fxmisc.richtext.model.StyleSpan;
+import org.fxmisc.richtext.model.StyleSpans;
+import org.junit.jupiter.api.Test;
+
+class BracketIndexTest {
+
+    private static final String CODE = """
+        class A {
+            int[] values = { 1, 2 };
+            String text = "(not a bracket";
+            /* { neither } ] */
+            void run(int a) {
+                if (a > values[0]) {
+                    run((a - 1));
+                }
+            }
+        }
+        """;
+
+    private static final String[] FRAGMENTS = { "(", ")", "{", "}", "[", "]", "\n", "\"", "/*", "*/", "x", " " };
+
+    private static final Set<String> BRACKET_STYLES = Set.of("paren", "bracket", "brace");
+
+    private final JavaHighlighter highlighter = new JavaHighlighter();
+
+    @Test
+    void shouldMatchBracketsAcrossParagraphs() {
+        HighlightingModel model = new HighlightingModel(highlighter.getParagraphLexer().orElseThrow());
+        model.highlight(CODE);
+        BracketIndex brackets = model.brackets();
+
+        assertEquals(CODE.lastIndexOf('}'), brackets.match(CODE.indexOf('{')));
+        assertEquals(CODE.indexOf('{'), brackets.match(CODE.lastIndexOf('}')));
+        assertEquals(CODE.indexOf("])"), brackets.match(CODE.indexOf("[0]")));
+        int inner = CODE.indexOf("((a");
+        assertEquals(CODE.indexOf("));") + 1, brackets.match(inner));
+        assertEquals(CODE.indexOf("));"), brackets.match(inner + 1));
+
+        // Brackets of strings and comments are not indexed
+        assertEquals(-1, brackets.match(CODE.indexOf("(not")));
+        assertEquals(-1, brackets.match(CODE.indexOf("{ neither")));
+        assertEquals(-1, brackets.match(CODE.indexOf("class")));
+        assertEquals(-1, brackets.match(CODE.length()));
+    }
+
+    @Test
+    void shouldMatchLikeAScanAfterEdits() {
+        Random random = new Random(17);
+        HighlightingModel model = new HighlightingModel(highlighter.getParagraphLexer().orElseThrow());
+        String text = CODE.repeat(3);
+        model.highlight(text);
+
+        for (int round = 0; round < 200; ++round) {
+            int position = random.nextInt(text.length() + 1);
+            int removed = random.nextInt(3) == 0 ? Math.min(random.nextInt(6), text.length() - position) : 0;
+            String inserted = random.nextInt(4) == 0 ? "" : FRAGMENTS[random.nextInt(FRAGMENTS.length)];
+            text = text.substring(0, position) + inserted + text.substring(position + removed);
+            model.update(text, position, position + removed, position + inserted.length());
+
+            int[] expected = scan(text);
+            BracketIndex brackets = model.brackets();
+            for (int offset = 0; offset < text.length(); ++offset) {
+                assertEquals(expected[offset], brackets.match(offset), "Round " + round + " at " + offset);
+            }
+        }
+    }
+
+    @Test
+    void shouldMatchWhenExtendedInPieces() {
+        String text = "{\n" + "    call(a, [b]);\n".repeat(5_000) + "}\n";
+        HighlightingModel model = new HighlightingModel(highlighter.getParagraphLexer().orElseThrow());
+        while (!model.isComplete()) {
+            model.extend(text, model.paragraphCount() + 700, () -> false);
+        }
+
+        assertEquals(text.lastIndexOf('}'), model.brackets().match(0));
+        assertEquals(0, model.brackets().match(text.lastIndexOf('}')));
+        assertArrayEquals(scan(text), matches(model.brackets(), text.length()));
+    }
+
+    @Test
+    void shouldFoldBracesKeepingTheClosingParagraphVisible() {
+        BracketIndex brackets = index(highlighter, CODE);
+
+        assertEquals(8, brackets.foldEnd(0));
+        assertEquals(7, brackets.foldEnd(4));
+        assertEquals(6, brackets.foldEnd(5));
+        // Brackets closed in the same paragraph, in strings or in comments do not fold
+        assertEquals(-1, brackets.foldEnd(1));
+        assertEquals(-1, brackets.foldEnd(2));
+        assertEquals(-1, brackets.foldEnd(3));
+        assertEquals(-1, brackets.foldEnd(9));
+        assertEquals(-1, brackets.foldEnd(100));
+    }
+
+    @Test
+    void shouldFoldObjectsAndArrays() {
+        BracketIndex brackets = index(new JsonHighlighter(), """
+            {
+              "list": [
+                1,
+                { "a": 2 }
+              ],
+              "empty": {
+              }
+            }
+            """);
+
+        assertEquals(6, brackets.foldEnd(0));
+        assertEquals(3, brackets.foldEnd(1));
+        assertEquals(-1, brackets.foldEnd(3));
+        assertEquals(-1, brackets.foldEnd(5));
+    }
+
+    @Test
+    void shouldFoldElements() {
+        BracketIndex brackets = index(new XmlHighlighter(), """
+            <?xml version="1.0"?>
+            <project>
+                <empty/>
+                <dependency
+                    scope="test">
+                    <version>1</version>
+                </dependency>
+            </project>
+            """);
+
+        assertEquals(-1, brackets.foldEnd(0));
+        assertEquals(6, brackets.foldEnd(1));
+        assertEquals(-1, brackets.foldEnd(2));
+        assertEquals(5, brackets.foldEnd(3));
+
+        brackets = index(new HtmlHighlighter(), """
+            <html>
+            <head>
+                <meta charset="utf-8">
+                <link href="style.css">
+            </head>
+            </html>
+            """);
+        assertEquals(4, brackets.foldEnd(0));
+        assertEquals(3, brackets.foldEnd(1));
+    }
+
+    @Test
+    void shouldFoldSectionsUpToTheNextHeaderOfTheSameLevel() {
+        BracketIndex brackets = index(new MarkdownHighlighter(), """
+            # Title
+            text
+            ## First
+            text
+            text
+            ### Deep
+            text
+            ## Second
+            text
+            # Other
+            """);
+
+        assertEquals(8, brackets.foldEnd(0));
+        assertEquals(6, brackets.foldEnd(2));
+        assertEquals(6, brackets.foldEnd(5));
+        assertEquals(8, brackets.foldEnd(7));
+        assertEquals(-1, brackets.foldEnd(1));
+        // The last section ends with the document, on its empty last paragraph
+        assertEquals(10, brackets.foldEnd(9));
+    }
+
+    @Test
+    void shouldFoldLikeAFreshIndexAfterEdits() {
+        Random random = new Random(18);
+        ParagraphLexer lexer = highlighter.getParagraphLexer().orElseThrow();
+        HighlightingModel model = new HighlightingModel(lexer);
+        String text = CODE.repeat(3);
+        model.highlight(text);
+
+        for (int round = 0; round < 200; ++round) {
+            int position = random.nextInt(text.length() + 1);
+            int removed = random.nextInt(3) == 0 ? Math.min(random.nextInt(6), text.length() - position) : 0;
+            String inserted = random.nextInt(4) == 0 ? "" : FRAGMENTS[random.nextInt(FRAGMENTS.length)];
+            text = text.substring(0, position) + inserted + text.substring(position + removed);
+            model.update(text, position, position + removed, position + inserted.length());
+
+            BracketIndex fresh = index(highlighter, text);
+            for (int paragraph = 0; paragraph < fresh.paragraphCount(); ++paragraph) {
+                assertEquals(fresh.foldEnd(paragraph), model.brackets().foldEnd(paragraph),
+                             "Round " + round + " at " + paragraph);
+            }
+        }
+    }
+
+    private static BracketIndex index(LanguageHighlighter highlighter, String text) {
+        HighlightingModel model = new HighlightingModel(highlighter.getParagraphLexer().orElseThrow());
+        model.highlight(text);
+        return model.brackets();
+    }
+
+    /**
+     * Matches found with a stack per kind of bracket, over the brackets styled as such.
+     */
+    private int[] scan(String text) {
+        List<String> styles = styles(highlighter.computeHighlighting(text));
+        int[] matches = new int[text.length()];
+        Arrays.fill(matches, -1);
+        List<Deque<Integer>> open = List.of(new ArrayDeque<>(), new ArrayDeque<>(), new ArrayDeque<>());
+        for (int i = 0; i < text.length(); ++i) {
+            if (!BRACKET_STYLES.contains(styles.get(i))) {
+                continue;
+            }
+            int opening = "([{".indexOf(text.charAt(i));
+            int closing = ")]}".indexOf(text.charAt(i));
+            if (opening >= 0) {
+                open.get(opening).push(i);
+            } else if (closing >= 0 && !open.get(closing).isEmpty()) {
+                int match = open.get(closing).pop();
+                matches[i] = match;
+                matches[match] = i;
+            }
+        }
+        return matches;
+    }
+
+    private static int[] matches(BracketIndex brackets, int length) {
+        int[] matches = new int[length];
+        for (int offset = 0; offset < length; ++offset) {
+            matches[offset] = brackets.match(offset);
+        }
+        return matches;
+    }
+
+    private static List<String> styles(StyleSpans<Collection<String>> spans) {
+        List<String> styles = new ArrayList<>();
+        for (StyleSpan<Collection<String>> span : spans) {
+            String style = span.getStyle().isEmpty() ? "" : span.getStyle().iterator().next();
+            for (int i = 0; i < span.getLength(); ++i) {
+                styles.add(style);
+            }
+        }
+        return styles;
+    }
+}
@@ -0,0 +1,77 @@
+package io.vepo.jcode.controls;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class DfaTest {
+
+    @Test
+    void shouldMatchTheLongestRuleFirstDeclaredOnTies() {
+        Dfa dfa = compile("if", "[a-z]+", "[0-9]+(\\.[0-9]+)?");
+        assertMatch(dfa, "if (", 0, 0, 2);
+        assertMatch(dfa, "iffy", 0, 1, 4);
+        assertMatch(dfa, "x = 1.5;", 4, 2, 7);
+        assertMatch(dfa, "x = 1.;", 4, 2, 5);
+        assertTrue(dfa.match("x = ;", 0, 2, 5) < 0);
+    }
+
+    @Test
+    void shouldMatchCharacterClassesAndRepetitions() {
+        Dfa dfa = compile("[^\"\\\\]+", "\\\\.", "x{2,3}", "\\d\\s\\w");
+        assertMatch(dfa, "ação\"", 0, 0, 4);
+        assertMatch(dfa, "\\\"", 0, 1, 2);
+        assertMatch(dfa, "\"xxxx", 1, 0, 5);
+        assertMatch(dfa, "1 _", 0, 0, 3);
+
+        Dfa repetitions = compile("x{2,3}", "y{2,}", "z{2}");
+        assertMatch(repetitions, "xxxx", 0, 0, 3);
+        assertTrue(repetitions.match("x", 0, 0, 1) < 0);
+        assertMatch(repetitions, "yyyyy", 0, 1, 5);
+        assertMatch(repetitions, "zzz", 0, 2, 2);
+    }
+
+    @Test
+    void shouldAnchorToTheParagraph() {
+        Dfa dfa = compile("^#.*", "#", "end$");
+        assertMatch(dfa, "# comment", 0, 0, 9);
+        assertMatch(dfa, "a # comment", 2, 1, 3);
+        assertMatch(dfa, "the end\nnext", 4, 2, 7);
+        assertTrue(dfa.match("the ending", 0, 4, 10) < 0);
+        // Only the paragraph counts, not the whole text
+        assertMatch(dfa, "a\n# b", 2, 0, 5);
+    }
+
+    @Test
+    void shouldIgnoreCase() {
+        Dfa dfa = Dfa.compile(new String[] { "select", "[a-c]+" }, new boolean[] { true, true });
+        assertMatch(dfa, "SeLeCt *", 0, 0, 6);
+        assertMatch(dfa, "ABCabc", 0, 1, 6);
+    }
+
+    @Test
+    void shouldRejectWhatAnAutomatonCannotMatch() {
+        assertThrows(IllegalArgumentException.class, () -> compile("a*"));
+        assertThrows(IllegalArgumentException.class, () -> compile("$"));
+        assertThrows(IllegalArgumentException.class, () -> compile("\\bif\\b"));
+        assertThrows(IllegalArgumentException.class, () -> compile("(?=a)a"));
+        assertThrows(IllegalArgumentException.class, () -> compile("(a)\\1"));
+        assertThrows(IllegalArgumentException.class, () -> compile("(a"));
+        assertThrows(IllegalArgumentException.class, () -> compile("a)"));
+        assertThrows(IllegalArgumentException.class, () -> compile("[a"));
+        assertThrows(IllegalArgumentException.class, () -> compile("*a"));
+    }
+
+    private static Dfa compile(String... patterns) {
+        return Dfa.compile(patterns, new boolean[patterns.length]);
+    }
+
+    private static void assertMatch(Dfa dfa, String text, int pos, int rule, int end) {
+        int paragraphStart = text.lastIndexOf('\n', pos) + 1;
+        int paragraphEnd = text.indexOf('\n', pos) < 0 ? text.length() : text.indexOf('\n', pos);
+        long match = dfa.match(text, paragraphStart, pos, paragraphEnd);
+        assertTrue(match >= 0, "No match in " + text);
+        assertEquals(rule, Dfa.rule(match));
+        assertEquals(end, Dfa.end(match));
+    }
+}
@@ -0,0 +1,254 @@
+package io.vepo.jcode.controls;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class GrammarLexerTest {
+
+    private static final Map<String, GrammarHighlighter> BUNDLED =
+            Grammars.load(Path.of("no-such-directory"))
+                    .stream()
+                    .collect(Collectors.toMap(GrammarHighlighter::getName, Function.identity()));
+
+    @TempDir
+    Path userDirectory;
+
+    @Test
+    void shouldLoadTheBundledGrammars() {
+        assertEquals(List.of("javascript", "kotlin", "shell", "sql", "yaml"),
+                     BUNDLED.keySet().stream().sorted().toList());
+        assertInstanceOf(GrammarHighlighter.class, HighlighterFactory.getHighlighterForFile("Main.kt").orElseThrow());
+        assertInstanceOf(GrammarHighlighter.class, HighlighterFactory.getHighlighterForFile("pom.YML").orElseThrow());
+        assertInstanceOf(GrammarHighlighter.class, HighlighterFactory.getHighlighterForFile("schema.sql").orElseThrow());
+    }
+
+    @Test
+    void shouldLexKotlin() {
+        assertEquals(List.of("fun:keyword", "(:paren", "):paren", "Main:type", "{:brace", "val:keyword", "1.5f:number",
+                             "}:brace"),
+                     tokens("kotlin", "fun main(): Main { val funny = 1.5f }"));
+
+        // Block comments nest, string templates hold expressions
+        List<String> tokens = new ArrayList<>();
+        GrammarLexer lexer = lexer("kotlin");
+        int state = lex(lexer, "/* a /* b */", ParagraphLexer.INITIAL_STATE, tokens);
+        assertEquals("kotlin:block-comment", lexer.stateName(state));
+        assertEquals(2, lexer.depth(state));
+        state = lex(lexer, "c */ val s = \"${ x + \"}\" } $y\"", state, tokens);
+        assertEquals(ParagraphLexer.INITIAL_STATE, state);
+        assertEquals(List.of("/* a /* b */:comment", "c */:comment", "val:keyword", "\":string", "${:variable",
+                             "\"}\":string", "}:variable", " :string", "$y:variable", "\":string"),
+                     tokens);
+    }
+
+    @Test
+    void shouldLexJavaScript() {
+        assertEquals(List.of("const:keyword", "new:keyword", "Map:type", "(:paren", "):paren",
+                             ";:semicolon", "0x1Fn:number"),
+                     tokens("javascript", "const map = new Map(); 0x1Fn"));
+
+        // Template literals span paragraphs and hold expressions
+        List<String> tokens = new ArrayList<>();
+        GrammarLexer lexer = lexer("javascript");
+        int state = lex(lexer, "`a ${ {b: 'c'}.b }", ParagraphLexer.INITIAL_STATE, tokens);
+        assertEquals("javascript:template-literal", lexer.stateName(state));
+        state = lex(lexer, "d`; // end", state, tokens);
+        assertEquals(ParagraphLexer.INITIAL_STATE, state);
+        assertEquals(List.of("`a :string", "${:variable", "{:brace", "'c':string", "}:brace", "}:variable",
+                             "d`:string", ";:semicolon", "// end:comment"),
+                     tokens);
+    }
+
+    @Test
+    void shouldCloseSingleLineStatesAtTheEndOfTheParagraph() {
+        List<String> tokens = new ArrayList<>();
+        GrammarLexer lexer = lexer("kotlin");
+        int state = lex(lexer, "val s = \"unterminated", ParagraphLexer.INITIAL_STATE, tokens);
+        assertEquals(ParagraphLexer.INITIAL_STATE, state);
+
+        state = lex(lexer, "val s = \"\"\"raw", ParagraphLexer.INITIAL_STATE, tokens);
+        assertEquals("kotlin:raw-string", lexer.stateName(state));
+    }
+
+    @Test
+    void shouldLexYaml() {
+        assertEquals(List.of("name: :key", "\"jcode\":string"), tokens("yaml", "name: \"jcode\""));
+        assertEquals(List.of("- :operator", "enabled: :key", "TRUE:keyword", "# comment:comment"),
+                     tokens("yaml", "- enabled: TRUE # comment"));
+        assertEquals(List.of("url: :key"), tokens("yaml", "url: http://example.com/it's"));
+        assertEquals(List.of("---:keyword", "&anchor:variable", "1.5e3:number"), tokens("yaml", "--- &anchor 1.5e3"));
+    }
+
+    @Test
+    void shouldLexSqlIgnoringCase() {
+        assertEquals(List.of("SELECT:keyword", "(:paren", "):paren", "from:keyword", "Where:keyword", ":id:variable",
+                             "and:keyword", "'it''s':string", ";:semicolon"),
+                     tokens("sql", "SELECT count(*) from users Where id = :id and 'it''s';"));
+        assertEquals(List.of("CREATE:keyword", "TABLE:keyword", "(:paren", "VARCHAR:type", "(:paren", "10:number",
+                             "):paren", "):paren"),
+                     tokens("sql", "CREATE TABLE t (name VARCHAR(10))"));
+    }
+
+    @Test
+    void shouldEmbedSqlInShellHereDocuments() {
+        List<String> tokens = new ArrayList<>();
+        GrammarLexer lexer = lexer("shell");
+        int state = lex(lexer, "psql <<SQL", ParagraphLexer.INITIAL_STATE, tokens);
+        assertEquals("sql:initial", lexer.stateName(state));
+        state = lex(lexer, "select $1 -- comment", state, tokens);
+        assertEquals("sql:initial", lexer.stateName(state));
+        state = lex(lexer, "SQL", state, tokens);
+        assertEquals(ParagraphLexer.INITIAL_STATE, state);
+        state = lex(lexer, "echo \"${HOME}\" $(ls)", state, tokens);
+        assertEquals(ParagraphLexer.INITIAL_STATE, state);
+        assertEquals(List.of("<<SQL:operator", "select:keyword", "$1:variable", "-- comment:comment", "SQL:operator",
+                             "echo:function", "\":string", "${HOME}:variable", "\":string", "$(:variable",
+                             "):variable"),
+                     tokens);
+    }
+
+    @Test
+    void shouldLoadUserGrammars() throws IOException {
+        Files.writeString(userDirectory.resolve("ini.json"), """
+            {
+              "name": "ini",
+              "extensions": ["ini"],
+              "stylesheet": "ini.css",
+              "states": {
+                "initial": {
+                  "rules": [
+                    { "match": "[;#].*", "style": "comment" },
+                    { "match": "\\\\[", "style": "keyword", "push": "section" },
+                    { "match": "[A-Za-z_]\\\\w*", "style": "key" }
+                  ]
+                },
+                "section": {
+                  "style": "type",
+                  "singleLine": true,
+                  "rules": [{ "match": "\\\\]", "style": "keyword", "pop": true }]
+                }
+              }
+            }
+            """);
+        // Replaces the bundled grammar of the same name
+        Files.writeString(userDirectory.resolve("yaml.json"), """
+            { "name": "yaml", "states": { "initial": { "rules": [{ "match": "[a-z]+", "style": "keyword" }] } } }
+            """);
+        Files.writeString(userDirectory.resolve("broken.json"), """
+            { "name": "broken", "states": { "initial": { "rules": [{ "match": "a*", "style": "keyword" }] } } }
+            """);
+        Files.writeString(userDirectory.resolve("notes.txt"), "not a grammar");
+
+        Map<String, GrammarHighlighter> highlighters =
+                Grammars.load(userDirectory)
+                        .stream()
+                        .collect(Collectors.toMap(GrammarHighlighter::getName, Function.identity()));
+        assertEquals(List.of("ini", "javascript", "kotlin", "shell", "sql", "yaml"),
+                     highlighters.keySet().stream().sorted().toList());
+
+        GrammarHighlighter ini = highlighters.get("ini");
+        assertEquals("ini-code", ini.getCssClass());
+        assertEquals(Set.of("ini"), ini.getFileExtensions());
+        List<String> tokens = new ArrayList<>();
+        lex((GrammarLexer) ini.getParagraphLexer().orElseThrow(), "[main] ; comment", ParagraphLexer.INITIAL_STATE,
+            tokens);
+        assertEquals(List.of("[:keyword", "main:type", "]:keyword", "; comment:comment"), tokens);
+
+        tokens.clear();
+        lex((GrammarLexer) highlighters.get("yaml").getParagraphLexer().orElseThrow(), "key: value",
+            ParagraphLexer.INITIAL_STATE, tokens);
+        assertEquals(List.of("key:keyword", "value:keyword"), tokens);
+    }
+
+    @Test
+    void shouldInternStacksFromManyThreads() throws Exception {
+        GrammarLexer lexer = compile("""
+            { "name": "x", "states": { "initial": { "rules": [{ "match": "\\\\(", "push": "nested" }] },
+                                       "nested": { "rules": [{ "match": "\\\\(", "push": "nested" },
+                                                             { "match": "\\\\)", "pop": true }] } } }
+            """);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<int[]>> results = new ArrayList<>();
+            for (int i = 0; i < 8; ++i) {
+                results.add(executor.submit(() -> {
+                    int[] states = new int[2 * GrammarLexer.MAX_DEPTH];
+                    for (int depth = 1; depth < states.length; ++depth) {
+                        String paragraph = "(".repeat(depth);
+                        states[depth] = lex(lexer, paragraph, ParagraphLexer.INITIAL_STATE, new ArrayList<>());
+                        assertEquals(Math.min(depth + 1, GrammarLexer.MAX_DEPTH), lexer.depth(states[depth]));
+                        if (depth < GrammarLexer.MAX_DEPTH) {
+                            assertEquals(states[depth - 1], lex(lexer, ")", states[depth], new ArrayList<>()));
+                        }
+                    }
+                    return states;
+                }));
+            }
+            // Equal stacks have equal ids, whichever thread interned them
+            int[] states = results.get(0).get();
+            for (Future<int[]> result : results) {
+                assertArrayEquals(states, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void shouldRejectInvalidGrammars() {
+        assertThrows(IllegalArgumentException.class, () -> compile("""
+            { "name": "x", "states": { "other": { "rules": [{ "match": "a" }] } } }
+            """));
+        assertThrows(IllegalArgumentException.class, () -> compile("""
+            { "name": "x", "states": { "initial": { "rules": [{ "match": "a", "push": "missing" }] } } }
+            """));
+        assertThrows(IllegalArgumentException.class, () -> compile("""
+            { "name": "x", "states": { "initial": { "rules": [{ "match": "a", "pop": true, "next": "initial" }] } } }
+            """));
+        assertThrows(IllegalArgumentException.class, () -> compile("""
+            { "name": "x", "states": { "initial": { "rules": [{ "match": "a", "embed": "missing", "until": "b" }] } } }
+            """));
+        assertThrows(IllegalArgumentException.class, () -> compile("""
+            { "name": "x", "states": { "initial": { "include": "initial", "rules": [{ "match": "a" }] } } }
+            """));
+    }
+
+    private static GrammarLexer compile(String json) throws IOException {
+        Grammar grammar = Grammar.read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+        return GrammarLexer.compile(grammar, name -> Optional.empty());
+    }
+
+    private static GrammarLexer lexer(String grammar) {
+        return (GrammarLexer) BUNDLED.get(grammar).getParagraphLexer().orElseThrow();
+    }
+
+    private static List<String> tokens(String grammar, String paragraph) {
+        List<String> tokens = new ArrayList<>();
+        assertEquals(ParagraphLexer.INITIAL_STATE, lex(lexer(grammar), paragraph, ParagraphLexer.INITIAL_STATE, tokens));
+        return tokens;
+    }
+
+    private static int lex(GrammarLexer lexer, String paragraph, int state, List<String> tokens) {
+        return lexer.lexParagraph(paragraph, 0, paragraph.length(), state,
+                                  (start, end, type) -> tokens.add(paragraph.substring(start, end) + ":"
+                                          + TokenTypes.styleClass(type)));
+    }
+}
@@ -0,0 +1,86 @@
+package io.vepo.jcode.controls;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.fxmisc.richtext.CodeArea;
+import org.fxmisc.richtext.model.StyleSpans;
+import org.junit.jupiter.api.Test;
+
+class HighlighterFactoryTest {
+
+    @Test
+    void shouldShareHighlighterInstances() {
+        LanguageHighlighter highlighter = HighlighterFactory.getHighlighterForFile("A.java").orElseThrow();
+        assertSame(highlighter, HighlighterFactory.getHighlighterForFile("B.java").orElseThrow());
+        assertSame(highlighter, HighlighterFactory.getHighlighter("java").orElseThrow());
+    }
+
+    @Test
+    void shouldMatchFilesCaseInsensitively() {
+        assertInstanceOf(JavaHighlighter.class, HighlighterFactory.getHighlighterForFile("TEST.JAVA").orElseThrow());
+        assertInstanceOf(HtmlHighlighter.class, HighlighterFactory.getHighlighterForFile("index.Htm").orElseThrow());
+        assertInstanceOf(MarkdownHighlighter.class, HighlighterFactory.getHighlighterForFile("README.MD").orElseThrow());
+        assertTrue(new HtmlHighlighter().supportsFileExtension("HTML"));
+    }
+
+    @Test
+    void shouldDiscoverHighlightersWithServiceLoader() {
+        assertInstanceOf(ServiceLoadedHighlighter.class, HighlighterFactory.getHighlighterForFile("build.sh").orElseThrow());
+        assertInstanceOf(ServiceLoadedHighlighter.class, HighlighterFactory.getHighlighterForFile(".bashrc").orElseThrow());
+    }
+
+    @Test
+    void shouldMatchShebangLines() {
+        assertEquals(Optional.of("bash"), HighlighterFactory.interpreter("#!/bin/bash\necho"));
+        assertEquals(Optional.of("python3"), HighlighterFactory.interpreter("#! /usr/bin/env -S python3 -u\n"));
+        assertEquals(Optional.empty(), HighlighterFactory.interpreter("echo\n#!/bin/sh"));
+        assertEquals(Optional.empty(), HighlighterFactory.interpreter("#!"));
+
+        assertInstanceOf(ServiceLoadedHighlighter.class,
+                         HighlighterFactory.getHighlighterForFile("deploy", "#!/usr/bin/env bash\n").orElseThrow());
+        assertInstanceOf(ServiceLoadedHighlighter.class,
+                         HighlighterFactory.getHighlighterForFile("deploy", "#!/bin/sh5.2\n").orElseThrow());
+        assertFalse(HighlighterFactory.getHighlighterForFile("deploy", "#!/usr/bin/perl\n").isPresent());
+        // The file name wins over the shebang line
+        assertInstanceOf(JavaHighlighter.class,
+                         HighlighterFactory.getHighlighterForFile("Script.java", "#!/bin/bash\n").orElseThrow());
+    }
+
+    @Test
+    void shouldProbeHighlightersDeclaringNoFiles() {
+        LanguageHighlighter legacy = new LanguageHighlighter() {
+
+            @Override
+            public Pattern getPattern() {
+                return Pattern.compile("");
+            }
+
+            @Override
+            public String getCssClass() {
+                return "legacy-code";
+            }
+
+            @Override
+            public StyleSpans<Collection<String>> computeHighlighting(String text) {
+                return StyleSpans.singleton(Set.of(), text.length());
+            }
+
+            @Override
+            public void configureCodeArea(CodeArea codeArea) {
+            }
+
+            @Override
+            public boolean supportsFileExtension(String extension) {
+                return "legacy".equalsIgnoreCase(extension);
+            }
+        };
+        assertFalse(HighlighterFactory.getHighlighterForFile("file.legacy").isPresent());
+        HighlighterFactory.registerHighlighter(legacy);
+        assertSame(legacy, HighlighterFactory.getHighlighterForFile("file.LEGACY").orElseThrow());
+    }
+}
@@ -0,0 +1,48 @@
+package io.vepo.jcode.controls;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class HighlightingModeTest {
+
+    @Test
+    void shouldNotLexFilesWithNoKnownLanguage() {
+        assertEquals(HighlightingMode.PLAIN, HighlightingMode.choose(false, "2024-01-01 INFO started\n", 1_000, 100));
+        assertEquals(HighlightingMode.FULL, HighlightingMode.choose(true, "class A {}\n", 1_000, 100));
+    }
+
+    @Test
+    void shouldDegradeLargeFiles() {
+        String content = "int a;\n".repeat(200);
+        assertEquals(HighlightingMode.FULL, HighlightingMode.choose(true, content, content.length(), 100));
+        assertEquals(HighlightingMode.DEGRADED, HighlightingMode.choose(true, content, content.length() - 1, 100));
+    }
+
+    @Test
+    void shouldDegradeFilesWithLongLines() {
+        String line = "x".repeat(100);
+        assertEquals(HighlightingMode.FULL, HighlightingMode.choose(true, line + "\n" + line, 1_000, 100));
+        assertEquals(HighlightingMode.DEGRADED, HighlightingMode.choose(true, line + "\nx" + line, 1_000, 100));
+        assertEquals(HighlightingMode.DEGRADED, HighlightingMode.choose(true, line + "x", 1_000, 100));
+    }
+
+    @Test
+    void shouldLeaveLongParagraphsUnstyled() {
+        String text = "/* a\n" + "int a; ".repeat(20) + "\nb */ int c;";
+        ParagraphLexer lexer = new LongLineGuard(new JavaHighlighter().getParagraphLexer().orElseThrow(), 100);
+        TokenBuffer tokens = new TokenBuffer();
+
+        int state = lexer.lexParagraph(text, 0, 4, ParagraphLexer.INITIAL_STATE, tokens);
+        int longEnd = text.indexOf('\n', 5);
+        tokens.clear();
+        assertEquals(state, lexer.lexParagraph(text, 5, longEnd, state, tokens));
+        assertEquals(0, tokens.size());
+
+        // The state is carried over the long paragraph, the comment still ends after it
+        lexer.lexParagraph(text, longEnd + 1, text.length(), state, tokens);
+        assertEquals(longEnd + 1, tokens.start(0));
+        assertEquals("b */".length(), tokens.length(0));
+        assertEquals(TokenTypes.of("comment"), tokens.type(0));
+    }
+}
@@ -0,0 +1,306 @@
+package io.vepo.jcode.controls;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.fxmisc.richtext.model.StyleSpan;
+import org.fxmisc.richtext.model.StyleSpans;
+import org.junit.jupiter.api.Test;
+
+import io.vepo.jcode.controls.HighlightingModel.Restyle;
+
+class HighlightingModelTest {
+
+    private static final String JAVA_CODE = """
+        package io.vepo.sample;
+
+        /**
+         * A block comment
+         * spanning lines
+         */
+        public class Sample {
+            private static final String MESSAGE = "Hello /* not a comment */";
+
+            @Override
+            public String toString() { /* inline */ return MESSAGE + 'c' + 42; }
+            // line comment
+        }
+        """;
+
+    private static final String XML_CODE = """
+        <?xml version="1.0" encoding="UTF-8"?>
+        <root>
+            <!-- a comment
+                 spanning lines -->
+            <element
+                attribute="value">Content</element>
+            <![CDATA[ raw
+            data ]]>
+        </root>
+        """;
+
+    private static final String MARKDOWN_CODE = """
+        # Title
+
+        Some **bold** and *italic* text with `code` and a [link](http://example.com).
+
+        ```java
+        int a = 1; // # not a header
+        ```
+        ## Second
+        """;
+
+    private static final String HTML_CODE = """
+        <html>
+        <!-- a
+         b -->
+        <script type="text/javascript">
+        if (a < b) { "<!--" }
+        </script>
+        <div
+         class="x">Text</div>
+        </html>
+        """;
+
+    private static final String KOTLIN_CODE = """
+        /* A /* nested */
+           comment */
+        fun main(args: Array<String>) {
+            val name = "World ${args.size}"
+            println(\"""
+                Hello, $name!
+                \""".trimIndent())
+        }
+        """;
+
+    private static final String[] FRAGMENTS = {
+        "/*", "*/", "\n", "\"", "<!--", "-->", "<", ">", "{", "}", "class ", "x", " ", "<![CDATA[", "]]>", "'", "@",
+        "```", "# ", "*", "<script>", "</script>"
+    };
+
+    @Test
+    void shouldMatchFullHighlightingAfterSingleEdits() {
+        assertIncrementalMatchesFull(new JavaHighlighter(), JAVA_CODE, 1);
+        assertIncrementalMatchesFull(new XmlHighlighter(), XML_CODE, 1);
+        assertIncrementalMatchesFull(new JsonHighlighter(), "{\n  \"key\": [1, 2.5e3, true],\n  \"other\": null\n}\n", 1);
+        assertIncrementalMatchesFull(new CssHighlighter(), "/* comment\n */\n.selector {\n  color: #ff0000;\n}\n", 1);
+        assertIncrementalMatchesFull(new HtmlHighlighter(), HTML_CODE, 1);
+        assertIncrementalMatchesFull(new MarkdownHighlighter(), MARKDOWN_CODE, 1);
+        assertIncrementalMatchesFull(HighlighterFactory.getHighlighter("kt").orElseThrow(), KOTLIN_CODE, 1);
+    }
+
+    @Test
+    void shouldMatchFullHighlightingAfterEditBursts() {
+        assertIncrementalMatchesFull(new JavaHighlighter(), JAVA_CODE, 5);
+        assertIncrementalMatchesFull(new XmlHighlighter(), XML_CODE, 5);
+        assertIncrementalMatchesFull(new HtmlHighlighter(), HTML_CODE, 5);
+        assertIncrementalMatchesFull(new MarkdownHighlighter(), MARKDOWN_CODE, 5);
+        assertIncrementalMatchesFull(HighlighterFactory.getHighlighter("kt").orElseThrow(), KOTLIN_CODE, 5);
+    }
+
+    @Test
+    void shouldOnlyRestyleDamagedParagraphs() {
+        HighlightingModel model = new HighlightingModel(new JavaHighlighter().getParagraphLexer().orElseThrow());
+        model.highlight(JAVA_CODE);
+
+        int position = JAVA_CODE.indexOf("toString");
+        String text = JAVA_CODE.substring(0, position) + "x" + JAVA_CODE.substring(position);
+        var restyles = model.update(text, position, position, position + 1);
+
+        int paragraphStart = text.lastIndexOf('\n', position) + 1;
+        assertEquals(1, restyles.size());
+        assertEquals(paragraphStart, restyles.get(0).from());
+        assertEquals(text.indexOf('\n', position) + 1 - paragraphStart, restyles.get(0).spans().length());
+        assertEquals(1, restyles.get(0).paragraphs());
+    }
+
+    @Test
+    void shouldOnlyRelexTheEditedPartOfEmbeddedScripts() {
+        ParagraphLexer html = new HtmlHighlighter().getParagraphLexer().orElseThrow();
+        int[] lexed = new int[1];
+        HighlightingModel model = new HighlightingModel((text, start, end, state, sink) -> {
+            ++lexed[0];
+            return html.lexParagraph(text, start, end, state, sink);
+        });
+        String text = "<html>\n<script>\n" + "    let value = `a ${b}`; // c\n".repeat(5_000) + "</script>\n"
+                + "<p class=\"x\">text</p>\n".repeat(5_000) + "</html>\n";
+        model.highlight(text);
+
+        // Only the edited paragraph of the script is lexed again
+        lexed[0] = 0;
+        int position = text.indexOf("value", text.length() / 4);
+        String edited = text.substring(0, position) + "x" + text.substring(position);
+        model.update(edited, position, position, position + 1);
+        assertEquals(1, lexed[0]);
+
+        // A comment opened in the script ends with it, the rest of the page is not lexed again
+        lexed[0] = 0;
+        String commented = edited.substring(0, position) + "/*" + edited.substring(position);
+        var restyles = model.update(commented, position, position, position + 2);
+        assertTrue(lexed[0] < 4_000);
+        assertEquals(styles(new HtmlHighlighter().computeHighlighting(commented)), styles(model.spans()));
+        assertEquals(List.of("tag"), styles(model.spans()).get(commented.indexOf("</script>")));
+        assertFalse(restyles.isEmpty());
+    }
+
+    @Test
+    void shouldCarryBlockCommentState() {
+        HighlightingModel model = new HighlightingModel(new JavaHighlighter().getParagraphLexer().orElseThrow());
+        String text = "int a;\nint b;\nint c;\n";
+        model.highlight(text);
+
+        String opened = "/*" + text;
+        var restyles = model.update(opened, 0, 0, 2);
+        assertEquals(1, restyles.size());
+        assertEquals(0, restyles.get(0).from());
+        assertEquals(opened.length(), restyles.get(0).spans().length());
+        assertEquals(styles(new JavaHighlighter().computeHighlighting(opened)), styles(restyles.get(0).spans()));
+    }
+
+    @Test
+    void shouldOnlyRestyleParagraphsWhoseTokensChanged() {
+        HighlightingModel model = new HighlightingModel(new JavaHighlighter().getParagraphLexer().orElseThrow());
+        String text = "int a;\n\n\nint b;\n\nint c;\n";
+        model.highlight(text);
+
+        // Empty paragraphs have no tokens inside or outside of the comment
+        String opened = "/*" + text;
+        var restyles = model.update(opened, 0, 0, 2);
+        assertEquals(List.of(0, opened.indexOf("int b"), opened.indexOf("int c")),
+                     restyles.stream().map(Restyle::from).toList());
+        assertEquals(List.of(1, 1, 1), restyles.stream().map(Restyle::paragraphs).toList());
+
+        // Paragraphs lexed again with the same tokens are not restyled
+        String edited = opened.replace("int b", "int x");
+        restyles = model.update(edited, edited.indexOf('x'), edited.indexOf('x') + 1, edited.indexOf('x') + 1);
+        assertEquals(1, restyles.size());
+        assertEquals(edited.indexOf("int x"), restyles.get(0).from());
+    }
+
+    @Test
+    void shouldMatchFullHighlightingWhenExtendedInPieces() {
+        Random random = new Random(7);
+        LanguageHighlighter highlighter = new JavaHighlighter();
+        HighlightingModel model = new HighlightingModel(highlighter.getParagraphLexer().orElseThrow());
+        String text = JAVA_CODE.repeat(5);
+
+        while (!model.isComplete()) {
+            int highlightedEnd = styles(model.spans()).size();
+            var restyle = model.extend(text, model.paragraphCount() + 1 + random.nextInt(10), () -> false);
+            assertEquals(model.paragraphCount() == 0 ? 0 : highlightedEnd, restyle.from());
+
+            int position = random.nextInt(text.length() + 1);
+            int removed = random.nextInt(3) == 0 ? Math.min(random.nextInt(6), text.length() - position) : 0;
+            String inserted = FRAGMENTS[random.nextInt(FRAGMENTS.length)];
+            text = text.substring(0, position) + inserted + text.substring(position + removed);
+            model.update(text, position, position + removed, position + inserted.length());
+
+            // The highlighted paragraphs are the same as if the whole text was highlighted
+            List<Collection<String>> highlighted = styles(model.spans());
+            assertEquals(styles(highlighter.computeHighlighting(text)).subList(0, highlighted.size()), highlighted);
+        }
+        assertEquals(styles(highlighter.computeHighlighting(text)), styles(model.spans()));
+    }
+
+    @Test
+    void shouldMatchSequentialHighlightingWhenLexedInParallel() {
+        // Long comments, so chunk boundaries fall inside multi-paragraph constructs
+        String java = (JAVA_CODE + "/*\n" + " * a long comment\n".repeat(300) + " */\n").repeat(250);
+        assertParallelMatchesSequential(new JavaHighlighter(), java);
+        String kotlin = (KOTLIN_CODE + "/* outer\n" + "/* inner\n */\n".repeat(200) + "*/\n").repeat(400);
+        assertParallelMatchesSequential(HighlighterFactory.getHighlighter("kt").orElseThrow(), kotlin);
+    }
+
+    @Test
+    void shouldCheckpointMultiParagraphStates() {
+        HighlightingModel markdown = new HighlightingModel(new MarkdownHighlighter().getParagraphLexer().orElseThrow());
+        markdown.highlight(MARKDOWN_CODE);
+        int fence = MARKDOWN_CODE.lines().toList().indexOf("```java");
+        assertEquals(ParagraphLexer.INITIAL_STATE, markdown.state(fence));
+        assertEquals(MarkdownLexer.FENCED_CODE, markdown.state(fence + 1));
+        assertEquals(MarkdownLexer.FENCED_CODE, markdown.state(fence + 2));
+        assertEquals(ParagraphLexer.INITIAL_STATE, markdown.state(fence + 3));
+
+        HighlightingModel html = new HighlightingModel(new HtmlHighlighter().getParagraphLexer().orElseThrow());
+        var spans = html.highlight(HTML_CODE);
+        int script = HTML_CODE.lines().toList().indexOf("<script type=\"text/javascript\">");
+        assertNotEquals(ParagraphLexer.INITIAL_STATE, html.state(script + 1));
+        assertEquals(ParagraphLexer.INITIAL_STATE, html.state(script + 3));
+
+        // The script body is lexed as JavaScript, up to the closing tag
+        List<Collection<String>> styles = styles(spans);
+        assertEquals(List.of("keyword"), styles.get(HTML_CODE.indexOf("if (a < b)")));
+        assertEquals(List.of("string"), styles.get(HTML_CODE.indexOf("\"<!--\"")));
+        assertEquals(List.of("tag"), styles.get(HTML_CODE.indexOf("</script>")));
+    }
+
+    private static void assertParallelMatchesSequential(LanguageHighlighter highlighter, String text) {
+        assertTrue(text.length() > 2 * HighlightingModel.PARALLEL_THRESHOLD);
+        ParagraphLexer lexer = highlighter.getParagraphLexer().orElseThrow();
+
+        // Pieces too small to be split are lexed sequentially
+        HighlightingModel sequential = new HighlightingModel(lexer);
+        while (!sequential.isComplete()) {
+            sequential.extend(text, sequential.paragraphCount() + 1_000, () -> false);
+        }
+        HighlightingModel parallel = new HighlightingModel(lexer, 4);
+        var spans = parallel.highlight(text);
+
+        assertEquals(sequential.paragraphCount(), parallel.paragraphCount());
+        for (int paragraph = 0; paragraph < sequential.paragraphCount(); ++paragraph) {
+            assertEquals(sequential.state(paragraph), parallel.state(paragraph), "Paragraph " + paragraph);
+        }
+        assertEquals(spans(sequential.spans()), spans(spans));
+    }
+
+    private static List<StyleSpan<Collection<String>>> spans(StyleSpans<Collection<String>> spans) {
+        List<StyleSpan<Collection<String>>> list = new ArrayList<>();
+        spans.forEach(list::add);
+        return list;
+    }
+
+    private static void assertIncrementalMatchesFull(LanguageHighlighter highlighter, String initial, int editsPerUpdate) {
+        Random random = new Random(42);
+        HighlightingModel model = new HighlightingModel(highlighter.getParagraphLexer().orElseThrow());
+        String text = initial;
+        List<Collection<String>> applied = styles(model.highlight(text));
+
+        for (int round = 0; round < 300; ++round) {
+            TextDamage damage = new TextDamage();
+            for (int edit = 0; edit < editsPerUpdate; ++edit) {
+                int position = random.nextInt(text.length() + 1);
+                int removed = random.nextInt(3) == 0 ? Math.min(random.nextInt(6), text.length() - position) : 0;
+                String inserted = random.nextInt(4) == 0 ? "" : FRAGMENTS[random.nextInt(FRAGMENTS.length)];
+                text = text.substring(0, position) + inserted + text.substring(position + removed);
+                damage.add(position, removed, inserted.length());
+
+                // The code area keeps styles of untouched text and has no style yet for inserted text
+                applied.subList(position, position + removed).clear();
+                applied.addAll(position, Collections.nCopies(inserted.length(), null));
+            }
+
+            for (var restyle : model.update(text, damage.start(), damage.oldEnd(), damage.newEnd())) {
+                List<Collection<String>> restyled = styles(restyle.spans());
+                for (int i = 0; i < restyled.size(); ++i) {
+                    applied.set(restyle.from() + i, restyled.get(i));
+                }
+            }
+
+            assertEquals(styles(highlighter.computeHighlighting(text)), applied, "Round " + round + " of " + highlighter.getCssClass());
+            assertEquals(styles(highlighter.computeHighlighting(text)), styles(model.spans()));
+        }
+    }
+
+    private static List<Collection<String>> styles(StyleSpans<Collection<String>> spans) {
+        List<Collection<String>> styles = new ArrayList<>();
+        for (StyleSpan<Collection<String>> span : spans) {
+            styles.addAll(Collections.nCopies(span.getLength(), List.copyOf(span.getStyle())));
+        }
+        return styles;
+    }
+}
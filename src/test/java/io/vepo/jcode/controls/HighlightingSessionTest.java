@@ -0,0 +1,336 @@
+package io.vepo.jcode.controls;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import org.fxmisc.richtext.model.StyleSpan;
+import org.fxmisc.richtext.model.StyleSpans;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.vepo.jcode.controls.HighlightingModel.Restyle;
+
+class HighlightingSessionTest {
+
+    private final JavaHighlighter highlighter = new JavaHighlighter();
+    private final Deque<Runnable> worker = new ArrayDeque<>();
+    private final Deque<Runnable> uiThread = new ArrayDeque<>();
+    private final Deque<Runnable> frames = new ArrayDeque<>();
+    private final List<Restyle> applied = new ArrayList<>();
+    private final List<Duration> quietPeriods = new ArrayList<>();
+
+    private String text;
+    private List<Collection<String>> styles;
+    private HighlightingSession session;
+
+    @BeforeEach
+    void setUp() {
+        text = "class A {\n    int a;\n}\n";
+        styles = new ArrayList<>(Collections.nCopies(text.length(), List.of()));
+        session = new HighlightingSession(highlighter.getParagraphLexer().orElseThrow(),
+                                          () -> text,
+                                          this::apply,
+                                          worker::add,
+                                          uiThread::add,
+                                          frames::add,
+                                          (cost, averageCost, quietPeriod, restyledParagraphs) -> {
+                                              assertTrue(averageCost.compareTo(Duration.ZERO) > 0);
+                                              quietPeriods.add(quietPeriod);
+                                          });
+    }
+
+    @Test
+    void shouldHighlightInBackground() {
+        session.start();
+        assertTrue(applied.isEmpty());
+        assertEquals(1, worker.size());
+
+        runAll();
+        assertEquals(1, applied.size());
+        assertEquals(expectedStyles(), styles);
+    }
+
+    @Test
+    void shouldDropSpansOfStaleVersions() {
+        session.start();
+        runAll();
+
+        edit(0, 0, "/*");
+        session.schedule();
+        worker.poll().run();
+
+        // The text changes after the spans were computed, but before they reach the UI thread
+        edit(text.length() - 2, 0, "*/");
+        uiThread.poll().run();
+        assertEquals(1, applied.size());
+
+        session.schedule();
+        runAll();
+        assertEquals(2, applied.size());
+        assertEquals(expectedStyles(), styles);
+    }
+
+    @Test
+    void shouldCancelRunningJobsOnEdit() {
+        session.start();
+        runAll();
+
+        edit(0, 0, "/*");
+        session.schedule();
+        edit(4, 0, "x");
+        session.schedule();
+
+        worker.poll().run();
+        uiThread.poll().run();
+        assertEquals(1, applied.size());
+
+        // The damage of the cancelled job is highlighted together with the newest one
+        runAll();
+        assertEquals(2, applied.size());
+        assertEquals(0, applied.get(1).from());
+        assertEquals(expectedStyles(), styles);
+    }
+
+    @Test
+    void shouldCountRestyledParagraphs() {
+        session.start();
+        runAll();
+
+        edit(text.indexOf("a;"), 1, "b");
+        session.schedule();
+        runAll();
+        assertEquals(1, session.restyledParagraphs());
+
+        edit(0, 0, "/*");
+        session.schedule();
+        runAll();
+        // The last paragraph is empty, it has no token inside or outside of the comment
+        assertEquals(3, session.restyledParagraphs());
+        assertEquals(expectedStyles(), styles);
+    }
+
+    @Test
+    void shouldReportTheCostOfEdits() {
+        session.start();
+        runAll();
+        assertTrue(quietPeriods.isEmpty());
+
+        edit(text.indexOf("a;"), 1, "b");
+        session.schedule();
+        runAll();
+        assertEquals(List.of(session.quietPeriod()), quietPeriods);
+        assertTrue(session.quietPeriod().compareTo(AdaptiveDebounce.MIN_QUIET_PERIOD) >= 0);
+        assertTrue(session.quietPeriod().compareTo(AdaptiveDebounce.MAX_QUIET_PERIOD) <= 0);
+    }
+
+    @Test
+    void shouldRestoreCachedTokensOfReopenedDocuments() {
+        TokenCache cache = new TokenCache(TokenCache.DEFAULT_BUDGET);
+        session.cacheTokensIn(cache);
+        session.start();
+        runAll();
+        assertEquals(1, cache.size());
+
+        // Reopening the document takes its tokens from the cache
+        styles = new ArrayList<>(Collections.nCopies(text.length(), List.of()));
+        session = new HighlightingSession(highlighter.getParagraphLexer().orElseThrow(),
+                                          () -> text,
+                                          this::apply,
+                                          worker::add,
+                                          uiThread::add,
+                                          frames::add,
+                                          HighlightingMetrics.NONE);
+        session.cacheTokensIn(cache);
+        session.start();
+        runAll();
+        assertEquals(1, cache.hits());
+        assertEquals(expectedStyles(), styles);
+
+        // Edits are highlighted as usual
+        edit(0, 0, "/*");
+        session.schedule();
+        runAll();
+        assertEquals(expectedStyles(), styles);
+    }
+
+    @Test
+    void shouldMatchBracketsOfTheHighlightedVersion() {
+        int[] changes = new int[1];
+        session.onBracketsChanged(() -> ++changes[0]);
+        session.start();
+        runAll();
+        assertEquals(1, changes[0]);
+        assertEquals(text.indexOf('}'), session.matchingBracket(text.indexOf('{')));
+
+        // Offsets of the old version are meaningless until the edit is highlighted
+        edit(0, 0, "{\n");
+        assertEquals(-1, session.matchingBracket(0));
+        session.schedule();
+        runAll();
+        assertEquals(2, changes[0]);
+        assertEquals(-1, session.matchingBracket(0));
+        assertEquals(text.indexOf('}'), session.matchingBracket(text.indexOf("{\n    int")));
+    }
+
+    @Test
+    void shouldRunOneJobPerDocumentAtOnce() {
+        session.start();
+        edit(0, 0, "x");
+        session.schedule();
+        assertEquals(1, worker.size());
+
+        runAll();
+        assertEquals(1, applied.size());
+        assertEquals(expectedStyles(), styles);
+    }
+
+    @Test
+    void shouldHighlightTheViewportFirst() {
+        text = "int a;\n".repeat(10_000);
+        styles = new ArrayList<>(Collections.nCopies(text.length(), List.of()));
+        session.start();
+
+        worker.poll().run();
+        uiThread.poll().run();
+        frames.poll().run();
+        assertEquals(1, applied.size());
+        assertTrue(applied.get(0).to() < 1_000);
+
+        // Scrolling ahead of the highlighted paragraphs gets the new viewport highlighted by the next job
+        session.viewportChanged(4_950, 5_000);
+        worker.poll().run();
+        uiThread.poll().run();
+        worker.poll().run();
+        uiThread.poll().run();
+        assertEquals(1, applied.size());
+
+        // Its slice is applied first, before the slices of the paragraphs above it
+        frames.poll().run();
+        Restyle viewport = applied.get(1);
+        assertTrue(viewport.paragraph() <= 5_000 && viewport.paragraph() + viewport.paragraphs() > 4_950);
+
+        runAll();
+        assertEquals(expectedStyles(), styles);
+    }
+
+    @Test
+    void shouldLeaveEditsToTheQuietPeriodWhenTheViewportMoves() {
+        text = "int a;\n".repeat(10_000);
+        styles = new ArrayList<>(Collections.nCopies(text.length(), List.of()));
+        session.start();
+        worker.poll().run();
+
+        // Scrolling while the job runs, then typing, does not highlight the edit before the typing pauses
+        session.viewportChanged(4_950, 5_000);
+        edit(0, 0, "x");
+        uiThread.poll().run();
+        assertTrue(worker.isEmpty());
+
+        session.schedule();
+        runAll();
+        assertEquals(expectedStyles(), styles);
+    }
+
+    @Test
+    void shouldOnlyHighlightTheViewportWhenDegraded() {
+        text = "int a;\n".repeat(10_000);
+        styles = new ArrayList<>(Collections.nCopies(text.length(), List.of()));
+        session.highlightViewportOnly();
+        session.viewportChanged(0, 50);
+        session.start();
+        runAll();
+        assertEquals(1, applied.size());
+        assertEquals(151, applied.get(0).paragraphs());
+
+        // Scrolling highlights up to the new viewport, but nothing after it
+        session.viewportChanged(950, 1_000);
+        runAll();
+        assertEquals(1_101, applied.stream().mapToInt(Restyle::paragraphs).sum());
+        assertTrue(worker.isEmpty());
+    }
+
+    @Test
+    void shouldApplySpansInSlicesAcrossFrames() {
+        text = "int a;\n".repeat(10_000);
+        styles = new ArrayList<>(Collections.nCopies(text.length(), List.of()));
+        session.viewportChanged(0, 10_000);
+        session.start();
+        worker.poll().run();
+        uiThread.poll().run();
+
+        // Nothing is applied before the next frame, then slices of a bounded size
+        assertTrue(applied.isEmpty());
+        assertEquals(1, frames.size());
+        while (!frames.isEmpty()) {
+            frames.poll().run();
+        }
+        assertTrue(applied.size() > 1);
+        assertTrue(applied.stream().allMatch(restyle -> restyle.paragraphs() <= 200));
+        assertEquals(0, session.pendingSlices());
+        assertEquals(expectedStyles(), styles);
+    }
+
+    @Test
+    void shouldHighlightSlicesDroppedByAnEditAgain() {
+        text = "int a;\n".repeat(10_000);
+        styles = new ArrayList<>(Collections.nCopies(text.length(), List.of()));
+        session.viewportChanged(0, 10_000);
+        session.start();
+        worker.poll().run();
+        uiThread.poll().run();
+        assertTrue(session.pendingSlices() > 1);
+
+        // The edit comes before any frame, pending slices can not be applied to the new text
+        edit(text.length() / 2, 0, "x");
+        assertEquals(0, session.pendingSlices());
+        session.schedule();
+        runAll();
+        assertEquals(expectedStyles(), styles);
+    }
+
+    private void edit(int position, int removed, String inserted) {
+        text = text.substring(0, position) + inserted + text.substring(position + removed);
+        styles.subList(position, position + removed).clear();
+        styles.addAll(position, Collections.nCopies(inserted.length(), null));
+        session.edited(position, removed, inserted.length());
+    }
+
+    private void apply(Restyle restyle) {
+        applied.add(restyle);
+        List<Collection<String>> restyled = styles(restyle.spans());
+        for (int i = 0; i < restyled.size(); ++i) {
+            styles.set(restyle.from() + i, restyled.get(i));
+        }
+    }
+
+    private void runAll() {
+        while (!worker.isEmpty() || !uiThread.isEmpty() || !frames.isEmpty()) {
+            if (!worker.isEmpty()) {
+                worker.poll().run();
+            } else if (!uiThread.isEmpty()) {
+                uiThread.poll().run();
+            } else {
+                frames.poll().run();
+            }
+        }
+    }
+
+    private List<Collection<String>> expectedStyles() {
+        return styles(highlighter.computeHighlighting(text));
+    }
+
+    private static List<Collection<String>> styles(StyleSpans<Collection<String>> spans) {
+        List<Collection<String>> styles = new ArrayList<>();
+        for (StyleSpan<Collection<String>> span : spans) {
+            styles.addAll(Collections.nCopies(span.getLength(), List.copyOf(span.getStyle())));
+        }
+        return styles;
+    }
+}
@@ -0,0 +1,87 @@
+package io.vepo.jcode.controls;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class JavaLexerTest {
+
+    private final ParagraphLexer lexer = new JavaHighlighter().getParagraphLexer().orElseThrow();
+
+    @Test
+    void shouldLexKeywordsTypesAndPunctuation() {
+        assertEquals(List.of("public:keyword", "class:keyword", "Test:type", "{:brace", "int:keyword", "[:bracket",
+                             "]:bracket", ";:semicolon", "void:keyword", "(:paren", "):paren", "}:brace"),
+                     tokens("public class Test { int[] values; void run() }"));
+        assertEquals(List.of("sealed:keyword", "non-sealed:keyword", "Shape:type"),
+                     tokens("sealed non-sealed Shape lower a-b"));
+        assertEquals(List.of("@Override:annotation", "@interface:annotation"), tokens("@Override @interface"));
+    }
+
+    @Test
+    void shouldLexLiterals() {
+        assertEquals(List.of("\"a \\\" b\":string", ";:semicolon", "'\\n':char", "true:keyword", "null:keyword"),
+                     tokens("\"a \\\" b\"; '\\n' true null"));
+        assertEquals(List.of("42:number", "1.5e3f:number", "0xFF_FFL:number", "10_000:number"),
+                     tokens("42 1.5e3f 0xFF_FFL 10_000"));
+        assertEquals(List.of("\"unterminated:string"), tokens("\"unterminated"));
+        assertEquals(List.of("\"/* no comment */\":string"), tokens("\"/* no comment */\""));
+    }
+
+    @Test
+    void shouldCarryBlockCommentsAcrossParagraphs() {
+        List<String> tokens = new ArrayList<>();
+        int state = lex("int a; /* open", ParagraphLexer.INITIAL_STATE, tokens);
+        assertEquals(JavaLexer.BLOCK_COMMENT, state);
+        state = lex("still comment", state, tokens);
+        assertEquals(JavaLexer.BLOCK_COMMENT, state);
+        state = lex("end */ int", state, tokens);
+        assertEquals(ParagraphLexer.INITIAL_STATE, state);
+        assertEquals(List.of("int:keyword", ";:semicolon", "/* open:comment", "still comment:comment",
+                             "end */:comment", "int:keyword"),
+                     tokens);
+    }
+
+    @Test
+    void shouldCarryTextBlocksAcrossParagraphs() {
+        List<String> tokens = new ArrayList<>();
+        int state = lex("String s = \"\"\"", ParagraphLexer.INITIAL_STATE, tokens);
+        assertEquals(JavaLexer.TEXT_BLOCK, state);
+        state = lex("    class \\\"\"\" quoted", state, tokens);
+        assertEquals(JavaLexer.TEXT_BLOCK, state);
+        state = lex("    \"\"\";", state, tokens);
+        assertEquals(ParagraphLexer.INITIAL_STATE, state);
+        assertEquals(List.of("String:type", "\"\"\":string", "    class \\\"\"\" quoted:string", "    \"\"\":string",
+                             ";:semicolon"),
+                     tokens);
+    }
+
+    @Test
+    void shouldEmitOrderedTokensInsideTheParagraph() {
+        String text = "package a;\nclass B { /* c */ String d = \"e\"; }\n";
+        List<int[]> ranges = new ArrayList<>();
+        int start = text.indexOf('\n') + 1;
+        int end = text.indexOf('\n', start);
+        lexer.lexParagraph(text, start, end, ParagraphLexer.INITIAL_STATE,
+                           (tokenStart, tokenEnd, type) -> ranges.add(new int[] { tokenStart, tokenEnd }));
+        int last = start;
+        for (int[] range : ranges) {
+            assertTrue(range[0] >= last && range[1] > range[0] && range[1] <= end);
+            last = range[1];
+        }
+    }
+
+    private List<String> tokens(String paragraph) {
+        List<String> tokens = new ArrayList<>();
+        assertEquals(ParagraphLexer.INITIAL_STATE, lex(paragraph, ParagraphLexer.INITIAL_STATE, tokens));
+        return tokens;
+    }
+
+    private int lex(String paragraph, int state, List<String> tokens) {
+        return lexer.lexParagraph(paragraph, 0, paragraph.length(), state,
+                                  (start, end, type) -> tokens.add(paragraph.substring(start, end) + ":" + TokenTypes.styleClass(type)));
+    }
+}
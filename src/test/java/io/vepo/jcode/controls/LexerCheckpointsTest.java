@@ -0,0 +1,53 @@
+package io.vepo.jcode.controls;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class LexerCheckpointsTest {
+
+    @Test
+    void shouldFindParagraphsByOffset() {
+        LexerCheckpoints checkpoints = checkpoints(3, 0, 5);
+        assertEquals(0, checkpoints.paragraphAt(0));
+        assertEquals(0, checkpoints.paragraphAt(3));
+        assertEquals(1, checkpoints.paragraphAt(4));
+        assertEquals(2, checkpoints.paragraphAt(5));
+        assertEquals(2, checkpoints.paragraphAt(10));
+        assertEquals(2, checkpoints.paragraphAt(42));
+        assertEquals(5, checkpoints.start(2));
+    }
+
+    @Test
+    void shouldReplaceParagraphs() {
+        LexerCheckpoints checkpoints = checkpoints(1, 2, 3, 4);
+        assertEquals(9, checkpoints.start(3));
+
+        LexerCheckpoints replacement = new LexerCheckpoints();
+        replacement.add(7, 10);
+        replacement.add(8, 20);
+        replacement.add(9, 30);
+        checkpoints.replace(1, 3, replacement);
+
+        assertEquals(5, checkpoints.size());
+        assertEquals(7, checkpoints.state(1));
+        assertEquals(9, checkpoints.state(3));
+        assertEquals(3, checkpoints.state(4));
+        assertEquals(4, checkpoints.length(4));
+        assertEquals(65, checkpoints.start(4));
+        assertEquals(4, checkpoints.paragraphAt(65));
+        assertEquals(3, checkpoints.paragraphAt(64));
+
+        checkpoints.replace(0, 5, new LexerCheckpoints());
+        assertEquals(0, checkpoints.size());
+        assertThrows(IndexOutOfBoundsException.class, () -> checkpoints.state(0));
+    }
+
+    private static LexerCheckpoints checkpoints(int... lengths) {
+        LexerCheckpoints checkpoints = new LexerCheckpoints(1);
+        for (int i = 0; i < lengths.length; ++i) {
+            checkpoints.add(i, lengths[i]);
+        }
+        return checkpoints;
+    }
+}
@@ -5,6 +5,9 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.jupiter.api.Test;
 
 class MarkdownHighlighterTest {
@@ -43,6 +46,44 @@ class MarkdownHighlighterTest {
         assertTrue(spans.getSpanCount() > 0);
     }
 
+    @Test
+    void shouldLexInlineConstructs() {
+        assertEquals(List.of("**bold**:md-bold", "*italic*:md-italic", "`code`:md-code", "[Google](https://google.com):md-link"),
+                     tokens("This is **bold**, *italic*, `code` and [Google](https://google.com)."));
+        assertEquals(List.of("_italic_:md-italic", "__bold__:md-bold"), tokens("snake_case_name _italic_ __bold__"));
+        assertEquals(List.of("``a ` b``:md-code"), tokens("``a ` b`` \\*not italic*"));
+        assertEquals(List.of(), tokens("* not closed ** not closed [not a link] ` not code"));
+    }
+
+    @Test
+    void shouldResolveOverlapsByStartingPosition() {
+        // The construct starting first takes the ones inside it
+        assertEquals(List.of("[`code` link](url):md-link"), tokens("[`code` link](url)"));
+        assertEquals(List.of("`[not](link)`:md-code"), tokens("`[not](link)`"));
+        assertEquals(List.of("**bold `code`**:md-bold"), tokens("**bold `code`**"));
+        assertEquals(List.of("# Header **bold**:md-header"), tokens("# Header **bold**"));
+        assertEquals(List.of(), tokens("#hashtag"));
+    }
+
+    @Test
+    void shouldCarryFencedCodeBlocks() {
+        ParagraphLexer lexer = highlighter.getParagraphLexer().orElseThrow();
+        List<String> tokens = new ArrayList<>();
+        int state = lex(lexer, "```java", ParagraphLexer.INITIAL_STATE, tokens);
+        assertEquals(MarkdownLexer.FENCED_CODE, state);
+        state = lex(lexer, "# not a header", state, tokens);
+        assertEquals(MarkdownLexer.FENCED_CODE, state);
+        state = lex(lexer, "~~~", state, tokens);
+        assertEquals(MarkdownLexer.FENCED_CODE, state);
+        state = lex(lexer, "```", state, tokens);
+        assertEquals(ParagraphLexer.INITIAL_STATE, state);
+        assertEquals(List.of("```java:md-code", "# not a header:md-code", "~~~:md-code", "```:md-code"), tokens);
+
+        // Backticks in the info string make an inline code span
+        assertEquals(List.of("```code```:md-code"), tokens("```code```"));
+        assertEquals(MarkdownLexer.TILDE_FENCED_CODE, lex(lexer, "~~~", ParagraphLexer.INITIAL_STATE, new ArrayList<>()));
+    }
+
     @Test
     void shouldBeRegisteredInFactory() {
         var highlighter = HighlighterFactory.getHighlighterForFile("test.md");
@@ -53,4 +94,16 @@ class MarkdownHighlighterTest {
         assertTrue(highlighter.isPresent());
         assertTrue(highlighter.get() instanceof MarkdownHighlighter);
     }
-} 
\ No newline at end of file
+
+    private List<String> tokens(String paragraph) {
+        List<String> tokens = new ArrayList<>();
+        assertEquals(ParagraphLexer.INITIAL_STATE,
+                     lex(highlighter.getParagraphLexer().orElseThrow(), paragraph, ParagraphLexer.INITIAL_STATE, tokens));
+        return tokens;
+    }
+
+    private static int lex(ParagraphLexer lexer, String paragraph, int state, List<String> tokens) {
+        return lexer.lexParagraph(paragraph, 0, paragraph.length(), state,
+                                  (start, end, type) -> tokens.add(paragraph.substring(start, end) + ":" + TokenTypes.styleClass(type)));
+    }
+}
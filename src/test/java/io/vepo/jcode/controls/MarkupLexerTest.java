@@ -0,0 +1,117 @@
+package io.vepo.jcode.controls;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class MarkupLexerTest {
+
+    private final ParagraphLexer xml = new XmlHighlighter().getParagraphLexer().orElseThrow();
+    private final ParagraphLexer html = new HtmlHighlighter().getParagraphLexer().orElseThrow();
+
+    @Test
+    void shouldLexTagsAndAttributes() {
+        assertEquals(List.of("<element:tag", "id:attribute", "\"a > b\":string", "flag:attribute", "'x':string",
+                             ">:tag", "&amp;:entity", "&#x20;:entity", "</element:tag", ">:tag", "<empty:tag",
+                             "/>:tag"),
+                     tokens(xml, "<element id=\"a > b\" flag = 'x'>A &amp; B&#x20;& c</element><empty/>"));
+        assertEquals(List.of("<input:tag", "value:attribute", "text:string", "required:attribute", ">:tag"),
+                     tokens(html, "<input value=text required>"));
+        assertEquals(List.of(), tokens(xml, "1 < 2 && 3 > 2"));
+    }
+
+    @Test
+    void shouldLexCommentsWithDashes() {
+        assertEquals(List.of("<!-- a - b -- c --->:comment", "<a:tag", ">:tag"),
+                     tokens(xml, "<!-- a - b -- c ---><a>"));
+        assertEquals(List.of("<![CDATA[ <a> ]] & ]]>:cdata"), tokens(xml, "<![CDATA[ <a> ]] & ]]>"));
+        assertEquals(List.of("<?xml version=\"1.0\"?>:instruction"), tokens(xml, "<?xml version=\"1.0\"?>"));
+        assertEquals(List.of("<!DOCTYPE html>:doctype"), tokens(html, "<!DOCTYPE html>"));
+    }
+
+    @Test
+    void shouldResumeConstructsInTheNextParagraph() {
+        List<String> tokens = new ArrayList<>();
+        int state = lex(xml, "<!-- open", ParagraphLexer.INITIAL_STATE, tokens);
+        assertEquals(MarkupLexer.COMMENT, state);
+        state = lex(xml, "", state, tokens);
+        assertEquals(MarkupLexer.COMMENT, state);
+        state = lex(xml, "end --> <a", state, tokens);
+        assertEquals(MarkupLexer.TAG, state);
+        state = lex(xml, "  b=\"multi", state, tokens);
+        assertEquals(MarkupLexer.DOUBLE_QUOTED, state);
+        state = lex(xml, "line\" c='d'>text", state, tokens);
+        assertEquals(ParagraphLexer.INITIAL_STATE, state);
+        assertEquals(List.of("<!-- open:comment", "end -->:comment", "<a:tag", "b:attribute", "\"multi:string",
+                             "line\":string", "c:attribute", "'d':string", ">:tag"),
+                     tokens);
+
+        tokens.clear();
+        state = lex(xml, "<!DOCTYPE note [", ParagraphLexer.INITIAL_STATE, tokens);
+        assertEquals(MarkupLexer.DOCTYPE_SUBSET, state);
+        state = lex(xml, "<!ENTITY a \"b\">", state, tokens);
+        assertEquals(MarkupLexer.DOCTYPE_SUBSET, state);
+        state = lex(xml, "]><note/>", state, tokens);
+        assertEquals(ParagraphLexer.INITIAL_STATE, state);
+        assertEquals(List.of("<!DOCTYPE note [:doctype", "<!ENTITY a \"b\">:doctype", "]>:doctype", "<note:tag",
+                             "/>:tag"),
+                     tokens);
+    }
+
+    @Test
+    void shouldLexScriptsAndStylesWithTheirLanguages() {
+        List<String> tokens = new ArrayList<>();
+        int state = lex(html, "<SCRIPT type=\"text/javascript\">", ParagraphLexer.INITIAL_STATE, tokens);
+        assertEquals(MarkupLexer.SCRIPT | MarkupLexer.RAW, state);
+        state = lex(html, "if (a < b) { \"<!--\"; } /* </scripts>", state, tokens);
+        assertEquals(MarkupLexer.SCRIPT | MarkupLexer.RAW, state & 0x3F);
+        assertNotEquals(MarkupLexer.SCRIPT | MarkupLexer.RAW, state);
+        state = lex(html, "*/ }</script><style>a { color: red; }</style>", state, tokens);
+        assertEquals(ParagraphLexer.INITIAL_STATE, state);
+        assertEquals(List.of("<SCRIPT:tag", "type:attribute", "\"text/javascript\":string", ">:tag", "if:keyword",
+                             "(:paren", "):paren", "{:brace", "\"<!--\":string", ";:semicolon", "}:brace",
+                             "/* </scripts>:comment", "*/:comment", "}:brace", "</script:tag", ">:tag", "<style:tag",
+                             ">:tag", "a:selector", "{:brace", "color:property", "::colon", "red:selector",
+                             ";:semicolon", "}:brace", "</style:tag", ">:tag"),
+                     tokens);
+
+        // Scripts holding data are left raw
+        assertEquals(List.of("<script:tag", "type:attribute", "text/x-template:string", ">:tag", "</script:tag",
+                             ">:tag"),
+                     tokens(html, "<script type=text/x-template>if (a) {}</script>"));
+
+        // XML has no raw elements
+        assertEquals(List.of("<script:tag", ">:tag", "<a:tag", ">:tag"), tokens(xml, "<script><a>"));
+    }
+
+    @Test
+    void shouldLexEveryParagraphOfLargeDocumentsAlike() {
+        String paragraph = "<a b=\"c\"><!-- - --><![CDATA[ x ]]>&lt;</a>";
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100_000; ++i) {
+            text.append(paragraph).append('\n');
+        }
+        int[] count = new int[1];
+        int state = ParagraphLexer.INITIAL_STATE;
+        for (int start = 0; start < text.length(); start += paragraph.length() + 1) {
+            state = xml.lexParagraph(text, start, start + paragraph.length(), state, (s, e, type) -> ++count[0]);
+        }
+        assertEquals(ParagraphLexer.INITIAL_STATE, state);
+        assertEquals(100_000 * 9, count[0]);
+    }
+
+    private static List<String> tokens(ParagraphLexer lexer, String paragraph) {
+        List<String> tokens = new ArrayList<>();
+        assertEquals(ParagraphLexer.INITIAL_STATE, lex(lexer, paragraph, ParagraphLexer.INITIAL_STATE, tokens));
+        return tokens;
+    }
+
+    private static int lex(ParagraphLexer lexer, String paragraph, int state, List<String> tokens) {
+        return lexer.lexParagraph(paragraph, 0, paragraph.length(), state,
+                                  (start, end, type) -> tokens.add(paragraph.substring(start, end) + ":"
+                                          + TokenTypes.styleClass(type)));
+    }
+}
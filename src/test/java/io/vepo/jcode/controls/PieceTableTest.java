@@ -0,0 +1,166 @@
+package io.vepo.jcode.controls;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PieceTableTest {
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void shouldFindLines() throws IOException {
+        PieceTable table = open("first\r\nsecond\n\nlast".getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+        assertEquals(4, table.lineCount());
+        assertEquals(List.of("first", "second", "", "last"), lines(table));
+        assertEquals(0, table.lineStart(0));
+        assertEquals(7, table.lineStart(1));
+        assertEquals(15, table.lineStart(3));
+        assertEquals("second", table.text(7, 13));
+        assertEquals('l', table.charAt(table.length() - 4));
+
+        PieceTable empty = open(new byte[0], StandardCharsets.UTF_8);
+        assertEquals(1, empty.lineCount());
+        assertEquals("", empty.line(0));
+        assertThrows(IndexOutOfBoundsException.class, () -> empty.lineStart(1));
+    }
+
+    @Test
+    void shouldEditText() throws IOException {
+        PieceTable table = open("hello world".getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+        table.insert(5, ",\nbrave new");
+        table.delete(0, 1);
+        table.insert(0, "H");
+        table.replace(table.length() - 5, table.length(), "World\n");
+        assertEquals("Hello,\nbrave new World\n", table.toString());
+        assertEquals(List.of("Hello,", "brave new World", ""), lines(table));
+        assertEquals("brave", table.text(7, 12));
+        assertEquals('W', table.charAt(17));
+        assertEquals(6, table.lineEnd(0));
+        assertEquals(1, table.lineOf(7));
+        assertEquals(2, table.lineOf(table.length()));
+    }
+
+    @Test
+    void shouldEditOnlyOnceIndexed() throws IOException {
+        Path file = folder.resolve("unindexed.txt");
+        Files.writeString(file, "first\nsecond\n");
+        PieceTable table = PieceTable.map(file, StandardCharsets.UTF_8);
+        assertThrows(IllegalStateException.class, () -> table.insert(0, "x"));
+        table.append(table.index(table.indexed(), table.size()));
+        table.insert(0, "x");
+        assertEquals("xfirst", table.line(0));
+    }
+
+    @Test
+    void shouldReadMappedFilesByPiece() throws IOException {
+        // Multibyte characters and surrogate pairs are cut by the pieces
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; builder.length() < 5 * PieceTable.PIECE_SIZE; ++i) {
+            builder.append("line ").append(i).append(" ação 😀 €\r\n");
+        }
+        String text = builder.toString();
+        PieceTable table = open(concat(new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF },
+                                       text.getBytes(StandardCharsets.UTF_8)),
+                                StandardCharsets.UTF_8);
+        assertEquals(text.length(), table.length());
+        assertEquals(text.split("\n", -1).length, table.lineCount());
+        assertEquals("line 1234 ação 😀 €", table.line(1234));
+        assertEquals(text, table.toString());
+
+        assertEquals("ação\n",
+                     open("ação\n".getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.ISO_8859_1).toString());
+    }
+
+    @Test
+    void shouldReadLinesWhileTheFileIsIndexed() throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; builder.length() < 10 * PieceTable.PIECE_SIZE; ++i) {
+            builder.append("line ").append(i).append('\n');
+        }
+        builder.append("x".repeat(50));
+        Path file = folder.resolve("indexed.txt");
+        Files.writeString(file, builder);
+
+        PieceTable table = PieceTable.map(file, StandardCharsets.UTF_8);
+        assertEquals(0, table.length());
+        assertFalse(table.isIndexed());
+        PieceTable.Batch batch = table.index(table.indexed(), 3 * PieceTable.PIECE_SIZE);
+        assertEquals(0, table.length());
+        table.append(batch);
+        assertFalse(table.isIndexed());
+        assertEquals(3 * PieceTable.PIECE_SIZE, table.length());
+        assertEquals("line 1000", table.line(1000));
+        assertThrows(IllegalStateException.class, () -> table.append(batch));
+
+        while (!table.isIndexed()) {
+            table.append(table.index(table.indexed(), 3 * PieceTable.PIECE_SIZE));
+        }
+        assertEquals(builder.toString(), table.toString());
+        assertEquals("xxxxx", table.line(table.lineCount() - 1, 5));
+    }
+
+    @Test
+    void shouldEditLikeAStringBuilder() throws IOException {
+        Random random = new Random(42);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; builder.length() < 3 * PieceTable.PIECE_SIZE; ++i) {
+            builder.append(i % 7 == 0 ? "😀\n" : "ação " + i + "\n");
+        }
+        PieceTable table = open(builder.toString().getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+
+        for (int i = 0; i < 2_000; ++i) {
+            int start = random.nextInt(builder.length() + 1);
+            int end = Math.min(builder.length(), start + random.nextInt(100));
+            if (random.nextBoolean()) {
+                String inserted = random.nextInt(4) == 0 ? "\n" : "x" + i;
+                builder.insert(start, inserted);
+                table.insert(start, inserted);
+            } else {
+                builder.delete(start, end);
+                table.delete(start, end);
+            }
+            if (i % 100 == 0) {
+                int line = random.nextInt((int) table.lineCount());
+                assertEquals(builder.toString().split("\n", -1)[line], table.line(line));
+                assertEquals(builder.substring(0, start).chars().filter(c -> c == '\n').count(), table.lineOf(start));
+            }
+        }
+        assertEquals(builder.length(), table.length());
+        assertEquals(builder.toString(), table.toString());
+    }
+
+    private PieceTable open(byte[] bytes, Charset charset) throws IOException {
+        Path file = Files.createTempFile(folder, "file", ".txt");
+        Files.write(file, bytes);
+        PieceTable table = PieceTable.map(file, charset);
+        table.append(table.index(table.indexed(), table.size()));
+        return table;
+    }
+
+    private static List<String> lines(PieceTable table) {
+        List<String> lines = new ArrayList<>();
+        for (long line = 0; line < table.lineCount(); ++line) {
+            lines.add(table.line(line));
+        }
+        return lines;
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] bytes = new byte[first.length + second.length];
+        System.arraycopy(first, 0, bytes, 0, first.length);
+        System.arraycopy(second, 0, bytes, first.length, second.length);
+        return bytes;
+    }
+}
@@ -0,0 +1,48 @@
+package io.vepo.jcode.controls;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.fxmisc.richtext.CodeArea;
+import org.fxmisc.richtext.model.StyleSpans;
+
+/**
+ * Highlighter registered through <code>META-INF/services</code>.
+ */
+public class ServiceLoadedHighlighter implements LanguageHighlighter {
+
+    @Override
+    public Pattern getPattern() {
+        return Pattern.compile("");
+    }
+
+    @Override
+    public String getCssClass() {
+        return "shell-code";
+    }
+
+    @Override
+    public StyleSpans<Collection<String>> computeHighlighting(String text) {
+        return StyleSpans.singleton(Set.of(), text.length());
+    }
+
+    @Override
+    public void configureCodeArea(CodeArea codeArea) {
+    }
+
+    @Override
+    public Set<String> getFileExtensions() {
+        return Set.of("sh");
+    }
+
+    @Override
+    public Set<String> getFileNames() {
+        return Set.of(".bashrc");
+    }
+
+    @Override
+    public Set<String> getInterpreters() {
+        return Set.of("sh", "bash");
+    }
+}
@@ -0,0 +1,37 @@
+package io.vepo.jcode.controls;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class TokenBufferTest {
+
+    @Test
+    void shouldPackTokens() {
+        int keyword = TokenTypes.of("keyword");
+        int string = TokenTypes.of("string");
+        TokenBuffer buffer = new TokenBuffer(1);
+        buffer.token(10, 15, keyword);
+        buffer.token(16, 20, string);
+
+        assertEquals(2, buffer.size());
+        assertEquals(16, buffer.start(1));
+        assertEquals(4, buffer.length(1));
+        assertEquals(string, buffer.type(1));
+        assertArrayEquals(new int[] { 0, 5, keyword, 6, 4, string }, buffer.toArray(10));
+
+        buffer.clear();
+        assertEquals(0, buffer.size());
+        assertEquals(0, buffer.toArray(0).length);
+        assertThrows(IndexOutOfBoundsException.class, () -> buffer.start(0));
+    }
+
+    @Test
+    void shouldShareStylesOfTokenTypes() {
+        int type = TokenTypes.of("keyword");
+        assertEquals(type, TokenTypes.of("keyword"));
+        assertEquals("keyword", TokenTypes.styleClass(type));
+        assertSame(TokenTypes.styles(type), TokenTypes.styles(TokenTypes.of("keyword")));
+        assertTrue(TokenTypes.styles(TokenTypes.NONE).isEmpty());
+    }
+}
@@ -0,0 +1,91 @@
+package io.vepo.jcode.controls;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class TokenCacheTest {
+
+    private static final String CODE = """
+        /*
+         * A comment
+         */
+        class A {
+            int a = 1;
+        }
+        """;
+
+    private final ParagraphLexer lexer = new JavaHighlighter().getParagraphLexer().orElseThrow();
+
+    @Test
+    void shouldRestoreTheTokensOfUnchangedContent() {
+        TokenCache cache = new TokenCache(TokenCache.DEFAULT_BUDGET);
+        HighlightingModel highlighted = new HighlightingModel(lexer);
+        var spans = highlighted.highlight(CODE);
+        highlighted.store(CODE, cache);
+        assertEquals(1, cache.size());
+        assertTrue(cache.bytes() > 0);
+
+        HighlightingModel reopened = new HighlightingModel(lexer);
+        var restored = reopened.restore(CODE, cache);
+        assertEquals(1, cache.hits());
+        assertEquals(spans, restored.spans());
+        assertTrue(reopened.isComplete());
+        assertEquals(highlighted.paragraphCount(), reopened.paragraphCount());
+
+        // The restored model is edited without touching the cached tokens
+        String edited = "//" + CODE;
+        reopened.update(edited, 0, 0, 2);
+        assertNotNull(new HighlightingModel(lexer).restore(CODE, cache));
+        assertEquals(spans, new HighlightingModel(lexer).restore(CODE, cache).spans());
+    }
+
+    @Test
+    void shouldMissOtherContentAndLexers() {
+        TokenCache cache = new TokenCache(TokenCache.DEFAULT_BUDGET);
+        HighlightingModel model = new HighlightingModel(lexer);
+        model.highlight(CODE);
+        model.store(CODE, cache);
+
+        assertNull(new HighlightingModel(lexer).restore(CODE + " ", cache));
+        assertNull(new HighlightingModel(lexer).restore(CODE.replace('a', 'b'), cache));
+        assertNull(new HighlightingModel(new CssHighlighter().getParagraphLexer().orElseThrow()).restore(CODE, cache));
+        assertEquals(0, cache.hits());
+        assertEquals(3, cache.misses());
+    }
+
+    @Test
+    void shouldEvictTheLeastRecentlyUsedOverBudget() {
+        TokenCache probe = new TokenCache(TokenCache.DEFAULT_BUDGET);
+        HighlightingModel probed = new HighlightingModel(lexer);
+        probed.highlight(CODE);
+        probed.store(CODE, probe);
+
+        // Room for two documents
+        TokenCache cache = new TokenCache(probe.bytes() * 5 / 2);
+        String[] documents = { CODE, CODE.replace("1", "2"), CODE.replace("1", "3") };
+        for (String document : documents) {
+            HighlightingModel model = new HighlightingModel(lexer);
+            model.highlight(document);
+            model.store(document, cache);
+            assertTrue(cache.bytes() <= cache.budget());
+            // Keep the first document recently used
+            new HighlightingModel(lexer).restore(CODE, cache);
+        }
+
+        assertEquals(2, cache.size());
+        assertNotNull(new HighlightingModel(lexer).restore(CODE, cache));
+        assertNull(new HighlightingModel(lexer).restore(documents[1], cache));
+    }
+
+    @Test
+    void shouldNotCacheDocumentsOverHalfTheBudget() {
+        TokenCache cache = new TokenCache(1_000);
+        String document = CODE.repeat(10);
+        HighlightingModel model = new HighlightingModel(lexer);
+        model.highlight(document);
+        model.store(document, cache);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.bytes());
+    }
+}
@@ -0,0 +1,63 @@
+package io.vepo.jcode.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import io.vepo.jcode.events.LoadingFileEvent;
+import javafx.concurrent.Task;
+import javafx.concurrent.Worker;
+
+class ChunkBatcherTest {
+
+    private static final File FILE = new File("large.log");
+    private static final Worker<Void> STREAM = new Task<>() {
+        @Override
+        protected Void call() {
+            return null;
+        }
+    };
+
+    @Test
+    void shouldBatchChunksWhileOneIsInFlight() throws InterruptedException {
+        List<LoadingFileEvent> events = new ArrayList<>();
+        Deque<Runnable> uiThread = new ArrayDeque<>();
+        ChunkBatcher batcher = new ChunkBatcher(FILE, STREAM, events::add, uiThread::add);
+
+        chunk(batcher, "first\n");
+        chunk(batcher, "second\n");
+        chunk(batcher, "third\r");
+        assertEquals(List.of(new LoadingFileEvent(FILE, STREAM, "first\n", true, false)), events);
+
+        // The carriage return waits for a line feed that may follow
+        uiThread.poll().run();
+        chunk(batcher, "\nfourth");
+        chunk(batcher, "\r");
+        assertEquals(new LoadingFileEvent(FILE, STREAM, "second\nthird\r\nfourth", false, false), events.get(1));
+
+        uiThread.poll().run();
+        batcher.finish();
+        assertEquals(List.of(new LoadingFileEvent(FILE, STREAM, "first\n", true, false),
+                             new LoadingFileEvent(FILE, STREAM, "second\nthird\r\nfourth", false, false),
+                             new LoadingFileEvent(FILE, STREAM, "\r", false, true)),
+                     events);
+    }
+
+    @Test
+    void shouldOpenAndCompleteEmptyFiles() throws InterruptedException {
+        List<LoadingFileEvent> events = new ArrayList<>();
+        new ChunkBatcher(FILE, STREAM, events::add, Runnable::run).finish();
+        assertEquals(List.of(new LoadingFileEvent(FILE, STREAM, "", true, true)), events);
+    }
+
+    private static void chunk(ChunkBatcher batcher, String text) {
+        char[] chars = ("<" + text + ">").toCharArray();
+        batcher.chunk(chars, 1, text.length());
+    }
+}
@@ -0,0 +1,125 @@
+package io.vepo.jcode.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FileLoaderTest {
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void shouldKeepTheContentAsItIs() throws IOException {
+        assertEquals(new FileLoader.Content("first\r\nsecond\rthird\nlast", StandardCharsets.UTF_8),
+                     load("first\r\nsecond\rthird\nlast".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(new FileLoader.Content("", StandardCharsets.UTF_8), load(new byte[0]));
+    }
+
+    @Test
+    void shouldDetectTheCharset() throws IOException {
+        assertEquals(new FileLoader.Content("ação €", StandardCharsets.UTF_8),
+                     load("ação €".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(new FileLoader.Content("with �", StandardCharsets.UTF_8),
+                     load("with �".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(new FileLoader.Content("ação", StandardCharsets.ISO_8859_1),
+                     load("ação".getBytes(StandardCharsets.ISO_8859_1)));
+
+        // Byte order marks choose the charset and are not part of the text
+        assertEquals(new FileLoader.Content("bom", StandardCharsets.UTF_8),
+                     load(new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF, 'b', 'o', 'm' }));
+        assertEquals(new FileLoader.Content("bé", StandardCharsets.UTF_16BE),
+                     load(new byte[] { (byte) 0xFE, (byte) 0xFF, 0, 'b', 0, (byte) 0xE9 }));
+        assertEquals(new FileLoader.Content("bé", StandardCharsets.UTF_16LE),
+                     load(new byte[] { (byte) 0xFF, (byte) 0xFE, 'b', 0, (byte) 0xE9, 0 }));
+    }
+
+    @Test
+    void shouldDetectTheCharsetOfTheFirstChunk() throws IOException {
+        Path file = folder.resolve("detected.txt");
+        Files.write(file, "ação".getBytes(StandardCharsets.ISO_8859_1));
+        assertEquals(StandardCharsets.ISO_8859_1, FileLoader.detect(file, null));
+        assertEquals(StandardCharsets.UTF_16BE, FileLoader.detect(file, StandardCharsets.UTF_16BE));
+        Files.write(file, "ação".getBytes(StandardCharsets.UTF_8));
+        assertEquals(StandardCharsets.UTF_8, FileLoader.detect(file, null));
+        Files.write(file, new byte[] { (byte) 0xFF, (byte) 0xFE, 'a', 0 });
+        assertEquals(StandardCharsets.UTF_16LE, FileLoader.detect(file, null));
+    }
+
+    @Test
+    void shouldUseAnExplicitCharset() throws IOException {
+        Path file = folder.resolve("explicit.txt");
+        Files.write(file, "ação".getBytes(StandardCharsets.UTF_8));
+        assertEquals(new FileLoader.Content("aÃ§Ã£o", StandardCharsets.ISO_8859_1),
+                     FileLoader.load(file, StandardCharsets.ISO_8859_1, (loaded, total) -> {}));
+    }
+
+    @Test
+    void shouldThrottleProgressByBytes() throws IOException {
+        byte[] bytes = new byte[10 * FileLoader.CHUNK_SIZE + 17];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = (byte) (i % 64 == 63 ? '\n' : 'a' + i % 26);
+        }
+        Path file = folder.resolve("large.txt");
+        Files.write(file, bytes);
+
+        List<long[]> updates = new ArrayList<>();
+        String text = FileLoader.load(file, null, (loaded, total) -> updates.add(new long[] { loaded, total }))
+                                .text();
+        assertEquals(bytes.length, text.length());
+        assertEquals(new String(bytes, StandardCharsets.US_ASCII), text);
+        assertTrue(updates.size() <= FileLoader.PROGRESS_UPDATES + 1, "Too many updates: " + updates.size());
+        for (int i = 1; i < updates.size(); ++i) {
+            assertTrue(updates.get(i)[0] > updates.get(i - 1)[0]);
+        }
+        assertArrayEquals(new long[] { bytes.length, bytes.length }, updates.get(updates.size() - 1));
+    }
+
+    @Test
+    void shouldStreamTheSameText() throws IOException {
+        // Multibyte characters are cut by the chunks
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < 3 * FileLoader.CHUNK_SIZE) {
+            builder.append("ação, ü e ").append(builder.length()).append("\r\n");
+        }
+        String text = builder.toString();
+        for (var charset : List.of(StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1, StandardCharsets.UTF_16LE)) {
+            Path file = Files.createTempFile(folder, "stream", ".txt");
+            byte[] bytes = text.getBytes(charset);
+            if (charset == StandardCharsets.UTF_16LE) {
+                bytes = concat(new byte[] { (byte) 0xFF, (byte) 0xFE }, bytes);
+            }
+            Files.write(file, bytes);
+
+            StringBuilder streamed = new StringBuilder();
+            List<Long> progress = new ArrayList<>();
+            Charset decoded = FileLoader.stream(file, null, streamed::append, (loaded, total) -> progress.add(loaded));
+            assertEquals(new FileLoader.Content(text, charset), load(bytes));
+            assertEquals(charset, decoded);
+            assertEquals(text, streamed.toString());
+            assertEquals(bytes.length, progress.get(progress.size() - 1));
+        }
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] bytes = new byte[first.length + second.length];
+        System.arraycopy(first, 0, bytes, 0, first.length);
+        System.arraycopy(second, 0, bytes, first.length, second.length);
+        return bytes;
+    }
+
+    private FileLoader.Content load(byte[] bytes) throws IOException {
+        Path file = Files.createTempFile(folder, "file", ".txt");
+        Files.write(file, bytes);
+        return FileLoader.load(file, null, (loaded, total) -> {});
+    }
+}
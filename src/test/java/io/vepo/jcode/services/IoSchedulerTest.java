@@ -0,0 +1,55 @@
+package io.vepo.jcode.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class IoSchedulerTest {
+
+    @Test
+    void shouldRunTasksOnVirtualThreads() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        boolean[] virtual = new boolean[1];
+        IoScheduler.shared().execute(() -> {
+            virtual[0] = Thread.currentThread().isVirtual();
+            done.countDown();
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(virtual[0]);
+    }
+
+    @Test
+    void shouldBoundTheTasksRunningAtOnce() throws InterruptedException {
+        IoScheduler scheduler = new IoScheduler(2);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(20);
+        for (int i = 0; i < 20; ++i) {
+            scheduler.execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, maxRunning.get());
+
+        // A failing task gives its turn back
+        CountDownLatch after = new CountDownLatch(1);
+        IoScheduler single = new IoScheduler(1);
+        single.execute(() -> {
+            throw new IllegalStateException("failed");
+        });
+        single.execute(after::countDown);
+        assertTrue(after.await(5, TimeUnit.SECONDS));
+    }
+}